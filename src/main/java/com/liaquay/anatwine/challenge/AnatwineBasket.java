@@ -1,5 +1,7 @@
 package com.liaquay.anatwine.challenge;
 
+import java.util.Arrays;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.ComponentScan;
@@ -38,9 +40,7 @@ public class AnatwineBasket {
 	private void costProducts(final String[] productNames) {
 
 		// Add items to the basket
-		for(final String productName : productNames) {
-			_basketService.add(productName);
-		}
+		_basketService.addAll(Arrays.asList(productNames));
 
 		// Cost the basket
 		final Costing costing =_costingService.getCosting();
@@ -1,22 +1,45 @@
 package com.liaquay.anatwine.challenge.basket;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
 
 /**
  * The basket service's model of a basket.
  *
  * This model just stores the names of products mapped to their quantity.
+ *
+ * A basket is immutable so basket services may hand out the same instance
+ * as a snapshot for as long as the basket is unchanged, and make a new one
+ * (see {@link #withProduct(String, int)}) when it changes.
  */
 public class Basket {
 
+	/**
+	 * A basket with nothing in it
+	 */
+	public static final Basket EMPTY = new Basket(ImmutableMap.of());
+
 	/**
 	 * A map of the names of products mapped to their quantity
 	 */
-	private final Map<String, Integer> _products;
+	private final ImmutableMap<String, Integer> _products;
+
+	/**
+	 * The hash code, worked out once as baskets are used as cache keys
+	 */
+	private final int _hashCode;
+
+	/**
+	 * The basket keyed by product id, made when first needed and remade if out of date.
+	 *
+	 * Racing threads may each make one but an indexed basket is immutable so any will do.
+	 */
+	private IndexedBasket _indexed = null;
 
 	/**
 	 * Constructor
@@ -24,7 +47,67 @@ public class Basket {
 	 * @param products the names of products mapped to their quantity
 	 */
 	public Basket(final Map<String, Integer> products) {
+		// Copying an immutable map is free
 		_products = ImmutableMap.copyOf(products);
+		_hashCode = _products.hashCode();
+	}
+
+	/**
+	 * Make a copy of this basket with more of a product added
+	 *
+	 * @param productName the product name
+	 * @param quantity the number of products to add
+	 * @return a new basket
+	 */
+	public Basket withProduct(final String productName, final int quantity) {
+		checkQuantity(productName, quantity);
+		if(quantity == 0) {
+			return this;
+		}
+		final ImmutableMap.Builder<String, Integer> products = ImmutableMap.builder();
+		boolean found = false;
+		for(final Map.Entry<String, Integer> product : _products.entrySet()) {
+			if(product.getKey().equals(productName)) {
+				products.put(productName, product.getValue() + quantity);
+				found = true;
+			}
+			else {
+				products.put(product);
+			}
+		}
+		if(!found) {
+			products.put(productName, quantity);
+		}
+		return new Basket(products.build());
+	}
+
+	/**
+	 * Make a copy of this basket with more of many products added
+	 *
+	 * @param additions the names of products mapped to the number to add
+	 * @return a new basket, or this basket if nothing was added
+	 */
+	public Basket withProducts(final Map<String, Integer> additions) {
+		additions.forEach(Basket::checkQuantity);
+		final Map<String, Integer> products = new LinkedHashMap<>(_products);
+		additions.forEach((productName, quantity) -> {
+			if(quantity > 0) {
+				products.merge(productName, quantity, Integer::sum);
+			}
+		});
+		return products.size() == _products.size() && products.equals(_products) ? this : new Basket(products);
+	}
+
+	/**
+	 * Check a quantity of a product to be added to a basket
+	 *
+	 * @param productName the name of the product
+	 * @param quantity the number of products to add
+	 */
+	private static void checkQuantity(final String productName, final int quantity) {
+		if(quantity < 0) {
+			throw new IllegalArgumentException("Sorry, cannot add " + quantity + " of " + productName + " to a basket");
+		}
 	}
 
 	/**
@@ -36,6 +119,21 @@ public class Basket {
 		return _products.keySet();
 	}
 
+	/**
+	 * Get the basket keyed by product id
+	 *
+	 * @param dictionary the dictionary giving the ids of the products
+	 * @return the basket keyed by product id, leaving out products without ids
+	 */
+	public IndexedBasket getIndexed(final ProductDictionary dictionary) {
+		IndexedBasket indexed = _indexed;
+		if(indexed == null || !indexed.isCurrent(dictionary)) {
+			indexed = new IndexedBasket(_products, dictionary);
+			_indexed = indexed;
+		}
+		return indexed;
+	}
+
 	/**
 	 * Get the quantity of a given product in the basket.
 	 *
@@ -54,13 +152,15 @@ public class Basket {
 
 	@Override
 	public boolean equals(final Object o) {
+		// Repeated snapshots of an unchanged basket are the same instance
+		if(o == this) return true;
 		if(!(o instanceof Basket)) return false;
 		final Basket basket = (Basket)o;
-		return Objects.equal(_products, basket._products);
+		return _hashCode == basket._hashCode && Objects.equal(_products, basket._products);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(_products);
+		return _hashCode;
 	}
 }
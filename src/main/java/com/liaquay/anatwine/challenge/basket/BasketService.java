@@ -1,5 +1,8 @@
 package com.liaquay.anatwine.challenge.basket;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Service for storing/retrieving products placed in a customers basket.
  *
@@ -24,6 +27,37 @@ public interface BasketService {
 	 */
 	public void add(final String productName);
 
+	/**
+	 * Add a number of units of a product to the customers basket in one step.
+	 *
+	 * @param productName the name of the product
+	 * @param quantity the number of units to add, which must not be negative
+	 */
+	public void add(final String productName, final int quantity);
+
+	/**
+	 * Add many products to the customers basket in one step.
+	 *
+	 * @param products the names of products mapped to the number of units to add, which must not be negative
+	 */
+	public void addAll(final Map<String, Integer> products);
+
+	/**
+	 * Add a list of products to the customers basket in one step.
+	 *
+	 * Repeated names are counted before the basket is updated, so adding
+	 * "Tie", "Tie" is the same as adding 2 ties.
+	 *
+	 * @param productNames the names of the products to add, one per unit
+	 */
+	public default void addAll(final Iterable<String> productNames) {
+		final Map<String, Integer> products = new LinkedHashMap<>();
+		for(final String productName : productNames) {
+			products.merge(productName, 1, Integer::sum);
+		}
+		addAll(products);
+	}
+
 	/**
 	 * Get the current basket contents including the names of the
 	 * products to purchase along with their quantity.
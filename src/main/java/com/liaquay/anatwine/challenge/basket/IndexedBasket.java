@@ -0,0 +1,122 @@
+package com.liaquay.anatwine.challenge.basket;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * A basket keyed by product id rather than product name.
+ *
+ * The products are held in ascending order of id in a pair of arrays, so the
+ * basket can be walked or searched without hashing any names. Products without an
+ * id in the dictionary are left out, as no discount can involve them.
+ *
+ * Instances are immutable. The arrays returned must not be modified.
+ */
+public class IndexedBasket {
+
+	private final int[] _productIds;
+	private final int[] _quantities;
+
+	/**
+	 * The dictionary giving the ids, and its size if any product had no id, else -1
+	 */
+	private final ProductDictionary _dictionary;
+	private final int _dictionarySize;
+
+	/**
+	 * Constructor
+	 *
+	 * @param products the names of products mapped to their quantity
+	 * @param dictionary the dictionary giving the ids of the products
+	 */
+	public IndexedBasket(final Map<String, Integer> products, final ProductDictionary dictionary) {
+		_dictionary = dictionary;
+		// Read before the ids so an id assigned meanwhile makes this basket out of date
+		final int dictionarySize = dictionary.size();
+
+		// Pack the id and quantity together so they can be sorted by id in one go
+		long[] entries = new long[products.size()];
+		int i = 0;
+		for(final Map.Entry<String, Integer> product : products.entrySet()) {
+			final int productId = dictionary.findId(product.getKey());
+			if(productId >= 0) {
+				entries[i++] = ((long)productId << 32) | (product.getValue() & 0xFFFFFFFFL);
+			}
+		}
+		_dictionarySize = i < entries.length ? dictionarySize : -1;
+		if(i < entries.length) {
+			entries = Arrays.copyOf(entries, i);
+		}
+		Arrays.sort(entries);
+
+		_productIds = new int[entries.length];
+		_quantities = new int[entries.length];
+		for(i = 0; i < entries.length; ++i) {
+			_productIds[i] = (int)(entries[i] >>> 32);
+			_quantities[i] = (int)entries[i];
+		}
+	}
+
+	/**
+	 * Check whether this basket holds every product in it with an id in a dictionary.
+	 *
+	 * It does not if it was indexed with a different dictionary, or a product left
+	 * out may have been given an id since.
+	 *
+	 * @param dictionary the dictionary giving the ids of the products
+	 * @return true if this basket is up to date with the dictionary
+	 */
+	public boolean isCurrent(final ProductDictionary dictionary) {
+		return _dictionary == dictionary && (_dictionarySize < 0 || _dictionarySize == dictionary.size());
+	}
+
+	/**
+	 * Get the number of different products in the basket with ids
+	 *
+	 * @return the number of different products in the basket with ids
+	 */
+	public int size() {
+		return _productIds.length;
+	}
+
+	/**
+	 * Get the ids of the products in the basket
+	 *
+	 * @return the ascending ids of the products in the basket
+	 */
+	public int[] getProductIds() {
+		return _productIds;
+	}
+
+	/**
+	 * Get the quantities of the products in the basket
+	 *
+	 * @return the quantities of the products in the same order as {@link #getProductIds()}
+	 */
+	public int[] getQuantities() {
+		return _quantities;
+	}
+
+	/**
+	 * Check if a product is in the basket
+	 *
+	 * @param productId the id of the product
+	 * @return true if the product is in the basket
+	 */
+	public boolean contains(final int productId) {
+		return Arrays.binarySearch(_productIds, productId) >= 0;
+	}
+
+	/**
+	 * Get the quantity of a given product in the basket.
+	 *
+	 * @param productId the id of the product
+	 * @return the quantity of the product in the basket or zero if it is not present
+	 */
+	public int getQuantity(final int productId) {
+		final int i = Arrays.binarySearch(_productIds, productId);
+		return i < 0 ? 0 : _quantities[i];
+	}
+}
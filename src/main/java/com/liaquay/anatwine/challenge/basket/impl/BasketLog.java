@@ -0,0 +1,420 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+
+/**
+ * The files behind {@link DurableBasketServiceImpl}: a snapshot of every basket and a
+ * write-ahead log of the changes made since.
+ *
+ * Every change is numbered and each basket in the snapshot records the number of the last
+ * change it includes. When replaying, changes a basket already includes are skipped, so the
+ * log may safely hold changes made before the snapshot was taken. This allows a snapshot to
+ * be taken while changes are still being made.
+ *
+ * Each log record is written as its length, its content and a checksum of its content.
+ * A record cut short by a crash, longer than the rest of the file, or with a bad checksum,
+ * ends the log. Strings are written as a length and their UTF-8 bytes, so customer ids and
+ * product names of any length can be saved.
+ *
+ * This class is not thread safe. It is only used by the service's writer thread, and
+ * while replaying before that thread starts.
+ */
+class BasketLog implements Closeable {
+
+	/**
+	 * Identifies a snapshot file
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x42534e50;
+
+	/**
+	 * Log record types
+	 */
+	private static final byte ADD = 1;
+	private static final byte CLEAR = 2;
+
+	/**
+	 * A change to a basket
+	 */
+	static class Change {
+
+		final long _sequence;
+		final String _customerId;
+
+		/**
+		 * The products added or null if the basket was cleared
+		 */
+		final Map<String, Integer> _products;
+
+		/**
+		 * Constructor
+		 *
+		 * @param sequence the number of the change
+		 * @param customerId the customer whose basket changed
+		 * @param products the products added or null if the basket was cleared
+		 */
+		Change(final long sequence, final String customerId, final Map<String, Integer> products) {
+			_sequence = sequence;
+			_customerId = customerId;
+			_products = products;
+		}
+
+		/**
+		 * Apply the change to a basket
+		 *
+		 * @param basket the basket before the change
+		 * @return the basket after the change
+		 */
+		Basket applyTo(final Basket basket) {
+			return _products == null ? Basket.EMPTY : basket.withProducts(_products);
+		}
+	}
+
+	/**
+	 * A basket and the number of the last change it includes
+	 */
+	static class Version {
+
+		final long _sequence;
+		final Basket _basket;
+
+		/**
+		 * Constructor
+		 *
+		 * @param sequence the number of the last change included in the basket
+		 * @param basket the basket
+		 */
+		Version(final long sequence, final Basket basket) {
+			_sequence = sequence;
+			_basket = basket;
+		}
+	}
+
+	/**
+	 * Receives the baskets and changes read back from the files
+	 */
+	interface Replay {
+
+		/**
+		 * Receive a basket from the snapshot
+		 *
+		 * @param customerId the customer whose basket it is
+		 * @param version the basket and the number of the last change it includes
+		 */
+		void basket(String customerId, Version version);
+
+		/**
+		 * Receive a change from the log
+		 *
+		 * @param change the change
+		 */
+		void change(Change change);
+	}
+
+	private final Path _directory;
+	private final Path _snapshotPath;
+	private final Path _logPath;
+
+	/**
+	 * The channel new records are appended to, opened once the log has been replayed
+	 */
+	private FileChannel _log = null;
+
+	/**
+	 * Constructor for the files in a directory, which is created if necessary
+	 *
+	 * @param directory the directory holding the files
+	 * @throws IOException if the directory could not be created
+	 */
+	BasketLog(final Path directory) throws IOException {
+		Files.createDirectories(directory);
+		_directory = directory;
+		_snapshotPath = directory.resolve("baskets.snapshot");
+		_logPath = directory.resolve("baskets.log");
+	}
+
+	/**
+	 * Read back the snapshot and then the log, and open the log for appending.
+	 *
+	 * Anything after the last good record in the log is cut off so that new records follow on from it.
+	 *
+	 * @param replay receives the baskets and changes
+	 * @throws IOException if the files could not be read
+	 */
+	void open(final Replay replay) throws IOException {
+		if(Files.exists(_snapshotPath)) {
+			readSnapshot(replay);
+		}
+
+		long goodLength = 0;
+		if(Files.exists(_logPath)) {
+			final long logSize = Files.size(_logPath);
+			try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(_logPath)))) {
+				while(true) {
+					final int length = in.readInt();
+					// A length torn by a crash may be anything, so check it before making room for the record
+					if(length <= 0 || length > logSize - goodLength - 8) break;
+					final byte[] content = new byte[length];
+					in.readFully(content);
+					final CRC32 crc = new CRC32();
+					crc.update(content);
+					if((int)crc.getValue() != in.readInt()) break;
+
+					replay.change(readChange(content));
+					goodLength += 4 + length + 4;
+				}
+			}
+			catch (final EOFException e) {
+				// A record cut short by a crash ends the log
+			}
+		}
+
+		_log = FileChannel.open(_logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		_log.truncate(goodLength);
+		_log.position(goodLength);
+		_log.force(true);
+	}
+
+	/**
+	 * Append changes to the log and wait until they are on disk
+	 *
+	 * @param changes the changes, in the order they were made
+	 * @throws IOException if the changes could not be written
+	 */
+	void append(final List<Change> changes) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final ByteArrayOutputStream contentBytes = new ByteArrayOutputStream();
+		final DataOutputStream content = new DataOutputStream(contentBytes);
+		final CRC32 crc = new CRC32();
+		for(final Change change : changes) {
+			contentBytes.reset();
+			content.writeLong(change._sequence);
+			content.writeByte(change._products == null ? CLEAR : ADD);
+			writeString(content, change._customerId);
+			if(change._products != null) {
+				writeProducts(content, change._products);
+			}
+			final byte[] record = contentBytes.toByteArray();
+			crc.reset();
+			crc.update(record);
+			out.writeInt(record.length);
+			out.write(record);
+			out.writeInt((int)crc.getValue());
+		}
+
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		while(buffer.hasRemaining()) {
+			_log.write(buffer);
+		}
+		_log.force(false);
+	}
+
+	/**
+	 * Get the size of the log
+	 *
+	 * @return the size of the log in bytes
+	 * @throws IOException if the size could not be read
+	 */
+	long getLogSize() throws IOException {
+		return _log.size();
+	}
+
+	/**
+	 * Replace the snapshot and empty the log.
+	 *
+	 * The new snapshot is written to a temporary file and moved into place so that
+	 * a crash leaves either the old or the new snapshot. The log is only emptied
+	 * once the move is on disk, else a crash could keep the emptied log but lose the
+	 * move, and with it every basket.
+	 *
+	 * @param baskets each customer's basket and the number of the last change it includes
+	 * @throws IOException if the snapshot could not be written
+	 */
+	void writeSnapshot(final Map<String, Version> baskets) throws IOException {
+		final Path temporaryPath = _snapshotPath.resolveSibling(_snapshotPath.getFileName() + ".tmp");
+		try (final FileOutputStream file = new FileOutputStream(temporaryPath.toFile())) {
+			final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+			final DataOutputStream out = new DataOutputStream(checked);
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(baskets.size());
+			for(final Map.Entry<String, Version> basket : baskets.entrySet()) {
+				writeString(out, basket.getKey());
+				out.writeLong(basket.getValue()._sequence);
+				final Basket products = basket.getValue()._basket;
+				final Map<String, Integer> quantities = new LinkedHashMap<>();
+				products.getProductNames().forEach(productName -> quantities.put(productName, products.getQuantity(productName)));
+				writeProducts(out, quantities);
+			}
+			out.writeInt((int)checked.getChecksum().getValue());
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(temporaryPath, _snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory();
+
+		_log.truncate(0);
+		_log.position(0);
+		_log.force(true);
+	}
+
+	/**
+	 * Read the snapshot
+	 *
+	 * @param replay receives the baskets
+	 * @throws IOException if the snapshot could not be read
+	 */
+	private void readSnapshot(final Replay replay) throws IOException {
+		final long snapshotSize = Files.size(_snapshotPath);
+		try (final InputStream file = Files.newInputStream(_snapshotPath)) {
+			final CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new CRC32());
+			final DataInputStream in = new DataInputStream(checked);
+			if(in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Sorry, " + _snapshotPath + " is not a basket snapshot");
+			}
+			final int basketCount = in.readInt();
+			for(int i = 0; i < basketCount; ++i) {
+				final String customerId = readString(in, snapshotSize);
+				final long sequence = in.readLong();
+				replay.basket(customerId, new Version(sequence, new Basket(readProducts(in, snapshotSize))));
+			}
+			final int expectedChecksum = (int)checked.getChecksum().getValue();
+			if(in.readInt() != expectedChecksum) {
+				throw new IOException("Sorry, basket snapshot " + _snapshotPath + " is corrupt");
+			}
+		}
+	}
+
+	/**
+	 * Decode the content of a log record
+	 *
+	 * @param content the content of the record
+	 * @return the change recorded
+	 * @throws IOException if the content could not be decoded
+	 */
+	private static Change readChange(final byte[] content) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+		final long sequence = in.readLong();
+		final byte type = in.readByte();
+		final String customerId = readString(in, content.length);
+		return new Change(sequence, customerId, type == CLEAR ? null : readProducts(in, content.length));
+	}
+
+	/**
+	 * Encode the quantities of products
+	 *
+	 * @param out the stream to write to
+	 * @param products the names of products mapped to their quantity
+	 * @throws IOException if the products could not be written
+	 */
+	private static void writeProducts(final DataOutputStream out, final Map<String, Integer> products) throws IOException {
+		out.writeInt(products.size());
+		for(final Map.Entry<String, Integer> product : products.entrySet()) {
+			writeString(out, product.getKey());
+			out.writeInt(product.getValue());
+		}
+	}
+
+	/**
+	 * Decode the quantities of products
+	 *
+	 * @param in the stream to read from
+	 * @param limit the most bytes any string can hold
+	 * @return the names of products mapped to their quantity
+	 * @throws IOException if the products could not be read
+	 */
+	private static Map<String, Integer> readProducts(final DataInputStream in, final long limit) throws IOException {
+		final int productCount = in.readInt();
+		final Map<String, Integer> products = new LinkedHashMap<>();
+		for(int i = 0; i < productCount; ++i) {
+			final String productName = readString(in, limit);
+			products.put(productName, in.readInt());
+		}
+		return Collections.unmodifiableMap(products);
+	}
+
+	/**
+	 * Encode a string as its length and its UTF-8 bytes
+	 *
+	 * @param out the stream to write to
+	 * @param string the string
+	 * @throws IOException if the string could not be written
+	 */
+	private static void writeString(final DataOutputStream out, final String string) throws IOException {
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Decode a string written by {@link #writeString(DataOutputStream, String)}
+	 *
+	 * @param in the stream to read from
+	 * @param limit the most bytes the string can hold, the size of what is being read
+	 * @return the string
+	 * @throws IOException if the string could not be read
+	 */
+	private static String readString(final DataInputStream in, final long limit) throws IOException {
+		final int length = in.readInt();
+		if(length < 0 || length > limit) {
+			throw new IOException("Sorry, a basket record holds a string of " + length + " bytes");
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sync the directory holding the files so that a file moved into it is on disk
+	 *
+	 * @throws IOException if the directory could not be synced
+	 */
+	private void syncDirectory() throws IOException {
+		final FileChannel directory;
+		try {
+			directory = FileChannel.open(_directory, StandardOpenOption.READ);
+		}
+		catch (final IOException e) {
+			// Some platforms cannot open a directory, and make a move durable without this
+			return;
+		}
+		try {
+			directory.force(true);
+		}
+		finally {
+			directory.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(_log != null) {
+			_log.close();
+		}
+	}
+}
@@ -1,8 +1,6 @@
 package com.liaquay.anatwine.challenge.basket.impl;
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Component;
 
@@ -12,57 +10,42 @@ import com.liaquay.anatwine.challenge.basket.BasketService;
 /**
  * Simple in memory implementation of a shopping basket.
  *
+ * The basket is held as an immutable snapshot that is replaced whenever a product
+ * is added, so getting the current basket is free and returns the same instance
+ * until the basket changes.
+ *
  * This implementation is only suitable for a single customer.
  */
 @Component
 public class BasketServiceImpl implements BasketService {
 
 	/**
-	 * A mutable integer
+	 * The current basket
 	 */
-	private static class Quantity {
-		private int _value;
-
-		public Quantity() {
-			_value = 0;
-		}
+	private volatile Basket _basket = Basket.EMPTY;
 
-		public void increment() {
-			_value++;
-		}
-
-		public int getValue() {
-			return _value;
-		}
+	@Override
+	public void clear() {
+		_basket = Basket.EMPTY;
 	}
 
-	/**
-	 * A map of product names to their quantities in the basket
-	 */
-	private final Map<String, Quantity> _products = new HashMap<>();
+	@Override
+	public void add(final String productName) {
+		add(productName, 1);
+	}
 
 	@Override
-	public void clear() {
-		_products.clear();
+	public void add(final String productName, final int quantity) {
+		_basket = _basket.withProduct(productName, quantity);
 	}
 
 	@Override
-	public void add(final String productName) {
-		if(!_products.containsKey(productName)) {
-			_products.put(productName, new Quantity());
-		}
-		_products.get(productName).increment();
+	public void addAll(final Map<String, Integer> products) {
+		_basket = _basket.withProducts(products);
 	}
 
 	@Override
 	public Basket getCurrentBasket() {
-		final Map<String, Integer> products = _products
-				.entrySet()
-				.stream()
-				.collect(Collectors.toMap(
-						Map.Entry::getKey,
-						e -> e.getValue().getValue()));
-
-		return new Basket(products);
+		return _basket;
 	}
 }
@@ -0,0 +1,399 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.BasketService;
+import com.liaquay.anatwine.challenge.clock.ClockService;
+import com.liaquay.anatwine.challenge.customer.CustomerService;
+
+/**
+ * Shopping baskets for many customers held within a memory budget.
+ *
+ * Most baskets are abandoned, so baskets not used for longer than an idle timeout are
+ * thrown away. When the baskets on the heap use more than the memory budget, the baskets
+ * used least recently are moved to an optional off-heap store (see {@link OffHeapBasketStore})
+ * and brought back when the customer returns. Without the off-heap store, or once it is
+ * full, those baskets are thrown away.
+ *
+ * The memory used by a basket on the heap is estimated from the number of products it
+ * holds and the length of their names, which come from customers and are made afresh
+ * when a basket is brought back on to the heap.
+ *
+ * Baskets are checked against the timeout and budget as they change, at most one
+ * thread at a time, and whenever {@link #sweep()} is called. Every quarter of the timeout
+ * a pass is started looking for idle baskets, and each change checks the next few baskets
+ * of the pass, so no change waits for a walk of every basket. Baskets over the budget are
+ * chosen in roughly least recently used order: a cursor walks round the baskets a few at
+ * a time and the least recently used of each few is moved, so a change over the budget
+ * costs a small constant amount of work rather than a sort of every basket.
+ */
+public class BoundedBasketServiceImpl implements BasketService {
+
+	/**
+	 * Estimated bytes used by a customer's basket, its map entry and its key, excluding the characters of the key
+	 */
+	static final int BASKET_OVERHEAD = 200;
+
+	/**
+	 * Estimated bytes used by each product in a basket, including its name's string but not the characters of the name
+	 */
+	static final int PRODUCT_OVERHEAD = 80;
+
+	/**
+	 * The number of baskets compared to choose each basket to move off the heap
+	 */
+	static final int EVICTION_SAMPLE = 8;
+
+	/**
+	 * The number of baskets checked for idleness by each change
+	 */
+	static final int IDLE_SWEEP_SLICE = 64;
+
+	/**
+	 * A basket on the heap
+	 */
+	private static class Entry {
+
+		final Basket _basket;
+		final int _size;
+		volatile long _lastAccess;
+
+		/**
+		 * Constructor
+		 *
+		 * @param customerId the customer whose basket it is
+		 * @param basket the basket
+		 * @param lastAccess when the basket was last used, in milliseconds since the epoch
+		 */
+		Entry(final String customerId, final Basket basket, final long lastAccess) {
+			_basket = basket;
+			int size = BASKET_OVERHEAD + 2 * customerId.length();
+			for(final String productName : basket.getProductNames()) {
+				size += PRODUCT_OVERHEAD + 2 * productName.length();
+			}
+			_size = size;
+			_lastAccess = lastAccess;
+		}
+	}
+
+	private final CustomerService _customerService;
+	private final ClockService _clockService;
+	private final long _memoryBudget;
+	private final long _idleTimeoutMillis;
+
+	/**
+	 * The cold baskets, or null if baskets over the budget are thrown away
+	 */
+	private final OffHeapBasketStore _offHeap;
+
+	/**
+	 * A map of customer identities to the baskets on the heap
+	 */
+	private final ConcurrentHashMap<String, Entry> _baskets = new ConcurrentHashMap<>();
+
+	private final AtomicLong _residentBytes = new AtomicLong();
+	private final LongAdder _evictions = new LongAdder();
+	private final LongAdder _spills = new LongAdder();
+
+	private final ReentrantLock _sweepLock = new ReentrantLock();
+	private volatile long _lastSweep;
+
+	/**
+	 * Walks through the baskets on the heap looking for idle baskets, or null between passes.
+	 * Guarded by the sweep lock.
+	 */
+	private Iterator<Map.Entry<String, Entry>> _idleCursor;
+
+	/**
+	 * Whether a pass looking for idle baskets is under way
+	 */
+	private volatile boolean _idleSweeping = false;
+
+	/**
+	 * Walks round the baskets on the heap choosing those to move. Guarded by the sweep lock.
+	 */
+	private Iterator<Map.Entry<String, Entry>> _evictionCursor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param customerService the service identifying the customer for each request
+	 * @param clockService the clock used to find idle baskets
+	 * @param memoryBudget the estimated bytes the baskets on the heap may use
+	 * @param idleTimeoutMillis the time after which an unused basket is thrown away
+	 * @param offHeapCapacity the size in bytes of the off-heap store for cold baskets, or 0 for none
+	 */
+	public BoundedBasketServiceImpl(
+			final CustomerService customerService,
+			final ClockService clockService,
+			final long memoryBudget,
+			final long idleTimeoutMillis,
+			final int offHeapCapacity) {
+
+		_customerService = customerService;
+		_clockService = clockService;
+		_memoryBudget = memoryBudget;
+		_idleTimeoutMillis = idleTimeoutMillis;
+		_offHeap = offHeapCapacity > 0 ? new OffHeapBasketStore(offHeapCapacity) : null;
+		_lastSweep = clockService.currentTimeMillis();
+		_evictionCursor = _baskets.entrySet().iterator();
+	}
+
+	/**
+	 * Get the number of baskets on the heap
+	 *
+	 * @return the number of baskets on the heap
+	 */
+	public int getResidentCount() {
+		return _baskets.size();
+	}
+
+	/**
+	 * Get the estimated memory used by the baskets on the heap
+	 *
+	 * @return the estimated bytes used by the baskets on the heap
+	 */
+	public long getResidentBytes() {
+		return _residentBytes.get();
+	}
+
+	/**
+	 * Get the number of baskets held off the heap
+	 *
+	 * @return the number of baskets held off the heap
+	 */
+	public int getOffHeapCount() {
+		return _offHeap == null ? 0 : _offHeap.size();
+	}
+
+	/**
+	 * Get the memory used by the baskets held off the heap
+	 *
+	 * @return the bytes used by the baskets held off the heap
+	 */
+	public long getOffHeapBytes() {
+		return _offHeap == null ? 0 : _offHeap.getUsedBytes();
+	}
+
+	/**
+	 * Get the number of baskets thrown away, whether idle or over the budget
+	 *
+	 * @return the number of baskets thrown away
+	 */
+	public long getEvictionCount() {
+		return _evictions.sum();
+	}
+
+	/**
+	 * Get the number of baskets moved off the heap
+	 *
+	 * @return the number of baskets moved off the heap
+	 */
+	public long getSpillCount() {
+		return _spills.sum();
+	}
+
+	@Override
+	public void clear() {
+		change(basket -> Basket.EMPTY);
+	}
+
+	@Override
+	public void add(final String productName) {
+		add(productName, 1);
+	}
+
+	@Override
+	public void add(final String productName, final int quantity) {
+		change(basket -> basket.withProduct(productName, quantity));
+	}
+
+	@Override
+	public void addAll(final Map<String, Integer> products) {
+		change(basket -> basket.withProducts(products));
+	}
+
+	@Override
+	public Basket getCurrentBasket() {
+		final String customerId = _customerService.getCurrentCustomerId();
+		final long now = _clockService.currentTimeMillis();
+		final Entry entry = _baskets.get(customerId);
+		if(entry != null) {
+			entry._lastAccess = now;
+			return entry._basket;
+		}
+		if(_offHeap == null) {
+			return Basket.EMPTY;
+		}
+		// Bring a cold basket back on to the heap
+		final Entry restored = _baskets.compute(customerId, (id, current) -> {
+			if(current != null) {
+				return current;
+			}
+			final Basket basket = _offHeap.remove(id);
+			return basket == null ? null : resident(id, basket, now);
+		});
+		return restored == null ? Basket.EMPTY : restored._basket;
+	}
+
+	/**
+	 * Change the current customer's basket, bringing it back on to the heap if necessary
+	 *
+	 * @param update the change to make to the basket
+	 */
+	private void change(final UnaryOperator<Basket> update) {
+		final long now = _clockService.currentTimeMillis();
+		_baskets.compute(_customerService.getCurrentCustomerId(), (customerId, current) -> {
+			if(current != null) {
+				final Basket updated = update.apply(current._basket);
+				_residentBytes.addAndGet(-current._size);
+				return resident(customerId, updated, now);
+			}
+			final Basket cold = _offHeap == null ? null : _offHeap.remove(customerId);
+			if(cold == null) {
+				return resident(customerId, update.apply(Basket.EMPTY), now);
+			}
+			try {
+				return resident(customerId, update.apply(cold), now);
+			}
+			catch (final RuntimeException e) {
+				// Put back the cold basket if the change is refused
+				_offHeap.put(customerId, cold, now);
+				throw e;
+			}
+		});
+
+		final boolean idleSweepDue = _idleSweeping || now - _lastSweep > _idleTimeoutMillis / 4;
+		if(_residentBytes.get() > _memoryBudget || idleSweepDue) {
+			if(_sweepLock.tryLock()) {
+				try {
+					if(idleSweepDue) {
+						removeIdle(now, IDLE_SWEEP_SLICE);
+					}
+					reduceToBudget();
+				}
+				finally {
+					_sweepLock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Make a basket resident on the heap and count its memory
+	 *
+	 * @param customerId the customer whose basket it is
+	 * @param basket the basket
+	 * @param now the current time in milliseconds since the epoch
+	 * @return the entry for the basket
+	 */
+	private Entry resident(final String customerId, final Basket basket, final long now) {
+		final Entry entry = new Entry(customerId, basket, now);
+		_residentBytes.addAndGet(entry._size);
+		return entry;
+	}
+
+	/**
+	 * Throw away idle baskets and move baskets off the heap until within the memory budget
+	 */
+	public void sweep() {
+		_sweepLock.lock();
+		try {
+			// A whole pass of its own, replacing any pass under way
+			_idleCursor = null;
+			removeIdle(_clockService.currentTimeMillis(), Integer.MAX_VALUE);
+			reduceToBudget();
+		}
+		finally {
+			_sweepLock.unlock();
+		}
+	}
+
+	/**
+	 * Throw away the idle baskets among the next few of the pass under way, starting a pass
+	 * if none is. Must be called holding the sweep lock.
+	 *
+	 * @param now the current time in milliseconds since the epoch
+	 * @param limit the most baskets to check
+	 */
+	private void removeIdle(final long now, final int limit) {
+		if(_idleCursor == null) {
+			_lastSweep = now;
+			_idleCursor = _baskets.entrySet().iterator();
+			_idleSweeping = true;
+		}
+		final long cutoff = now - _idleTimeoutMillis;
+
+		for(int i = 0; i < limit && _idleCursor.hasNext(); ++i) {
+			final Map.Entry<String, Entry> candidate = _idleCursor.next();
+			if(candidate.getValue()._lastAccess < cutoff) {
+				// Check again under the map's lock in case the basket has just been used
+				_baskets.computeIfPresent(candidate.getKey(), (id, current) -> {
+					if(current._lastAccess >= cutoff) {
+						return current;
+					}
+					_residentBytes.addAndGet(-current._size);
+					_evictions.increment();
+					return null;
+				});
+			}
+		}
+		if(!_idleCursor.hasNext()) {
+			_idleCursor = null;
+			_idleSweeping = false;
+		}
+		if(_offHeap != null) {
+			_evictions.add(_offHeap.removeIdle(cutoff, limit));
+		}
+	}
+
+	/**
+	 * Move baskets off the heap, least recently used of each sample first, until comfortably
+	 * within the memory budget. Must be called holding the sweep lock.
+	 */
+	private void reduceToBudget() {
+		if(_residentBytes.get() <= _memoryBudget) {
+			return;
+		}
+		final long target = _memoryBudget - _memoryBudget / 8;
+		while(_residentBytes.get() > target && !_baskets.isEmpty()) {
+			String oldestCustomerId = null;
+			long oldestAccess = Long.MAX_VALUE;
+			for(int i = 0; i < EVICTION_SAMPLE; ++i) {
+				if(!_evictionCursor.hasNext()) {
+					// The map's iterators never fail, so the cursor only needs replacing at the end
+					_evictionCursor = _baskets.entrySet().iterator();
+					if(!_evictionCursor.hasNext()) {
+						break;
+					}
+				}
+				final Map.Entry<String, Entry> candidate = _evictionCursor.next();
+				if(candidate.getValue()._lastAccess < oldestAccess) {
+					oldestCustomerId = candidate.getKey();
+					oldestAccess = candidate.getValue()._lastAccess;
+				}
+			}
+			if(oldestCustomerId == null) {
+				return;
+			}
+			_baskets.computeIfPresent(oldestCustomerId, (customerId, current) -> {
+				_residentBytes.addAndGet(-current._size);
+				if(_offHeap == null) {
+					_evictions.increment();
+				}
+				else {
+					_spills.increment();
+					_evictions.add(_offHeap.put(customerId, current._basket, current._lastAccess));
+				}
+				return null;
+			});
+		}
+	}
+}
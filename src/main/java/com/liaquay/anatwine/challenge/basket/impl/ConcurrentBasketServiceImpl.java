@@ -0,0 +1,93 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.BasketService;
+import com.liaquay.anatwine.challenge.customer.CustomerService;
+
+/**
+ * In memory implementation of shopping baskets for many customers at once.
+ *
+ * Baskets are held in a concurrent map keyed by the identity of the customer, so
+ * requests for different customers never contend with each other. Each customer's
+ * basket is an immutable snapshot that is replaced with a compare-and-set when a
+ * product is added or the basket is cleared. Getting the current basket is therefore
+ * free, always consistent, and returns the same instance until the basket changes.
+ */
+public class ConcurrentBasketServiceImpl implements BasketService {
+
+	private final CustomerService _customerService;
+
+	/**
+	 * A map of customer identities to their baskets
+	 */
+	private final ConcurrentHashMap<String, AtomicReference<Basket>> _baskets = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param customerService the service identifying the customer for each request
+	 */
+	public ConcurrentBasketServiceImpl(final CustomerService customerService) {
+		_customerService = customerService;
+	}
+
+	/**
+	 * Get the number of customers holding a basket
+	 *
+	 * @return the number of customers holding a basket
+	 */
+	public int getBasketCount() {
+		return _baskets.size();
+	}
+
+	/**
+	 * Forget the current customer's basket, e.g. when their session ends.
+	 *
+	 * Products added by requests still in progress for the customer may be lost.
+	 */
+	public void remove() {
+		_baskets.remove(_customerService.getCurrentCustomerId());
+	}
+
+	@Override
+	public void clear() {
+		final AtomicReference<Basket> basket = _baskets.get(_customerService.getCurrentCustomerId());
+		if(basket != null) {
+			basket.set(Basket.EMPTY);
+		}
+	}
+
+	/**
+	 * Get the current customer's basket, creating an empty one if they do not have one
+	 *
+	 * @return a reference to the current customer's basket
+	 */
+	private AtomicReference<Basket> getOrCreateBasket() {
+		return _baskets.computeIfAbsent(_customerService.getCurrentCustomerId(), customerId -> new AtomicReference<>(Basket.EMPTY));
+	}
+
+	@Override
+	public void add(final String productName) {
+		add(productName, 1);
+	}
+
+	@Override
+	public void add(final String productName, final int quantity) {
+		getOrCreateBasket().updateAndGet(basket -> basket.withProduct(productName, quantity));
+	}
+
+	@Override
+	public void addAll(final Map<String, Integer> products) {
+		getOrCreateBasket().updateAndGet(basket -> basket.withProducts(products));
+	}
+
+	@Override
+	public Basket getCurrentBasket() {
+		final AtomicReference<Basket> basket = _baskets.get(_customerService.getCurrentCustomerId());
+		return basket == null ? Basket.EMPTY : basket.get();
+	}
+}
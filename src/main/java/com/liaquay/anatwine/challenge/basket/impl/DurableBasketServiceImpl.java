@@ -0,0 +1,353 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.BasketService;
+import com.liaquay.anatwine.challenge.customer.CustomerService;
+
+/**
+ * Shopping baskets for many customers that survive a restart.
+ *
+ * Baskets are held in memory, as in {@link ConcurrentBasketServiceImpl}, and every change is
+ * also queued for a single writer thread that appends it to a write-ahead log on disk (see
+ * {@link BasketLog}). The writer takes every change queued since it last wrote, writes them
+ * together and syncs the log once for the whole group, so the cost of syncing is shared by
+ * all of the changes made while the previous group was being written.
+ *
+ * When the log grows past a size limit the writer replaces it with a snapshot of every basket.
+ * On start up the snapshot and log are read back to rebuild the baskets.
+ *
+ * Callers can choose to wait until their change is on disk, or to return as soon as the
+ * change is queued, as fast as the in memory store, at the risk of losing the changes of
+ * the last group written before a crash.
+ */
+public class DurableBasketServiceImpl implements BasketService, Closeable {
+
+	/**
+	 * The most changes written as one group
+	 */
+	private static final int MAX_GROUP_SIZE = 4096;
+
+	/**
+	 * A customer's basket. Changes to a basket are made and queued under its lock so
+	 * they reach the log in the order they were made.
+	 */
+	private static class CustomerBasket {
+
+		private volatile BasketLog.Version _version;
+
+		/**
+		 * Constructor
+		 *
+		 * @param version the basket and the number of the last change it includes
+		 */
+		CustomerBasket(final BasketLog.Version version) {
+			_version = version;
+		}
+	}
+
+	/**
+	 * A change waiting to be written
+	 */
+	private static class PendingChange {
+
+		final BasketLog.Change _change;
+
+		/**
+		 * Completed when the change is on disk, or null if no one is waiting for it
+		 */
+		final CompletableFuture<Void> _written;
+
+		/**
+		 * Constructor
+		 *
+		 * @param change the change to write
+		 * @param written completed when the change is on disk, or null if no one is waiting for it
+		 */
+		PendingChange(final BasketLog.Change change, final CompletableFuture<Void> written) {
+			_change = change;
+			_written = written;
+		}
+	}
+
+	private final CustomerService _customerService;
+	private final BasketLog _log;
+	private final boolean _waitForWrite;
+	private final long _maximumLogSize;
+
+	/**
+	 * A map of customer identities to their baskets
+	 */
+	private final ConcurrentHashMap<String, CustomerBasket> _baskets = new ConcurrentHashMap<>();
+
+	/**
+	 * The number given to the last change made
+	 */
+	private final AtomicLong _sequence = new AtomicLong();
+
+	private final LinkedBlockingQueue<PendingChange> _pending = new LinkedBlockingQueue<>();
+
+	private final Thread _writer;
+	private volatile boolean _running = true;
+
+	/**
+	 * Changes are queued holding the read lock and the service is closed holding the write
+	 * lock, so no change can be queued once the writer may have stopped
+	 */
+	private final ReentrantReadWriteLock _closeLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Set if writing fails, after which no more changes are accepted
+	 */
+	private volatile IOException _failure = null;
+
+	/**
+	 * Constructor which reads back the baskets in a directory and starts the writer thread
+	 *
+	 * @param customerService the service identifying the customer for each request
+	 * @param directory the directory holding the snapshot and log
+	 * @param waitForWrite true if changes should only return once they are on disk
+	 * @param maximumLogSize the size in bytes beyond which the log is replaced with a snapshot
+	 */
+	public DurableBasketServiceImpl(
+			final CustomerService customerService,
+			final Path directory,
+			final boolean waitForWrite,
+			final long maximumLogSize) {
+
+		_customerService = customerService;
+		_waitForWrite = waitForWrite;
+		_maximumLogSize = maximumLogSize;
+
+		try {
+			_log = new BasketLog(directory);
+			_log.open(new BasketLog.Replay() {
+				@Override
+				public void basket(final String customerId, final BasketLog.Version version) {
+					_baskets.put(customerId, new CustomerBasket(version));
+					_sequence.accumulateAndGet(version._sequence, Math::max);
+				}
+
+				@Override
+				public void change(final BasketLog.Change change) {
+					final CustomerBasket basket = _baskets.computeIfAbsent(change._customerId, customerId -> new CustomerBasket(new BasketLog.Version(0, Basket.EMPTY)));
+					// Skip changes already included in the snapshot
+					if(change._sequence > basket._version._sequence) {
+						basket._version = new BasketLog.Version(change._sequence, change.applyTo(basket._version._basket));
+					}
+					_sequence.accumulateAndGet(change._sequence, Math::max);
+				}
+			});
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Sorry, could not read baskets from " + directory, e);
+		}
+
+		_writer = new Thread(this::write, "basket-log-writer");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	/**
+	 * Get the number of customers holding a basket
+	 *
+	 * @return the number of customers holding a basket
+	 */
+	public int getBasketCount() {
+		return _baskets.size();
+	}
+
+	@Override
+	public void clear() {
+		final CustomerBasket basket = _baskets.get(_customerService.getCurrentCustomerId());
+		if(basket != null) {
+			change(basket, _customerService.getCurrentCustomerId(), null, current -> Basket.EMPTY);
+		}
+	}
+
+	@Override
+	public void add(final String productName) {
+		add(productName, 1);
+	}
+
+	@Override
+	public void add(final String productName, final int quantity) {
+		addAll(ImmutableMap.of(productName, quantity));
+	}
+
+	@Override
+	public void addAll(final Map<String, Integer> products) {
+		final String customerId = _customerService.getCurrentCustomerId();
+		final CustomerBasket basket = _baskets.computeIfAbsent(customerId, id -> new CustomerBasket(new BasketLog.Version(0, Basket.EMPTY)));
+		// Take a copy as the change is written later
+		final Map<String, Integer> additions = ImmutableMap.copyOf(products);
+		change(basket, customerId, additions, current -> current.withProducts(additions));
+	}
+
+	@Override
+	public Basket getCurrentBasket() {
+		final CustomerBasket basket = _baskets.get(_customerService.getCurrentCustomerId());
+		return basket == null ? Basket.EMPTY : basket._version._basket;
+	}
+
+	/**
+	 * Change a basket in memory and queue the change for the log
+	 *
+	 * @param basket the customer's basket
+	 * @param customerId the customer
+	 * @param products the products added or null if the basket is being cleared
+	 * @param update the change to make to the basket
+	 */
+	private void change(
+			final CustomerBasket basket,
+			final String customerId,
+			final Map<String, Integer> products,
+			final UnaryOperator<Basket> update) {
+
+		final PendingChange pending;
+		synchronized(basket) {
+			_closeLock.readLock().lock();
+			try {
+				checkNotFailed();
+				final Basket current = basket._version._basket;
+				final Basket updated = update.apply(current);
+				if(updated == current) {
+					return;
+				}
+				final long sequence = _sequence.incrementAndGet();
+				basket._version = new BasketLog.Version(sequence, updated);
+				pending = new PendingChange(
+						new BasketLog.Change(sequence, customerId, products),
+						_waitForWrite ? new CompletableFuture<>() : null);
+				_pending.add(pending);
+			}
+			finally {
+				_closeLock.readLock().unlock();
+			}
+		}
+
+		if(pending._written != null) {
+			try {
+				pending._written.join();
+			}
+			catch (final CompletionException e) {
+				throw new RuntimeException("Sorry, could not save basket", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Check changes can still be saved
+	 */
+	private void checkNotFailed() {
+		if(!_running) {
+			throw new IllegalStateException("Sorry, the basket service has been closed");
+		}
+		final IOException failure = _failure;
+		if(failure != null) {
+			throw new RuntimeException("Sorry, could not save basket", failure);
+		}
+	}
+
+	/**
+	 * The writer thread's loop, writing queued changes in groups until closed
+	 */
+	private void write() {
+		final List<PendingChange> group = new ArrayList<>();
+		final List<BasketLog.Change> changes = new ArrayList<>();
+		while(_running || !_pending.isEmpty()) {
+			try {
+				final PendingChange first = _pending.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) continue;
+				group.add(first);
+				_pending.drainTo(group, MAX_GROUP_SIZE - 1);
+
+				// Once writing has failed nothing more is written
+				if(_failure != null) throw _failure;
+
+				group.forEach(pending -> changes.add(pending._change));
+				_log.append(changes);
+				group.forEach(pending -> {
+					if(pending._written != null) pending._written.complete(null);
+				});
+
+				if(_log.getLogSize() > _maximumLogSize) {
+					_log.writeSnapshot(snapshot());
+				}
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (final IOException e) {
+				_failure = e;
+				group.forEach(pending -> {
+					if(pending._written != null) pending._written.completeExceptionally(e);
+				});
+			}
+			finally {
+				group.clear();
+				changes.clear();
+			}
+		}
+	}
+
+	/**
+	 * Take a copy of every basket with the number of the last change it includes
+	 *
+	 * @return each customer's basket
+	 */
+	private Map<String, BasketLog.Version> snapshot() {
+		final Map<String, BasketLog.Version> baskets = new HashMap<>();
+		// Each basket's version is replaced as a whole so needs no lock to read
+		_baskets.forEach((customerId, basket) -> baskets.put(customerId, basket._version));
+		return Collections.unmodifiableMap(baskets);
+	}
+
+	/**
+	 * Write every queued change and close the log.
+	 *
+	 * Changes still queued if the writer stops early are failed, so no caller waits for them forever.
+	 */
+	@Override
+	public void close() throws IOException {
+		_closeLock.writeLock().lock();
+		try {
+			_running = false;
+		}
+		finally {
+			_closeLock.writeLock().unlock();
+		}
+		try {
+			_writer.join();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		final List<PendingChange> unwritten = new ArrayList<>();
+		_pending.drainTo(unwritten);
+		final IOException closed = new IOException("Sorry, the basket service was closed before the change was saved");
+		unwritten.forEach(pending -> {
+			if(pending._written != null) pending._written.completeExceptionally(closed);
+		});
+		_log.close();
+	}
+}
@@ -0,0 +1,297 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.basket.Basket;
+
+/**
+ * Cold baskets held outside the Java heap for {@link BoundedBasketServiceImpl}.
+ *
+ * Baskets are encoded into a single direct buffer as a count of products followed by
+ * the UTF-8 name and quantity of each product, with counts, lengths and quantities as
+ * variable length integers, so a typical basket takes a few dozen bytes and adds nothing
+ * for the garbage collector to trace. Only a small index of customer identities to
+ * positions in the buffer stays on the heap; product names are not kept on the heap
+ * while their baskets are cold.
+ *
+ * Records are appended to the end of the buffer. Removing a basket leaves a hole which
+ * is reclaimed by sliding the remaining records down when the buffer fills. If there is
+ * still no room the oldest baskets are dropped.
+ *
+ * This class is thread safe. Every method locks the store.
+ */
+class OffHeapBasketStore {
+
+	/**
+	 * Where a basket is held in the buffer
+	 */
+	private static class Slot {
+
+		int _offset;
+		final int _length;
+		final long _lastAccess;
+
+		/**
+		 * Constructor
+		 *
+		 * @param offset the position of the record in the buffer
+		 * @param length the length of the record in bytes
+		 * @param lastAccess when the basket was last used, in milliseconds since the epoch
+		 */
+		Slot(final int offset, final int length, final long lastAccess) {
+			_offset = offset;
+			_length = length;
+			_lastAccess = lastAccess;
+		}
+	}
+
+	private final ByteBuffer _buffer;
+
+	/**
+	 * Customer identities mapped to their basket's record, in the order the records
+	 * appear in the buffer, which is also the order the baskets were stored
+	 */
+	private final LinkedHashMap<String, Slot> _slots = new LinkedHashMap<>();
+
+	/**
+	 * The position after the last record
+	 */
+	private int _end = 0;
+
+	/**
+	 * The number of bytes held by records still in use
+	 */
+	private int _usedBytes = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity the size of the buffer in bytes
+	 */
+	OffHeapBasketStore(final int capacity) {
+		_buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Store a customer's basket, replacing any basket already stored for them
+	 *
+	 * @param customerId the customer
+	 * @param basket the basket
+	 * @param lastAccess when the basket was last used, in milliseconds since the epoch
+	 * @return the number of baskets dropped to make room, including this basket if it could not be stored
+	 */
+	synchronized int put(final String customerId, final Basket basket, final long lastAccess) {
+		remove(customerId);
+
+		final byte[] record = encode(basket);
+		if(record.length > _buffer.capacity()) {
+			return 1;
+		}
+
+		int dropped = 0;
+		if(_end + record.length > _buffer.capacity()) {
+			compact();
+			// Drop the oldest baskets until the new one fits
+			final Iterator<Slot> slots = _slots.values().iterator();
+			while(_usedBytes + record.length > _buffer.capacity()) {
+				_usedBytes -= slots.next()._length;
+				slots.remove();
+				++dropped;
+			}
+			if(dropped > 0) {
+				compact();
+			}
+		}
+
+		_buffer.position(_end);
+		_buffer.put(record);
+		_slots.put(customerId, new Slot(_end, record.length, lastAccess));
+		_end += record.length;
+		_usedBytes += record.length;
+		return dropped;
+	}
+
+	/**
+	 * Take a customer's basket out of the store
+	 *
+	 * @param customerId the customer
+	 * @return the basket or null if no basket is stored for the customer
+	 */
+	synchronized Basket remove(final String customerId) {
+		final Slot slot = _slots.remove(customerId);
+		if(slot == null) {
+			return null;
+		}
+		_usedBytes -= slot._length;
+		if(_slots.isEmpty()) {
+			_end = 0;
+		}
+		return decode(slot);
+	}
+
+	/**
+	 * Drop some of the baskets not used since a given time.
+	 *
+	 * Baskets are checked in the order they were stored, stopping at the first still in use.
+	 * Baskets are moved off the heap roughly least recently used first, so those stored
+	 * later are seldom idle sooner, and any that are go when the buffer fills.
+	 *
+	 * @param cutoff the time in milliseconds since the epoch before which baskets are dropped
+	 * @param limit the most baskets to drop
+	 * @return the number of baskets dropped
+	 */
+	synchronized int removeIdle(final long cutoff, final int limit) {
+		int dropped = 0;
+		final Iterator<Slot> slots = _slots.values().iterator();
+		while(dropped < limit && slots.hasNext()) {
+			final Slot slot = slots.next();
+			if(slot._lastAccess >= cutoff) {
+				break;
+			}
+			_usedBytes -= slot._length;
+			slots.remove();
+			++dropped;
+		}
+		if(_slots.isEmpty()) {
+			_end = 0;
+		}
+		return dropped;
+	}
+
+	/**
+	 * Get the number of baskets stored
+	 *
+	 * @return the number of baskets stored
+	 */
+	synchronized int size() {
+		return _slots.size();
+	}
+
+	/**
+	 * Get the number of bytes of the buffer holding baskets
+	 *
+	 * @return the number of bytes holding baskets
+	 */
+	synchronized int getUsedBytes() {
+		return _usedBytes;
+	}
+
+	/**
+	 * Get the size of the buffer
+	 *
+	 * @return the size of the buffer in bytes
+	 */
+	int getCapacity() {
+		return _buffer.capacity();
+	}
+
+	/**
+	 * Slide every record down to remove the holes left by baskets removed
+	 */
+	private void compact() {
+		final byte[] record = new byte[256];
+		int end = 0;
+		for(final Slot slot : _slots.values()) {
+			if(slot._offset != end) {
+				// Records only move down so copying through a scratch array in order is safe
+				final byte[] scratch = slot._length <= record.length ? record : new byte[slot._length];
+				_buffer.position(slot._offset);
+				_buffer.get(scratch, 0, slot._length);
+				_buffer.position(end);
+				_buffer.put(scratch, 0, slot._length);
+				slot._offset = end;
+			}
+			end += slot._length;
+		}
+		_end = end;
+	}
+
+	/**
+	 * Encode a basket as a record
+	 *
+	 * @param basket the basket
+	 * @return the record
+	 */
+	private static byte[] encode(final Basket basket) {
+		final byte[][] names = new byte[basket.getProductNames().size()][];
+		int length = 5;
+		int i = 0;
+		for(final String productName : basket.getProductNames()) {
+			names[i] = productName.getBytes(StandardCharsets.UTF_8);
+			length += 10 + names[i].length;
+			++i;
+		}
+		final byte[] record = new byte[length];
+		int position = writeVarInt(record, 0, names.length);
+		i = 0;
+		for(final String productName : basket.getProductNames()) {
+			position = writeVarInt(record, position, names[i].length);
+			System.arraycopy(names[i], 0, record, position, names[i].length);
+			position += names[i].length;
+			position = writeVarInt(record, position, basket.getQuantity(productName));
+			++i;
+		}
+		final byte[] trimmed = new byte[position];
+		System.arraycopy(record, 0, trimmed, 0, position);
+		return trimmed;
+	}
+
+	/**
+	 * Decode the record in a slot
+	 *
+	 * @param slot where the record is held
+	 * @return the basket
+	 */
+	private Basket decode(final Slot slot) {
+		_buffer.position(slot._offset);
+		final int productCount = readVarInt(_buffer);
+		final Map<String, Integer> products = new LinkedHashMap<>();
+		for(int i = 0; i < productCount; ++i) {
+			final byte[] name = new byte[readVarInt(_buffer)];
+			_buffer.get(name);
+			products.put(new String(name, StandardCharsets.UTF_8), readVarInt(_buffer));
+		}
+		return productCount == 0 ? Basket.EMPTY : new Basket(ImmutableMap.copyOf(products));
+	}
+
+	/**
+	 * Write a non-negative integer seven bits at a time, lowest first, setting the top bit of every byte but the last
+	 *
+	 * @param bytes the array to write to
+	 * @param position the position to write at
+	 * @param value the value to write
+	 * @return the position after the value
+	 */
+	private static int writeVarInt(final byte[] bytes, int position, int value) {
+		while((value & ~0x7f) != 0) {
+			bytes[position++] = (byte)((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte)value;
+		return position;
+	}
+
+	/**
+	 * Read an integer written by {@link #writeVarInt(byte[], int, int)}
+	 *
+	 * @param buffer the buffer to read from
+	 * @return the value read
+	 */
+	private static int readVarInt(final ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		while(b < 0);
+		return value;
+	}
+}
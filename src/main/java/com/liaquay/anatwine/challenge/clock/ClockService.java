@@ -13,4 +13,13 @@ public interface ClockService {
 	 * @return the current date and time
 	 */
 	public Date now();
+
+	/**
+	 * Get the current time without allocating a date
+	 *
+	 * @return the current time in milliseconds since the epoch
+	 */
+	public default long currentTimeMillis() {
+		return now().getTime();
+	}
 }
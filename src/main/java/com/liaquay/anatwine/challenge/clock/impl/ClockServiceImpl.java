@@ -13,4 +13,9 @@ public class ClockServiceImpl implements ClockService {
 	public Date now() {
 		return new Date();
 	}
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
 }
@@ -1,5 +1,7 @@
 package com.liaquay.anatwine.challenge.costing;
 
+import java.io.IOException;
+
 import com.liaquay.anatwine.challenge.util.CurrencyFormatter;
 
 /**
@@ -9,19 +11,19 @@ public class AppliedDiscount {
 
 	private final String _description;
 	private final int _applicationCount;
-	private final double _discountPerApplication;
+	private final long _discountPerApplication;
 
 	/**
 	 * Constructor
 	 *
 	 * @param description A description of the discount e.g. Tie 10% off
 	 * @param applicationCount The number of times the discount was applied to the basket
-	 * @param discountPerApplication The discount in GBP per application
+	 * @param discountPerApplication The discount in pence per application
 	 */
 	public AppliedDiscount(
 			final String description,
 			final int applicationCount,
-			final double discountPerApplication) {
+			final long discountPerApplication) {
 
 		_description = description;
 		_applicationCount = applicationCount;
@@ -29,20 +31,41 @@ public class AppliedDiscount {
 	}
 
 	/**
-	 * The total discount in GBP.
+	 * The total discount in pence.
 	 *
 	 * This is the product of the discount and the number of times it has been applied.
 	 *
-	 * @return the total discount in GBP
+	 * @return the total discount in pence
 	 */
-	public double getTotalDiscount() {
+	public long getTotalDiscount() {
 		return _discountPerApplication * _applicationCount;
 	}
 
+	/**
+	 * Write the discount as a line of a receipt
+	 *
+	 * @param out where to write the discount
+	 * @throws IOException if the discount could not be written
+	 */
+	public void writeTo(final Appendable out) throws IOException {
+		out.append(_description);
+		if(_applicationCount > 1) {
+			out.append(" (x").append(Integer.toString(_applicationCount)).append(')');
+		}
+		out.append(": -");
+		CurrencyFormatter.format(out, getTotalDiscount());
+	}
+
 	@Override
 	public String toString() {
-		return _description +
-				(_applicationCount > 1 ? " (x" + _applicationCount + ")" : "") +
-				": -" + CurrencyFormatter.format(getTotalDiscount());
+		final StringBuilder sb = new StringBuilder(32);
+		try {
+			writeTo(sb);
+		}
+		catch (final IOException e) {
+			// A string builder does not throw
+			throw new RuntimeException("Sorry, could not write discount", e);
+		}
+		return sb.toString();
 	}
 }
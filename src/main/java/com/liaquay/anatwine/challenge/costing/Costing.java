@@ -1,5 +1,7 @@
 package com.liaquay.anatwine.challenge.costing;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -15,26 +17,47 @@ public class Costing {
 
 	private final Map<String, Integer> _unavilableProducts;
 	private final List<AppliedDiscount> _appliedDiscounts;
-	private final double _subtotal;
-	private final double _total;
+	private final long _subtotal;
+	private final long _total;
+	private final CostingTrace _trace;
 
 	/**
 	 * Constructor
 	 *
 	 * @param unavilableProducts the names of products that are not available mapped to the missing quantity
 	 * @param appliedDiscounts a list of the discounts applied to the basket
-	 * @param subtotal the total cost of items in the basket before discounts are applied
-	 * @param total the total cost of items in the basket after discounts are applied
+	 * @param subtotal the total cost in pence of items in the basket before discounts are applied
+	 * @param total the total cost in pence of items in the basket after discounts are applied
 	 */
 	public Costing(
 			final Map<String, Integer> unavilableProducts,
 			final List<AppliedDiscount> appliedDiscounts,
-			final double subtotal,
-			final double total) {
-		_unavilableProducts = unavilableProducts;
-		_appliedDiscounts = appliedDiscounts;
+			final long subtotal,
+			final long total) {
+		this(unavilableProducts, appliedDiscounts, subtotal, total, null);
+	}
+
+	/**
+	 * Constructor for a costing with a trace of how long each stage of costing took
+	 *
+	 * @param unavilableProducts the names of products that are not available mapped to the missing quantity
+	 * @param appliedDiscounts a list of the discounts applied to the basket
+	 * @param subtotal the total cost in pence of items in the basket before discounts are applied
+	 * @param total the total cost in pence of items in the basket after discounts are applied
+	 * @param trace the time taken by each stage of costing or null if costing was not traced
+	 */
+	public Costing(
+			final Map<String, Integer> unavilableProducts,
+			final List<AppliedDiscount> appliedDiscounts,
+			final long subtotal,
+			final long total,
+			final CostingTrace trace) {
+		// Costings may be shared so must not be changed after construction
+		_unavilableProducts = Collections.unmodifiableMap(unavilableProducts);
+		_appliedDiscounts = Collections.unmodifiableList(appliedDiscounts);
 		_subtotal = subtotal;
 		_total = total;
+		_trace = trace;
 	}
 
 	/**
@@ -56,41 +79,71 @@ public class Costing {
 	}
 
 	/**
-	 * The total cost of items in the basket before discounts are applied
+	 * The total cost in pence of items in the basket before discounts are applied
 	 *
-	 * @return the total cost of items in the basket before discounts are applied
+	 * @return the total cost in pence of items in the basket before discounts are applied
 	 */
-	public double getSubtotal() {
+	public long getSubtotal() {
 		return _subtotal;
 	}
 
 	/**
-	 * The total cost of items in the basket after discounts are applied
+	 * The total cost in pence of items in the basket after discounts are applied
 	 *
-	 * @return the total cost of items in the basket after discounts are applied
+	 * @return the total cost in pence of items in the basket after discounts are applied
 	 */
-	public double getTotal() {
+	public long getTotal() {
 		return _total;
 	}
 
-	@Override
-	public String toString() {
-		final StringBuilder sb = new StringBuilder();
-		sb.append("Subtotal: " + CurrencyFormatter.format(_subtotal) + "\n");
+	/**
+	 * Get the time taken by each stage of costing, if costing was traced
+	 *
+	 * @return the time taken by each stage of costing or null if costing was not traced
+	 */
+	public CostingTrace getTrace() {
+		return _trace;
+	}
+
+	/**
+	 * Write the costing as a receipt
+	 *
+	 * @param out where to write the receipt
+	 * @throws IOException if the receipt could not be written
+	 */
+	public void writeTo(final Appendable out) throws IOException {
+		out.append("Subtotal: ");
+		CurrencyFormatter.format(out, _subtotal);
+		out.append('\n');
 		if(_appliedDiscounts.isEmpty()) {
-			sb.append("(No offers availble)\n");
+			out.append("(No offers availble)\n");
 		}
 		else {
-			_appliedDiscounts.forEach(appliedDiscount -> {
-				sb.append(appliedDiscount.toString() + "\n");
-			});
+			for(final AppliedDiscount appliedDiscount : _appliedDiscounts) {
+				appliedDiscount.writeTo(out);
+				out.append('\n');
+			}
 		}
-		sb.append("Total: " + CurrencyFormatter.format(_total) + "\n");
+		out.append("Total: ");
+		CurrencyFormatter.format(out, _total);
+		out.append('\n');
 		if(!_unavilableProducts.isEmpty()) {
-			sb.append("\nThe following items were unavilable:\n");
-			_unavilableProducts.entrySet().forEach(unavailable -> {
-				sb.append(unavailable.getKey() + " x" + unavailable.getValue() + "\n");
-			});
+			out.append("\nThe following items were unavilable:\n");
+			for(final Map.Entry<String, Integer> unavailable : _unavilableProducts.entrySet()) {
+				out.append(unavailable.getKey()).append(" x").append(unavailable.getValue().toString()).append('\n');
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(128);
+		try {
+			writeTo(sb);
+		}
+		catch (final IOException e) {
+			// A string builder does not throw
+			throw new RuntimeException("Sorry, could not write costing", e);
 		}
 		return sb.toString();
 	}
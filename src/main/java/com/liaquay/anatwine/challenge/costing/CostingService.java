@@ -1,5 +1,10 @@
 package com.liaquay.anatwine.challenge.costing;
 
+import java.util.Collection;
+import java.util.List;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+
 /**
  * The costing service is responsible for costing a basket.
  */
@@ -11,4 +16,20 @@ public interface CostingService {
 	 * @return Costing of the customer's current basket
 	 */
 	public Costing getCosting();
+
+	/**
+	 * Cost a basket
+	 *
+	 * @param basket a snapshot of a basket from the basket service
+	 * @return Costing of the basket
+	 */
+	public Costing getCosting(final Basket basket);
+
+	/**
+	 * Cost many baskets against the same product catalog and discounts
+	 *
+	 * @param baskets snapshots of baskets from the basket service
+	 * @return Costings of the baskets in the same order as the baskets
+	 */
+	public List<Costing> getCostings(final Collection<Basket> baskets);
 }
@@ -0,0 +1,46 @@
+package com.liaquay.anatwine.challenge.costing;
+
+/**
+ * The stages of costing a basket that are timed when costing is instrumented.
+ */
+public enum CostingStage {
+	/**
+	 * Taking a snapshot of the customer's current basket
+	 */
+	BasketSnapshot,
+
+	/**
+	 * Looking up the price and availability of products in the catalog
+	 */
+	Pricing,
+
+	/**
+	 * Fetching the current discounts
+	 */
+	DiscountLookup,
+
+	/**
+	 * Checking how many units of the products are in stock, when stock is counted
+	 */
+	StockCheck,
+
+	/**
+	 * Building the costing service's model of the basket
+	 */
+	BasketModel,
+
+	/**
+	 * Calculating the subtotal
+	 */
+	Subtotal,
+
+	/**
+	 * Making the report on unavailable products
+	 */
+	UnavailableReport,
+
+	/**
+	 * Applying discounts and working out the total
+	 */
+	DiscountApplication
+}
@@ -0,0 +1,53 @@
+package com.liaquay.anatwine.challenge.costing;
+
+import java.util.Arrays;
+
+/**
+ * The time taken by each stage of costing a basket.
+ *
+ * A trace is only attached to a costing when tracing has been switched on.
+ */
+public class CostingTrace {
+
+	private static final CostingStage[] STAGES = CostingStage.values();
+
+	private final long[] _stageNanos;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stageNanos the nanoseconds taken by each stage, indexed by stage ordinal
+	 */
+	public CostingTrace(final long[] stageNanos) {
+		_stageNanos = Arrays.copyOf(stageNanos, STAGES.length);
+	}
+
+	/**
+	 * Get the time taken by a stage
+	 *
+	 * @param stage the stage
+	 * @return the time taken by the stage in nanoseconds, or 0 if the stage was not timed
+	 */
+	public long getNanos(final CostingStage stage) {
+		return _stageNanos[stage.ordinal()];
+	}
+
+	/**
+	 * Get the time taken by all of the stages
+	 *
+	 * @return the time taken by all of the stages in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return Arrays.stream(_stageNanos).sum();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for(final CostingStage stage : STAGES) {
+			sb.append(stage).append(": ").append(_stageNanos[stage.ordinal()]).append("ns\n");
+		}
+		sb.append("Total: ").append(getTotalNanos()).append("ns\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,234 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.BasketService;
+import com.liaquay.anatwine.challenge.costing.Costing;
+import com.liaquay.anatwine.challenge.costing.CostingService;
+import com.liaquay.anatwine.challenge.discount.DiscountService;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+
+/**
+ * A costing service that remembers the costings of recently seen baskets.
+ *
+ * Costings are keyed by the contents of the basket, the version of the product catalog
+ * and the current discounts. A change to the catalog or discounts, including discounts
+ * starting or ending as time passes, gives new keys so costings made before the change
+ * are never returned. The whole cache is also cleared when a change is seen so that
+ * stale costings do not take up space.
+ *
+ * The cache is bounded by weight, where the weight of a costing is roughly the number of
+ * products and discounts it holds.
+ */
+public class CachingCostingServiceImpl implements CostingService {
+
+	/**
+	 * The cache key for a costing
+	 */
+	private static class CostingKey {
+
+		private final Basket _basket;
+		private final long _catalogVersion;
+		private final PercentageDiscountIndex _discountIndex;
+
+		CostingKey(
+				final Basket basket,
+				final long catalogVersion,
+				final PercentageDiscountIndex discountIndex) {
+			_basket = basket;
+			_catalogVersion = catalogVersion;
+			_discountIndex = discountIndex;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if(!(o instanceof CostingKey)) return false;
+			final CostingKey key = (CostingKey)o;
+			// Discount indexes are only replaced when the discounts change so identity is sufficient
+			return _catalogVersion == key._catalogVersion &&
+					_discountIndex == key._discountIndex &&
+					Objects.equal(_basket, key._basket);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(_basket, _catalogVersion, System.identityHashCode(_discountIndex));
+		}
+	}
+
+	private final CostingService _costingService;
+	private final BasketService _basketService;
+	private final ProductCatalogService _productCatalogService;
+	private final DiscountService _discountService;
+
+	private final Cache<CostingKey, Costing> _cache;
+
+	/**
+	 * The key most recently added to the cache with a different catalog or discounts from
+	 * the one before, used to spot changes to the catalog or discounts
+	 */
+	private final AtomicReference<CostingKey> _lastKey = new AtomicReference<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param costingService the service used to cost baskets that are not in the cache
+	 * @param basketService the service holding the customer's current basket
+	 * @param productCatalogService the catalog used by the costing service
+	 * @param discountService the discounts used by the costing service
+	 * @param maximumWeight the maximum total weight of the cached costings
+	 */
+	public CachingCostingServiceImpl(
+			final CostingService costingService,
+			final BasketService basketService,
+			final ProductCatalogService productCatalogService,
+			final DiscountService discountService,
+			final long maximumWeight) {
+
+		_costingService = costingService;
+		_basketService = basketService;
+		_productCatalogService = productCatalogService;
+		_discountService = discountService;
+
+		_cache = CacheBuilder.newBuilder()
+				.maximumWeight(maximumWeight)
+				.weigher((final CostingKey key, final Costing costing) ->
+						1 + key._basket.getProductNames().size() + costing.getAppliedDiscounts().size())
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Get statistics on cache hits, misses and evictions
+	 *
+	 * @return statistics on the use of the cache
+	 */
+	public CacheStats getStats() {
+		return _cache.stats();
+	}
+
+	/**
+	 * Get the number of costings in the cache
+	 *
+	 * @return the number of costings in the cache
+	 */
+	public long getSize() {
+		return _cache.size();
+	}
+
+	/**
+	 * Remove all costings from the cache
+	 */
+	public void invalidateAll() {
+		_cache.invalidateAll();
+	}
+
+	@Override
+	public Costing getCosting() {
+		return getCosting(_basketService.getCurrentBasket());
+	}
+
+	/**
+	 * Make a cache key for a basket, clearing the cache if the catalog or discounts have changed
+	 *
+	 * @param basket the basket
+	 * @param catalogVersion the current version of the catalog
+	 * @param discountIndex the current discounts
+	 * @return the cache key for the basket
+	 */
+	private CostingKey makeKey(
+			final Basket basket,
+			final long catalogVersion,
+			final PercentageDiscountIndex discountIndex) {
+
+		final CostingKey key = new CostingKey(basket, catalogVersion, discountIndex);
+
+		// Drop costings made with a different catalog or discounts. Only one thread clears the
+		// cache for a change, and a request that read the catalog or discounts before the change
+		// must not switch back to them, else interleaved requests would clear it over and over.
+		final CostingKey lastKey = _lastKey.get();
+		if(lastKey == null || lastKey._catalogVersion != catalogVersion || lastKey._discountIndex != discountIndex) {
+			if(isCurrent(key) && _lastKey.compareAndSet(lastKey, key) && lastKey != null) {
+				_cache.invalidateAll();
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Check whether a key was made with the current catalog and discounts
+	 *
+	 * @param key the cache key
+	 * @return true if the catalog and discounts have not changed since the key was made
+	 */
+	private boolean isCurrent(final CostingKey key) {
+		return key._catalogVersion == _productCatalogService.getVersion() &&
+				key._discountIndex == _discountService.getPercentageDiscountIndex();
+	}
+
+	@Override
+	public Costing getCosting(final Basket basket) {
+
+		final CostingKey key = makeKey(
+				basket,
+				_productCatalogService.getVersion(),
+				_discountService.getPercentageDiscountIndex());
+
+		try {
+			return _cache.get(key, () -> _costingService.getCosting(basket));
+		}
+		catch (final ExecutionException | UncheckedExecutionException e) {
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new RuntimeException("Sorry, could not cost basket", e.getCause());
+		}
+	}
+
+	/**
+	 * Cost many baskets, passing only the baskets not in the cache on to the costing service as one batch
+	 */
+	@Override
+	public List<Costing> getCostings(final Collection<Basket> baskets) {
+
+		final long catalogVersion = _productCatalogService.getVersion();
+		final PercentageDiscountIndex discountIndex = _discountService.getPercentageDiscountIndex();
+
+		final List<CostingKey> keys = baskets.stream()
+				.map(basket -> makeKey(basket, catalogVersion, discountIndex))
+				.collect(Collectors.toList());
+
+		final List<Costing> costings = keys.stream()
+				.map(key -> _cache.getIfPresent(key))
+				.collect(Collectors.toList());
+
+		final List<Integer> misses = IntStream.range(0, costings.size())
+				.filter(i -> costings.get(i) == null)
+				.boxed()
+				.collect(Collectors.toList());
+
+		if(!misses.isEmpty()) {
+			final List<Costing> missingCostings = _costingService.getCostings(misses.stream()
+					.map(i -> keys.get(i)._basket)
+					.collect(Collectors.toList()));
+
+			for(int m = 0; m < misses.size(); ++m) {
+				final int i = misses.get(m);
+				costings.set(i, missingCostings.get(m));
+				_cache.put(keys.get(i), missingCostings.get(m));
+			}
+		}
+		return costings;
+	}
+}
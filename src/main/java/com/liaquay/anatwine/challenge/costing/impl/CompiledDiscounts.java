@@ -0,0 +1,726 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.collect.ImmutableList;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.IndexedBasket;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * A compiled form of a list of discounts used to apply discounts to a basket
+ * without allocating memory for each costing.
+ *
+ * Products are indexed by their id in the {@link ProductDictionary} and
+ * the requirements of each discount are flattened into arrays of product ids and quantities.
+ * A basket is then represented as an array of product counts, indexed by product id.
+ *
+ * Discounts are applied in list order, exactly as {@link MutableBasket#applyDiscountsExhaustively(List)}.
+ *
+ * Discounts are also grouped into components, connected through the products they share.
+ * Applying a discount only changes the counts of its own products, so discounts in different
+ * components cannot affect each other and components may be applied at the same time.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class CompiledDiscounts {
+
+	/**
+	 * The number of requirements of the discounts to apply below which they are applied on the
+	 * calling thread, as handing work to other threads costs more than it saves
+	 */
+	static final int PARALLEL_THRESHOLD = 16384;
+
+	/**
+	 * The number of requirements a task applies itself rather than splitting in two
+	 */
+	private static final int TASK_REQUIREMENTS = 4096;
+
+	/**
+	 * The discounts in the order they are applied
+	 */
+	private final List<PercentageDiscount> _discounts;
+
+	/**
+	 * The dictionary giving the ids of the products
+	 */
+	private final ProductDictionary _dictionary;
+
+	/**
+	 * One more than the largest id of the products referenced by the discounts
+	 */
+	private final int _productCount;
+
+	/**
+	 * The offset of each discount's requirements in the requirement arrays.
+	 * Discount i has requirements from _requirementOffsets[i] to _requirementOffsets[i + 1].
+	 */
+	private final int[] _requirementOffsets;
+
+	/**
+	 * The product index of each requirement
+	 */
+	private final int[] _requirementProducts;
+
+	/**
+	 * The quantity of each requirement
+	 */
+	private final int[] _requirementQuantities;
+
+	/**
+	 * The offset of each product's discounts in _discountsByProduct.
+	 * Product i is involved in discounts from _discountOffsetsByProduct[i] to _discountOffsetsByProduct[i + 1].
+	 */
+	private final int[] _discountOffsetsByProduct;
+
+	/**
+	 * The ascending indexes of the discounts that involve each product
+	 */
+	private final int[] _discountsByProduct;
+
+	/**
+	 * The component of each discount, numbered in order of each component's first discount
+	 */
+	private final int[] _discountComponents;
+
+	/**
+	 * The number of groups of discounts connected through shared products
+	 */
+	private final int _componentCount;
+
+	/**
+	 * Per thread scratch-pad used to find the discounts affected by a change in the basket
+	 */
+	private final ThreadLocal<AffectedDiscounts> _affectedDiscounts;
+
+	/**
+	 * Per thread scratch-pad of product counts
+	 */
+	private final ThreadLocal<int[]> _productCounts;
+
+	/**
+	 * Per thread scratch-pad of application counts
+	 */
+	private final ThreadLocal<int[]> _applicationCounts;
+
+	/**
+	 * Constructor
+	 *
+	 * @param discounts the discounts to compile, in the order they should be applied
+	 * @param dictionary the dictionary that gave the discounts their product ids
+	 */
+	public CompiledDiscounts(final List<PercentageDiscount> discounts, final ProductDictionary dictionary) {
+
+		_discounts = ImmutableList.copyOf(discounts);
+		_dictionary = dictionary;
+
+		int productCount = 0;
+		int requirementCount = 0;
+		for(final PercentageDiscount discount : _discounts) {
+			for(final int productId : discount.getRequiredProductIds()) {
+				productCount = Math.max(productCount, productId + 1);
+			}
+			requirementCount += discount.getRequiredProductIds().length;
+		}
+		_productCount = productCount;
+
+		_requirementOffsets = new int[_discounts.size() + 1];
+		_requirementProducts = new int[requirementCount];
+		_requirementQuantities = new int[requirementCount];
+
+		int requirement = 0;
+		for(int discountIndex = 0; discountIndex < _discounts.size(); ++discountIndex) {
+			_requirementOffsets[discountIndex] = requirement;
+			final PercentageDiscount discount = _discounts.get(discountIndex);
+			final int[] productIds = discount.getRequiredProductIds();
+			System.arraycopy(productIds, 0, _requirementProducts, requirement, productIds.length);
+			System.arraycopy(discount.getRequiredQuantities(), 0, _requirementQuantities, requirement, productIds.length);
+			requirement += productIds.length;
+		}
+		_requirementOffsets[_discounts.size()] = requirement;
+
+		// Invert the requirements so the discounts involving a product can be found
+		_discountOffsetsByProduct = new int[_productCount + 1];
+		for(final int productIndex : _requirementProducts) {
+			++_discountOffsetsByProduct[productIndex + 1];
+		}
+		for(int productIndex = 0; productIndex < _productCount; ++productIndex) {
+			_discountOffsetsByProduct[productIndex + 1] += _discountOffsetsByProduct[productIndex];
+		}
+		_discountsByProduct = new int[requirementCount];
+		final int[] discountsAdded = new int[_productCount];
+		for(int discountIndex = 0; discountIndex < _discounts.size(); ++discountIndex) {
+			for(int r = _requirementOffsets[discountIndex]; r < _requirementOffsets[discountIndex + 1]; ++r) {
+				final int productIndex = _requirementProducts[r];
+				_discountsByProduct[_discountOffsetsByProduct[productIndex] + discountsAdded[productIndex]++] = discountIndex;
+			}
+		}
+
+		// Union the products of each discount, so connected products share a root
+		final int[] roots = new int[_productCount];
+		for(int productIndex = 0; productIndex < _productCount; ++productIndex) {
+			roots[productIndex] = productIndex;
+		}
+		for(int discountIndex = 0; discountIndex < _discounts.size(); ++discountIndex) {
+			final int first = findRoot(roots, _requirementProducts[_requirementOffsets[discountIndex]]);
+			for(int r = _requirementOffsets[discountIndex] + 1; r < _requirementOffsets[discountIndex + 1]; ++r) {
+				final int root = findRoot(roots, _requirementProducts[r]);
+				if(root != first) {
+					roots[root] = first;
+				}
+			}
+		}
+		final int[] rootComponents = new int[_productCount];
+		Arrays.fill(rootComponents, -1);
+		_discountComponents = new int[_discounts.size()];
+		int componentCount = 0;
+		for(int discountIndex = 0; discountIndex < _discounts.size(); ++discountIndex) {
+			final int root = findRoot(roots, _requirementProducts[_requirementOffsets[discountIndex]]);
+			if(rootComponents[root] < 0) {
+				rootComponents[root] = componentCount++;
+			}
+			_discountComponents[discountIndex] = rootComponents[root];
+		}
+		_componentCount = componentCount;
+
+		_affectedDiscounts = ThreadLocal.withInitial(() -> new AffectedDiscounts(_productCount, _discounts.size()));
+
+		_productCounts = ThreadLocal.withInitial(() -> new int[_productCount]);
+		_applicationCounts = ThreadLocal.withInitial(() -> new int[_discounts.size()]);
+	}
+
+	/**
+	 * Find the root of a product in a union-find forest, halving the path on the way
+	 *
+	 * @param roots the parent of each product, or the product itself for a root
+	 * @param productIndex the index of the product
+	 * @return the index of the root product
+	 */
+	private static int findRoot(final int[] roots, final int productIndex) {
+		int current = productIndex;
+		while(roots[current] != current) {
+			roots[current] = roots[roots[current]];
+			current = roots[current];
+		}
+		return current;
+	}
+
+	/**
+	 * Check if this was compiled from the given discounts
+	 *
+	 * @param discounts a list of discounts
+	 * @param dictionary the dictionary that gave the discounts their product ids
+	 * @return true if this was compiled from an equal list of discounts with the same ids
+	 */
+	public boolean isCompiledFrom(final List<PercentageDiscount> discounts, final ProductDictionary dictionary) {
+		return _dictionary == dictionary && (_discounts == discounts || _discounts.equals(discounts));
+	}
+
+	/**
+	 * Get the discounts in the order they are applied
+	 *
+	 * @return the discounts in the order they are applied
+	 */
+	public List<PercentageDiscount> getDiscounts() {
+		return _discounts;
+	}
+
+	/**
+	 * Get one more than the largest id of the products referenced by the discounts
+	 *
+	 * @return the size of a product count array
+	 */
+	public int getProductCount() {
+		return _productCount;
+	}
+
+	/**
+	 * Get the number of discounts
+	 *
+	 * @return the size of an application count array
+	 */
+	public int getDiscountCount() {
+		return _discounts.size();
+	}
+
+	/**
+	 * Get the number of groups of discounts connected through shared products
+	 *
+	 * @return the number of components
+	 */
+	public int getComponentCount() {
+		return _componentCount;
+	}
+
+	/**
+	 * Get the component of a discount
+	 *
+	 * @param discountIndex the index of the discount
+	 * @return the component of the discount
+	 */
+	public int getComponent(final int discountIndex) {
+		return _discountComponents[discountIndex];
+	}
+
+	/**
+	 * Get the quantity of a product a discount requires
+	 *
+	 * @param discountIndex the index of the discount
+	 * @param productIndex the index of the product
+	 * @return the quantity required for one application, or 0 if the discount does not involve the product
+	 */
+	int getRequiredQuantity(final int discountIndex, final int productIndex) {
+		for(int requirement = _requirementOffsets[discountIndex]; requirement < _requirementOffsets[discountIndex + 1]; ++requirement) {
+			if(_requirementProducts[requirement] == productIndex) {
+				return _requirementQuantities[requirement];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the index of a product
+	 *
+	 * @param productName the name of the product
+	 * @return the index of the product or -1 if no discount involves the product
+	 */
+	public int getProductIndex(final String productName) {
+		final int productId = _dictionary.findId(productName);
+		return productId < _productCount ? productId : -1;
+	}
+
+	/**
+	 * Fill an array of product counts from a basket.
+	 *
+	 * Only products with ids in the range of the array are counted.
+	 *
+	 * @param basket a customer basket from the basket service
+	 * @param productCounts the array to fill, indexed by product index
+	 */
+	public void loadProductCounts(final Basket basket, final int[] productCounts) {
+		Arrays.fill(productCounts, 0);
+		scatterProductCounts(basket.getIndexed(_dictionary), productCounts);
+	}
+
+	/**
+	 * Copy the quantities of a basket into an array of product counts
+	 *
+	 * @param basket a basket keyed by product id
+	 * @param productCounts the array to copy into, indexed by product index
+	 */
+	private void scatterProductCounts(final IndexedBasket basket, final int[] productCounts) {
+		final int[] productIds = basket.getProductIds();
+		final int[] quantities = basket.getQuantities();
+		// Product ids are ascending so stop at the first one beyond those the discounts reference
+		for(int i = 0; i < productIds.length && productIds[i] < _productCount; ++i) {
+			productCounts[productIds[i]] = quantities[i];
+		}
+	}
+
+	/**
+	 * Work out how many times a discount can be applied to the product counts.
+	 *
+	 * This is the smallest ratio of available to required quantity over the
+	 * discount's requirements.
+	 *
+	 * @param discountIndex the index of the discount
+	 * @param productCounts the current product counts
+	 * @return the number of times the discount can be applied
+	 */
+	int countApplications(final int discountIndex, final int[] productCounts) {
+		int count = Integer.MAX_VALUE;
+		for(int requirement = _requirementOffsets[discountIndex]; requirement < _requirementOffsets[discountIndex + 1]; ++requirement) {
+			final int requiredQuantity = _requirementQuantities[requirement];
+			if(requiredQuantity > 0) {
+				count = Math.min(count, productCounts[_requirementProducts[requirement]] / requiredQuantity);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Remove the products required by a number of applications of a discount from the product counts
+	 *
+	 * @param discountIndex the index of the discount
+	 * @param count the number of applications
+	 * @param productCounts the current product counts
+	 */
+	void removeDiscountProducts(final int discountIndex, final int count, final int[] productCounts) {
+		for(int requirement = _requirementOffsets[discountIndex]; requirement < _requirementOffsets[discountIndex + 1]; ++requirement) {
+			productCounts[_requirementProducts[requirement]] -= count * _requirementQuantities[requirement];
+		}
+	}
+
+	/**
+	 * Apply all of the discounts, in order, until no more can be applied.
+	 *
+	 * Products used by a discount are removed from the product counts. The number of
+	 * applications of each discount is worked out in one step so the cost depends on
+	 * the number of discounts rather than the quantities in the basket.
+	 *
+	 * @param productCounts the product counts of the basket, indexed by product index
+	 * @param applicationCounts receives the number of times each discount was applied, indexed by discount index
+	 */
+	public void applyDiscountsExhaustively(final int[] productCounts, final int[] applicationCounts) {
+		for(int discountIndex = 0; discountIndex < _discounts.size(); ++discountIndex) {
+			final int count = countApplications(discountIndex, productCounts);
+			if(count > 0) {
+				removeDiscountProducts(discountIndex, count, productCounts);
+			}
+			applicationCounts[discountIndex] = count;
+		}
+	}
+
+	/**
+	 * Apply all of the discounts to a basket using scratch-pads owned by the calling thread.
+	 *
+	 * The returned array is reused by later calls from the same thread.
+	 *
+	 * @param basket a customer basket from the basket service
+	 * @return the number of times each discount was applied, indexed by discount index
+	 */
+	public int[] applyDiscountsExhaustively(final Basket basket) {
+		final int[] productCounts = _productCounts.get();
+		final int[] applicationCounts = _applicationCounts.get();
+		loadProductCounts(basket, productCounts);
+		applyDiscountsExhaustively(productCounts, applicationCounts);
+		return applicationCounts;
+	}
+
+	/**
+	 * Apply some of the discounts to a basket using scratch-pads owned by the calling thread.
+	 *
+	 * Only the products required by the given discounts are loaded from the basket and
+	 * only the given discounts are applied, in ascending order. Discounts that cannot apply
+	 * to the basket may be left out without changing the result.
+	 *
+	 * The returned array is reused by later calls from the same thread and only the
+	 * entries for the given discounts are written.
+	 *
+	 * @param basket a customer basket from the basket service
+	 * @param discountIndexes the ascending indexes of the discounts to apply
+	 * @return the number of times each discount was applied, indexed by discount index
+	 */
+	public int[] applyDiscountsExhaustively(final Basket basket, final int[] discountIndexes) {
+		final int[] productCounts = _productCounts.get();
+		final int[] applicationCounts = _applicationCounts.get();
+
+		// Load every product first as discounts remove products as they are applied.
+		// Counts left over from earlier baskets are cleared for the products the discounts need.
+		for(final int discountIndex : discountIndexes) {
+			for(int requirement = _requirementOffsets[discountIndex]; requirement < _requirementOffsets[discountIndex + 1]; ++requirement) {
+				productCounts[_requirementProducts[requirement]] = 0;
+			}
+		}
+		scatterProductCounts(basket.getIndexed(_dictionary), productCounts);
+
+		for(final int discountIndex : discountIndexes) {
+			final int count = countApplications(discountIndex, productCounts);
+			if(count > 0) {
+				removeDiscountProducts(discountIndex, count, productCounts);
+			}
+			applicationCounts[discountIndex] = count;
+		}
+		return applicationCounts;
+	}
+
+	/**
+	 * Apply some of the discounts to a basket, applying independent components in parallel.
+	 *
+	 * The result is the same as {@link #applyDiscountsExhaustively(Basket, int[])}. Discounts
+	 * are applied in ascending order within each component, and each component works on its
+	 * own products' counts so components need not wait for each other. When there is too
+	 * little work to share, or no other thread to share it with, the discounts are applied
+	 * on the calling thread.
+	 *
+	 * The returned array is new, unless the discounts were applied on the calling thread in
+	 * which case it is reused as for {@link #applyDiscountsExhaustively(Basket, int[])}. Only
+	 * the entries for the given discounts are written.
+	 *
+	 * @param basket a customer basket from the basket service
+	 * @param discountIndexes the ascending indexes of the discounts to apply
+	 * @param forkJoinPool the pool in which to apply components, unless called from a fork/join task
+	 * @return the number of times each discount was applied, indexed by discount index
+	 */
+	public int[] applyDiscountsInParallel(final Basket basket, final int[] discountIndexes, final ForkJoinPool forkJoinPool) {
+		return applyDiscountsInParallel(basket, discountIndexes, forkJoinPool, PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Apply some of the discounts to a basket, applying independent components in parallel
+	 * when there are at least a given number of requirements
+	 *
+	 * @param basket a customer basket from the basket service
+	 * @param discountIndexes the ascending indexes of the discounts to apply
+	 * @param forkJoinPool the pool in which to apply components, unless called from a fork/join task
+	 * @param parallelThreshold the number of requirements below which discounts are applied on the calling thread
+	 * @return the number of times each discount was applied, indexed by discount index
+	 */
+	int[] applyDiscountsInParallel(
+			final Basket basket,
+			final int[] discountIndexes,
+			final ForkJoinPool forkJoinPool,
+			final int parallelThreshold) {
+
+		// Work is applied in the pool of the calling task if there is one
+		final ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : forkJoinPool;
+		if(_componentCount < 2 || pool.getParallelism() < 2) {
+			return applyDiscountsExhaustively(basket, discountIndexes);
+		}
+		int requirementCount = 0;
+		for(final int discountIndex : discountIndexes) {
+			requirementCount += _requirementOffsets[discountIndex + 1] - _requirementOffsets[discountIndex];
+		}
+		if(requirementCount < parallelThreshold) {
+			return applyDiscountsExhaustively(basket, discountIndexes);
+		}
+
+		// Group the discounts by component, keeping them in ascending order within each
+		final int[] componentStarts = new int[_componentCount + 1];
+		for(final int discountIndex : discountIndexes) {
+			++componentStarts[_discountComponents[discountIndex] + 1];
+		}
+		for(int component = 0; component < _componentCount; ++component) {
+			componentStarts[component + 1] += componentStarts[component];
+		}
+		final int[] groupedDiscounts = new int[discountIndexes.length];
+		final int[] componentFill = Arrays.copyOf(componentStarts, _componentCount);
+		for(final int discountIndex : discountIndexes) {
+			groupedDiscounts[componentFill[_discountComponents[discountIndex]]++] = discountIndex;
+		}
+
+		// Tasks must not share the calling thread's scratch-pads, which a fork/join worker
+		// may reuse for another costing while it waits
+		final int[] productCounts = new int[_productCount];
+		final int[] applicationCounts = new int[_discounts.size()];
+		scatterProductCounts(basket.getIndexed(_dictionary), productCounts);
+
+		final ComponentTask task = new ComponentTask(groupedDiscounts, componentStarts, 0, _componentCount, productCounts, applicationCounts);
+		if(ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		}
+		else {
+			pool.invoke(task);
+		}
+		return applicationCounts;
+	}
+
+	/**
+	 * Apply discounts in order to product counts
+	 *
+	 * @param discountIndexes the indexes of the discounts to apply
+	 * @param from the position of the first discount to apply
+	 * @param to the position after the last discount to apply
+	 * @param productCounts the product counts, updated in place
+	 * @param applicationCounts receives the number of times each discount was applied
+	 */
+	private void applyDiscounts(
+			final int[] discountIndexes,
+			final int from,
+			final int to,
+			final int[] productCounts,
+			final int[] applicationCounts) {
+		for(int i = from; i < to; ++i) {
+			final int discountIndex = discountIndexes[i];
+			final int count = countApplications(discountIndex, productCounts);
+			if(count > 0) {
+				removeDiscountProducts(discountIndex, count, productCounts);
+			}
+			applicationCounts[discountIndex] = count;
+		}
+	}
+
+	/**
+	 * A fork/join task that applies the discounts of a range of components, splitting the
+	 * range until it holds little work.
+	 *
+	 * Components touch different entries of the product and application counts, so tasks
+	 * share the arrays without interfering.
+	 */
+	private class ComponentTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] _groupedDiscounts;
+		private final int[] _componentStarts;
+		private final int _from;
+		private final int _to;
+		private final int[] _productCounts;
+		private final int[] _applicationCounts;
+
+		ComponentTask(
+				final int[] groupedDiscounts,
+				final int[] componentStarts,
+				final int from,
+				final int to,
+				final int[] productCounts,
+				final int[] applicationCounts) {
+			_groupedDiscounts = groupedDiscounts;
+			_componentStarts = componentStarts;
+			_from = from;
+			_to = to;
+			_productCounts = productCounts;
+			_applicationCounts = applicationCounts;
+		}
+
+		@Override
+		protected void compute() {
+			final int start = _componentStarts[_from];
+			final int end = _componentStarts[_to];
+			if(_to - _from < 2 || countRequirements(start, end) <= TASK_REQUIREMENTS) {
+				applyDiscounts(_groupedDiscounts, start, end, _productCounts, _applicationCounts);
+			}
+			else {
+				final int middle = (_from + _to) >>> 1;
+				invokeAll(
+						new ComponentTask(_groupedDiscounts, _componentStarts, _from, middle, _productCounts, _applicationCounts),
+						new ComponentTask(_groupedDiscounts, _componentStarts, middle, _to, _productCounts, _applicationCounts));
+			}
+		}
+
+		/**
+		 * Count the requirements of a range of the grouped discounts
+		 *
+		 * @param start the position of the first discount
+		 * @param end the position after the last discount
+		 * @return the number of requirements
+		 */
+		private int countRequirements(final int start, final int end) {
+			int requirementCount = 0;
+			for(int i = start; i < end; ++i) {
+				requirementCount += _requirementOffsets[_groupedDiscounts[i] + 1] - _requirementOffsets[_groupedDiscounts[i]];
+			}
+			return requirementCount;
+		}
+	}
+
+	/**
+	 * Add products to a basket to which the discounts have already been applied.
+	 *
+	 * Only the discounts affected by the added products are re-applied. These are the
+	 * discounts at or after the first discount involving the added product that are
+	 * connected to it through shared products. Earlier discounts and unconnected
+	 * discounts cannot change so the result is the same as applying every discount
+	 * to the whole basket again.
+	 *
+	 * @param productIndex the index of the product added
+	 * @param quantity the number of products added
+	 * @param productCounts the product counts remaining after the discounts were applied, updated in place
+	 * @param applicationCounts the number of times each discount was applied, updated in place
+	 * @param appliedDiscounts the set of discounts applied at least once, updated in place
+	 */
+	public void addProducts(
+			final int productIndex,
+			final int quantity,
+			final int[] productCounts,
+			final int[] applicationCounts,
+			final BitSet appliedDiscounts) {
+
+		if(_discountOffsetsByProduct[productIndex] == _discountOffsetsByProduct[productIndex + 1]) {
+			productCounts[productIndex] += quantity;
+			return;
+		}
+
+		final AffectedDiscounts affected = _affectedDiscounts.get();
+		affected.find(this, productIndex, _discountsByProduct[_discountOffsetsByProduct[productIndex]]);
+
+		// Return the products used by the affected discounts to the basket
+		for(int i = 0; i < affected._discountCount; ++i) {
+			final int discountIndex = affected._discounts[i];
+			removeDiscountProducts(discountIndex, -applicationCounts[discountIndex], productCounts);
+		}
+
+		productCounts[productIndex] += quantity;
+
+		// Re-apply the affected discounts in order
+		Arrays.sort(affected._discounts, 0, affected._discountCount);
+		for(int i = 0; i < affected._discountCount; ++i) {
+			final int discountIndex = affected._discounts[i];
+			final int count = countApplications(discountIndex, productCounts);
+			if(count > 0) {
+				removeDiscountProducts(discountIndex, count, productCounts);
+			}
+			applicationCounts[discountIndex] = count;
+			appliedDiscounts.set(discountIndex, count > 0);
+		}
+
+		affected.clear();
+	}
+
+	/**
+	 * A scratch-pad for finding the discounts affected by adding a product to a basket.
+	 *
+	 * This is static so that values held by a thread do not keep the compiled discounts reachable.
+	 */
+	private static class AffectedDiscounts {
+
+		private final boolean[] _productMarks;
+		private final boolean[] _discountMarks;
+		private final int[] _products;
+		private final int[] _discounts;
+		private int _productCount = 0;
+		private int _discountCount = 0;
+
+		AffectedDiscounts(final int productCount, final int discountCount) {
+			_productMarks = new boolean[productCount];
+			_discountMarks = new boolean[discountCount];
+			_products = new int[productCount];
+			_discounts = new int[discountCount];
+		}
+
+		/**
+		 * Find the discounts from the first discount onwards that are connected to a product through shared products
+		 *
+		 * @param compiledDiscounts the compiled discounts to search
+		 * @param productIndex the index of the product
+		 * @param firstDiscountIndex the index of the first discount that could be affected
+		 */
+		void find(final CompiledDiscounts compiledDiscounts, final int productIndex, final int firstDiscountIndex) {
+			final int[] discountOffsetsByProduct = compiledDiscounts._discountOffsetsByProduct;
+			final int[] discountsByProduct = compiledDiscounts._discountsByProduct;
+			final int[] requirementOffsets = compiledDiscounts._requirementOffsets;
+			final int[] requirementProducts = compiledDiscounts._requirementProducts;
+			markProduct(productIndex);
+			for(int p = 0; p < _productCount; ++p) {
+				final int connectedProduct = _products[p];
+				for(int d = discountOffsetsByProduct[connectedProduct]; d < discountOffsetsByProduct[connectedProduct + 1]; ++d) {
+					final int discountIndex = discountsByProduct[d];
+					if(discountIndex >= firstDiscountIndex && !_discountMarks[discountIndex]) {
+						_discountMarks[discountIndex] = true;
+						_discounts[_discountCount++] = discountIndex;
+						for(int r = requirementOffsets[discountIndex]; r < requirementOffsets[discountIndex + 1]; ++r) {
+							markProduct(requirementProducts[r]);
+						}
+					}
+				}
+			}
+		}
+
+		private void markProduct(final int productIndex) {
+			if(!_productMarks[productIndex]) {
+				_productMarks[productIndex] = true;
+				_products[_productCount++] = productIndex;
+			}
+		}
+
+		/**
+		 * Clear the marks ready for the next search
+		 */
+		void clear() {
+			for(int p = 0; p < _productCount; ++p) {
+				_productMarks[_products[p]] = false;
+			}
+			for(int d = 0; d < _discountCount; ++d) {
+				_discountMarks[_discounts[d]] = false;
+			}
+			_productCount = 0;
+			_discountCount = 0;
+		}
+	}
+}
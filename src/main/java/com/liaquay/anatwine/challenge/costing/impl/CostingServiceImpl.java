@@ -1,8 +1,17 @@
 package com.liaquay.anatwine.challenge.costing.impl;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -12,11 +21,17 @@ import com.liaquay.anatwine.challenge.basket.BasketService;
 import com.liaquay.anatwine.challenge.costing.AppliedDiscount;
 import com.liaquay.anatwine.challenge.costing.Costing;
 import com.liaquay.anatwine.challenge.costing.CostingService;
+import com.liaquay.anatwine.challenge.costing.CostingStage;
 import com.liaquay.anatwine.challenge.discount.DiscountService;
 import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
 import com.liaquay.anatwine.challenge.productcatalog.Product;
 import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
 import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+import com.liaquay.anatwine.challenge.productcatalog.StockAllocation;
+import com.liaquay.anatwine.challenge.productcatalog.StockService;
+import com.liaquay.anatwine.challenge.util.LatencyHistogram;
+import com.liaquay.anatwine.challenge.util.Money;
 
 /**
  * This service implementation calculates the costing of a basket
@@ -29,6 +44,35 @@ public class CostingServiceImpl implements CostingService {
 	private final BasketService _basketService;
 	private final ProductCatalogService _productCatalogService;
 	private final DiscountService _discountService;
+	private final ForkJoinPool _forkJoinPool;
+	private final StockService _stockService;
+
+	/**
+	 * The most recently compiled discounts, replaced when the discounts change
+	 */
+	private volatile CompiledDiscounts _compiledDiscounts = null;
+
+	/**
+	 * Switches for timing the stages of costing into histograms and attaching traces to costings
+	 */
+	private volatile boolean _timingEnabled = Boolean.getBoolean("anatwine.costing.timing");
+	private volatile boolean _tracingEnabled = Boolean.getBoolean("anatwine.costing.trace");
+
+	/**
+	 * The time allowed to search for the discounts giving the largest total discount, or 0
+	 * to apply discounts in list order
+	 */
+	private volatile long _optimisationBudgetNanos = TimeUnit.MICROSECONDS.toNanos(Long.getLong("anatwine.costing.optimise.micros", 0));
+
+	/**
+	 * The number of costings whose search for the best discounts ran out of time
+	 */
+	private final AtomicLong _optimisationTimeouts = new AtomicLong();
+
+	/**
+	 * Latencies of each stage of costing, recorded while timing or tracing is switched on
+	 */
+	private final Map<CostingStage, LatencyHistogram> _stageHistograms = Collections.unmodifiableMap(CostingStageTimer.newHistograms());
 
 	@Autowired
 	public CostingServiceImpl(
@@ -36,126 +80,523 @@ public class CostingServiceImpl implements CostingService {
 			final ProductCatalogService productCatalogService,
 			final DiscountService discountService) {
 
+		this(basketService, productCatalogService, discountService, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param basketService the service holding the customer's current basket
+	 * @param productCatalogService the catalog used to price products
+	 * @param discountService the service supplying current discounts
+	 * @param forkJoinPool the pool used to cost batches of baskets in parallel
+	 */
+	public CostingServiceImpl(
+			final BasketService basketService,
+			final ProductCatalogService productCatalogService,
+			final DiscountService discountService,
+			final ForkJoinPool forkJoinPool) {
+
+		this(basketService, productCatalogService, discountService, forkJoinPool, null);
+	}
+
+	/**
+	 * Constructor for a costing service that costs only the units in stock.
+	 *
+	 * Units short are reported as unavailable. Stock levels change with every order, so a
+	 * caching costing service in front of this one would serve costings of old stock levels.
+	 *
+	 * @param basketService the service holding the customer's current basket
+	 * @param productCatalogService the catalog used to price products
+	 * @param discountService the service supplying current discounts
+	 * @param forkJoinPool the pool used to cost batches of baskets in parallel
+	 * @param stockService the service counting the units in stock, or null if stock is not counted
+	 */
+	public CostingServiceImpl(
+			final BasketService basketService,
+			final ProductCatalogService productCatalogService,
+			final DiscountService discountService,
+			final ForkJoinPool forkJoinPool,
+			final StockService stockService) {
+
 		_basketService = basketService;
 		_productCatalogService = productCatalogService;
 		_discountService = discountService;
+		_forkJoinPool = forkJoinPool;
+		_stockService = stockService;
+	}
+
+	/**
+	 * Switch timing of the stages of costing on or off.
+	 *
+	 * Timing can also be switched on with the system property anatwine.costing.timing=true
+	 *
+	 * @param timingEnabled true to record the time taken by each stage in the stage histograms
+	 */
+	public void setTimingEnabled(final boolean timingEnabled) {
+		_timingEnabled = timingEnabled;
+	}
+
+	/**
+	 * Switch tracing of individual costings on or off.
+	 *
+	 * Tracing can also be switched on with the system property anatwine.costing.trace=true
+	 *
+	 * @param tracingEnabled true to attach the time taken by each stage to each costing
+	 */
+	public void setTracingEnabled(final boolean tracingEnabled) {
+		_tracingEnabled = tracingEnabled;
+	}
+
+	/**
+	 * Set the time allowed to search for the discounts giving the customer the largest total
+	 * discount, rather than applying discounts in list order.
+	 *
+	 * A search that runs out of time keeps the best discounts found so far, which are never
+	 * worse than applying discounts in list order. The budget can also be set in microseconds
+	 * with the system property anatwine.costing.optimise.micros
+	 *
+	 * @param budget the time allowed for each costing, or 0 to apply discounts in list order
+	 * @param unit the unit of the budget
+	 */
+	public void setOptimisationBudget(final long budget, final TimeUnit unit) {
+		_optimisationBudgetNanos = unit.toNanos(budget);
+	}
+
+	/**
+	 * Get the number of costings whose search for the best discounts ran out of time
+	 *
+	 * @return the number of searches that ran out of time
+	 */
+	public long getOptimisationTimeoutCount() {
+		return _optimisationTimeouts.get();
+	}
+
+	/**
+	 * Get the latencies of a stage of costing recorded while timing or tracing was switched on
+	 *
+	 * @param stage the stage of costing
+	 * @return the histogram of latencies for the stage
+	 */
+	public LatencyHistogram getLatencyHistogram(final CostingStage stage) {
+		return _stageHistograms.get(stage);
+	}
+
+	/**
+	 * Start timing a costing
+	 *
+	 * @return a timer that does nothing unless timing or tracing is switched on
+	 */
+	private CostingStageTimer startTimer() {
+		return CostingStageTimer.start(_timingEnabled || _tracingEnabled);
 	}
 
 	/**
 	 * From the customer's basket make note of products that are not available in the product catalog.
 	 *
 	 * @param basket the customer's basket from the basket service
-	 * @param pricedBasketProducts a map of product names to product details
+	 * @param pricedBasketProducts a map of product names to product details, including at least those in the basket
+	 * @param shortfalls the names of products mapped to the number of units out of stock
 	 * @return a map of product names to the number unavailable in the basket.
 	 */
 	private Map<String, Integer> getUnavilableProducts(
 			final Basket basket,
-			final Map<String, Product> pricedBasketProducts) {
+			final Map<String, Product> pricedBasketProducts,
+			final Map<String, Integer> shortfalls) {
 
-		return pricedBasketProducts.values().stream()
+		final Map<String, Integer> unavilableProducts = basket.getProductNames().stream()
+				.map(productName -> pricedBasketProducts.get(productName))
 				.filter(product -> product.getStatus() == ProductStatus.Unavailable)
 				.collect(Collectors.toMap(
 						Product::getName,
-						product -> basket.getQuantity(product.getName())));
+						product -> basket.getQuantity(product.getName()),
+						Integer::sum,
+						HashMap::new));
+		shortfalls.forEach((productName, quantity) -> unavilableProducts.merge(productName, quantity, Integer::sum));
+		return unavilableProducts;
 	}
 
 	/**
-	 * From the customer's basket use the product catalog to price the products
+	 * Use the product catalog to price products, fetching them all in one request
 	 *
-	 * @param basket the customer's basket from the basket service
+	 * @param productNames the names of the products to price
 	 * @return a map of product names to product details, including price
 	 */
-	private Map<String, Product> priceBasketProducts(final Basket basket) {
+	private Map<String, Product> priceProducts(final Collection<String> productNames) {
+		return _productCatalogService.getProductsByNames(productNames);
+	}
 
-		return basket.getProductNames().stream()
-				.map(productName -> _productCatalogService.getProductByName(productName))
-				.collect(Collectors.toMap(
-						Product::getName,
-						product -> product));
+	/**
+	 * Get the compiled form of the current discounts, compiling them only if they have changed
+	 *
+	 * @param index an index of the current discounts
+	 * @return the compiled form of the current discounts
+	 */
+	private CompiledDiscounts getCompiledDiscounts(final PercentageDiscountIndex index) {
+		final List<PercentageDiscount> discounts = index.getDiscounts();
+		final CompiledDiscounts compiledDiscounts = _compiledDiscounts;
+		if(compiledDiscounts != null && compiledDiscounts.isCompiledFrom(discounts, index.getDictionary())) {
+			return compiledDiscounts;
+		}
+		final CompiledDiscounts recompiledDiscounts = new CompiledDiscounts(discounts, index.getDictionary());
+		_compiledDiscounts = recompiledDiscounts;
+		return recompiledDiscounts;
 	}
 
 	/**
 	 * Apply discount to the customer's basket.
 	 *
-	 * This method uses a copy of the customers basket from which products
-	 * are eliminated as discounts are applied.
+	 * Only discounts whose products are all in the basket are considered. The compiled
+	 * discounts work on a scratch-pad of product counts from which products are
+	 * eliminated as discounts are applied. Groups of discounts sharing no products are
+	 * applied in parallel on the fork/join pool when there are very many of them.
 	 *
-	 * @param mutableBasket a copy of the customers basket from which products are eliminated as discounts are applied
+	 * With an optimisation budget the discounts giving the largest total discount are searched
+	 * for instead, for no longer than the budget.
+	 *
+	 * @param basket the customer's basket from the basket service
 	 * @param pricedBasketProducts a map of product names to product details, including price
+	 * @param index an index of the current discounts
+	 * @param compiledDiscounts the compiled form of the current discounts
 	 * @return A sorted list of the discounts applied.
 	 */
 	private List<AppliedDiscount> getAppliedDiscounts(
-			final MutableBasket mutableBasket,
-			final Map<String, Product> pricedBasketProducts) {
+			final Basket basket,
+			final Map<String, Product> pricedBasketProducts,
+			final PercentageDiscountIndex index,
+			final CompiledDiscounts compiledDiscounts) {
 
-		final List<PercentageDiscount> discounts = _discountService.getPercentageDiscounts();
-		final Map<PercentageDiscount, Integer> discountMatches = mutableBasket.applyDiscountsExhaustively(discounts);
+		final int[] applicableDiscounts = index.getApplicableDiscountPositions(basket.getIndexed(index.getDictionary()));
+		final long optimisationBudgetNanos = _optimisationBudgetNanos;
+		final int[] applicationCounts = optimisationBudgetNanos > 0
+				? allocateDiscounts(basket, pricedBasketProducts, compiledDiscounts, applicableDiscounts, optimisationBudgetNanos)
+				: compiledDiscounts.applyDiscountsInParallel(basket, applicableDiscounts, _forkJoinPool);
+		return reportAppliedDiscounts(
+				compiledDiscounts.getDiscounts(),
+				Arrays.stream(applicableDiscounts),
+				applicationCounts,
+				pricedBasketProducts);
+	}
+
+	/**
+	 * Search for the number of times to apply each discount that gives the largest total discount
+	 *
+	 * @param basket the customer's basket from the basket service
+	 * @param pricedBasketProducts a map of product names to product details, including price
+	 * @param compiledDiscounts the compiled form of the current discounts
+	 * @param discountIndexes the ascending indexes of the discounts that may apply
+	 * @param budgetNanos the time allowed for the search
+	 * @return the number of times each discount is applied, indexed by discount index
+	 */
+	private int[] allocateDiscounts(
+			final Basket basket,
+			final Map<String, Product> pricedBasketProducts,
+			final CompiledDiscounts compiledDiscounts,
+			final int[] discountIndexes,
+			final long budgetNanos) {
+
+		final long deadlineNanos = System.nanoTime() + budgetNanos;
+		final List<PercentageDiscount> discounts = compiledDiscounts.getDiscounts();
+		final long[] applicationValues = new long[discounts.size()];
+		for(final int discountIndex : discountIndexes) {
+			final PercentageDiscount discount = discounts.get(discountIndex);
+			final long originalPrice = pricedBasketProducts.get(discount.getTargetProduct()).getPrice();
+			applicationValues[discountIndex] = Money.percentageOf(originalPrice, discount.getPercentage());
+		}
+
+		final DiscountOptimiser optimiser = new DiscountOptimiser(compiledDiscounts, applicationValues, deadlineNanos);
+		final int[] applicationCounts = optimiser.allocate(basket, discountIndexes);
+		if(optimiser.isTimedOut()) {
+			_optimisationTimeouts.incrementAndGet();
+		}
+		return applicationCounts;
+	}
+
+	/**
+	 * Convert discount application counts to the costing report model
+	 *
+	 * @param discounts the discounts indexed by discount index
+	 * @param discountIndexes the indexes of the discounts to report on
+	 * @param applicationCounts the number of times each discount was applied, indexed by discount index
+	 * @param pricedBasketProducts a map of product names to product details, including price
+	 * @return A sorted list of the discounts applied.
+	 */
+	static List<AppliedDiscount> reportAppliedDiscounts(
+			final List<PercentageDiscount> discounts,
+			final IntStream discountIndexes,
+			final int[] applicationCounts,
+			final Map<String, Product> pricedBasketProducts) {
 
-		return discountMatches.entrySet().stream()
+		return discountIndexes
 				// Remove entries with a match count of 0
-				.filter(discountMatch -> discountMatch.getValue() > 0)
+				.filter(discountIndex -> applicationCounts[discountIndex] > 0)
+				.boxed()
 				// Sort the discounts so they appear in a predictable order
-				.sorted((d1, d2) -> {
-						final String discountProductName1 = d1.getKey().getTargetProduct();
-						final String discountProductName2 = d2.getKey().getTargetProduct();
+				.sorted((i1, i2) -> {
+						final String discountProductName1 = discounts.get(i1).getTargetProduct();
+						final String discountProductName2 = discounts.get(i2).getTargetProduct();
 						return discountProductName1.compareToIgnoreCase(discountProductName2);
 					}
 				)
 				// Convert the discounts to the report model
-				.map(discountMatch -> {
-					final PercentageDiscount discount = discountMatch.getKey();
-					final double originalPrice = pricedBasketProducts.get(discount.getTargetProduct()).getPrice();
-					final double discountPerApplication = originalPrice * discount.getPercentage() / 100.0;
+				.map(discountIndex -> {
+					final PercentageDiscount discount = discounts.get(discountIndex);
+					final long originalPrice = pricedBasketProducts.get(discount.getTargetProduct()).getPrice();
+					final long discountPerApplication = Money.percentageOf(originalPrice, discount.getPercentage());
 					return new AppliedDiscount(
 							discount.getTargetProduct() + " " + discount.getPercentage() + "% off",
-							discountMatch.getValue(),
+							applicationCounts[discountIndex],
 							discountPerApplication);
 				})
 				.collect(Collectors.toList());
 	}
 
+	/**
+	 * Calculate the total price of the products in a basket, before discounts
+	 *
+	 * @param basket the basket to price
+	 * @param pricedProducts a map of product names to product details, including at least those in the basket
+	 * @return the total price of the basket in pence
+	 */
+	static long calculateSubtotal(final Basket basket, final Map<String, Product> pricedProducts) {
+		// Read straight from the basket so costing makes no copy of it
+		long subtotal = 0;
+		for(final String productName : basket.getProductNames()) {
+			subtotal += pricedProducts.get(productName).getPrice() * basket.getQuantity(productName);
+		}
+		return subtotal;
+	}
+
 	/**
 	 * Calculate the total value of discounts applied to the basket
 	 *
 	 * @param appliedDiscounts the discounts applied
 	 * @return the total value of discounts applied to the basket
 	 */
-	private double getTotalDiscount(final List<AppliedDiscount> appliedDiscounts) {
+	static long getTotalDiscount(final List<AppliedDiscount> appliedDiscounts) {
 		return appliedDiscounts.stream()
-				.mapToDouble(appliedDiscount -> appliedDiscount.getTotalDiscount())
+				.mapToLong(appliedDiscount -> appliedDiscount.getTotalDiscount())
 				.sum();
 	}
 
 	@Override
 	public Costing getCosting() {
 
+		final CostingStageTimer timer = startTimer();
+
 		// Get an immutable copy of the current basket (we do not want the items in the basket
 		// to change while this calculation is taking place).
 		final Basket basket = _basketService.getCurrentBasket();
+		timer.lap(CostingStage.BasketSnapshot);
+
+		return getCosting(basket, timer);
+	}
+
+	@Override
+	public Costing getCosting(final Basket basket) {
+		return getCosting(basket, startTimer());
+	}
+
+	/**
+	 * Cost the units held by a stock reservation, reporting the units short as unavailable.
+	 *
+	 * Stock is not checked again, so the costing agrees with the reservation.
+	 *
+	 * @param allocation a reservation or availability check from the stock service
+	 * @return Costing of the units allocated
+	 */
+	public Costing getCosting(final StockAllocation allocation) {
+
+		final CostingStageTimer timer = startTimer();
+
+		final Basket basket = allocation.getAllocated();
+		final Map<String, Product> pricedBasketProducts = priceProducts(basket.getProductNames());
+		timer.lap(CostingStage.Pricing);
+
+		final PercentageDiscountIndex index = _discountService.getPercentageDiscountIndex();
+		final CompiledDiscounts compiledDiscounts = getCompiledDiscounts(index);
+		timer.lap(CostingStage.DiscountLookup);
+
+		return getCosting(basket, allocation.getShortfalls(), pricedBasketProducts, index, compiledDiscounts, timer);
+	}
+
+	/**
+	 * Cost a basket against the current catalog and discounts
+	 *
+	 * @param basket a snapshot of a basket from the basket service
+	 * @param timer the timer for the costing
+	 * @return Costing of the basket
+	 */
+	private Costing getCosting(final Basket basket, final CostingStageTimer timer) {
 
 		// Get price and availability of the products in the basket
-		final Map<String, Product> pricedBasketProducts = priceBasketProducts(basket);
+		final Map<String, Product> pricedBasketProducts = priceProducts(basket.getProductNames());
+		timer.lap(CostingStage.Pricing);
+
+		// Get the current discounts
+		final PercentageDiscountIndex index = _discountService.getPercentageDiscountIndex();
+		final CompiledDiscounts compiledDiscounts = getCompiledDiscounts(index);
+		timer.lap(CostingStage.DiscountLookup);
+
+		return getCosting(basket, pricedBasketProducts, index, compiledDiscounts, timer);
+	}
+
+	/**
+	 * Cost many baskets in parallel on the fork/join pool.
+	 *
+	 * The products in all of the baskets are priced once, and the discounts fetched once,
+	 * so every basket is costed against the same catalog and discounts.
+	 */
+	@Override
+	public List<Costing> getCostings(final Collection<Basket> baskets) {
+
+		final Basket[] basketArray = baskets.toArray(new Basket[baskets.size()]);
+
+		// Pricing and fetching discounts are timed once for the whole batch
+		final CostingStageTimer timer = startTimer();
+
+		// Get price and availability of the products in all of the baskets
+		final Map<String, Product> pricedProducts = priceProducts(Arrays.stream(basketArray)
+				.flatMap(basket -> basket.getProductNames().stream())
+				.collect(Collectors.toSet()));
+		timer.lap(CostingStage.Pricing);
+
+		// Get the current discounts
+		final PercentageDiscountIndex index = _discountService.getPercentageDiscountIndex();
+		final CompiledDiscounts compiledDiscounts = getCompiledDiscounts(index);
+		timer.lap(CostingStage.DiscountLookup);
+		timer.recordTo(_stageHistograms);
 
-		// Create this services model of the basket
-		final MutableBasket mutableBasket = new MutableBasket(basket);
+		final Costing[] costings = new Costing[basketArray.length];
+		_forkJoinPool.invoke(new CostingTask(basketArray, costings, 0, basketArray.length, pricedProducts, index, compiledDiscounts));
+		return Arrays.asList(costings);
+	}
+
+	/**
+	 * Cost a basket against the given prices and discounts, and the current stock if stock is counted
+	 *
+	 * @param basket the basket to cost
+	 * @param pricedProducts a map of product names to product details, including at least those in the basket
+	 * @param index an index of the current discounts
+	 * @param compiledDiscounts the compiled form of the current discounts
+	 * @param timer the timer for the costing
+	 * @return Costing of the basket
+	 */
+	private Costing getCosting(
+			final Basket basket,
+			final Map<String, Product> pricedProducts,
+			final PercentageDiscountIndex index,
+			final CompiledDiscounts compiledDiscounts,
+			final CostingStageTimer timer) {
+
+		if(_stockService == null) {
+			return getCosting(basket, Collections.emptyMap(), pricedProducts, index, compiledDiscounts, timer);
+		}
+		// Only the units in stock are costed, and discounted
+		final StockAllocation allocation = _stockService.getAvailability(basket);
+		timer.lap(CostingStage.StockCheck);
+		return getCosting(allocation.getAllocated(), allocation.getShortfalls(), pricedProducts, index, compiledDiscounts, timer);
+	}
+
+	/**
+	 * Cost a basket against the given prices and discounts
+	 *
+	 * @param basket the basket to cost
+	 * @param shortfalls the names of products mapped to the number of units out of stock, reported as unavailable
+	 * @param pricedProducts a map of product names to product details, including at least those in the basket
+	 * @param index an index of the current discounts
+	 * @param compiledDiscounts the compiled form of the current discounts
+	 * @param timer the timer for the costing
+	 * @return Costing of the basket
+	 */
+	private Costing getCosting(
+			final Basket basket,
+			final Map<String, Integer> shortfalls,
+			final Map<String, Product> pricedProducts,
+			final PercentageDiscountIndex index,
+			final CompiledDiscounts compiledDiscounts,
+			final CostingStageTimer timer) {
+
+		// Create this services model of the basket, keyed by product id for the compiled discounts
+		basket.getIndexed(index.getDictionary());
+		timer.lap(CostingStage.BasketModel);
 
 		// Calculate the subtotal
-		final double subtotal = mutableBasket.calculateSubtotal(pricedBasketProducts);
+		final long subtotal = calculateSubtotal(basket, pricedProducts);
+		timer.lap(CostingStage.Subtotal);
 
 		// Make a report on missing products
-		final Map<String, Integer> unavilableProducts = getUnavilableProducts(basket, pricedBasketProducts);
+		final Map<String, Integer> unavilableProducts = getUnavilableProducts(basket, pricedProducts, shortfalls);
+		timer.lap(CostingStage.UnavailableReport);
 
 		// Get the discounts that have been applied
-		final List<AppliedDiscount> appliedDiscounts = getAppliedDiscounts(mutableBasket, pricedBasketProducts);
+		final List<AppliedDiscount> appliedDiscounts = getAppliedDiscounts(basket, pricedProducts, index, compiledDiscounts);
 
 		// Get the total discount applied
-		final double totalDiscount = getTotalDiscount(appliedDiscounts);
+		final long totalDiscount = getTotalDiscount(appliedDiscounts);
+		timer.lap(CostingStage.DiscountApplication);
+
+		timer.recordTo(_stageHistograms);
 
 		// Build and return a model of the costing
 		return new Costing(
 				unavilableProducts,
 				appliedDiscounts,
 				subtotal,
-				subtotal - totalDiscount);
+				subtotal - totalDiscount,
+				_tracingEnabled ? timer.getTrace() : null);
+	}
+
+	/**
+	 * A fork/join task that costs a range of baskets, splitting the range until it is small
+	 */
+	private class CostingTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The number of baskets below which a task costs the baskets itself
+		 */
+		private static final int THRESHOLD = 64;
+
+		private final Basket[] _baskets;
+		private final Costing[] _costings;
+		private final int _from;
+		private final int _to;
+		private final Map<String, Product> _pricedProducts;
+		private final PercentageDiscountIndex _index;
+		private final CompiledDiscounts _compiledDiscounts;
+
+		CostingTask(
+				final Basket[] baskets,
+				final Costing[] costings,
+				final int from,
+				final int to,
+				final Map<String, Product> pricedProducts,
+				final PercentageDiscountIndex index,
+				final CompiledDiscounts compiledDiscounts) {
+			_baskets = baskets;
+			_costings = costings;
+			_from = from;
+			_to = to;
+			_pricedProducts = pricedProducts;
+			_index = index;
+			_compiledDiscounts = compiledDiscounts;
+		}
+
+		@Override
+		protected void compute() {
+			if(_to - _from <= THRESHOLD) {
+				for(int i = _from; i < _to; ++i) {
+					_costings[i] = getCosting(_baskets[i], _pricedProducts, _index, _compiledDiscounts, startTimer());
+				}
+			}
+			else {
+				final int middle = (_from + _to) >>> 1;
+				invokeAll(
+						new CostingTask(_baskets, _costings, _from, middle, _pricedProducts, _index, _compiledDiscounts),
+						new CostingTask(_baskets, _costings, middle, _to, _pricedProducts, _index, _compiledDiscounts));
+			}
+		}
 	}
 }
@@ -0,0 +1,107 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.liaquay.anatwine.challenge.costing.CostingStage;
+import com.liaquay.anatwine.challenge.costing.CostingTrace;
+import com.liaquay.anatwine.challenge.util.LatencyHistogram;
+
+/**
+ * Times the stages of a single costing.
+ *
+ * When timing is switched off the shared {@link #DISABLED} timer is used, so the
+ * only cost to a costing is a check of a final field at the end of each stage.
+ *
+ * This class is not thread safe; each costing has its own timer.
+ */
+class CostingStageTimer {
+
+	/**
+	 * A timer that records nothing
+	 */
+	static final CostingStageTimer DISABLED = new CostingStageTimer(false);
+
+	private final boolean _enabled;
+	private final long[] _stageNanos;
+
+	/**
+	 * A bit for each stage that has been timed, by stage ordinal
+	 */
+	private int _timedStages = 0;
+
+	private long _lapStart;
+
+	/**
+	 * Constructor
+	 *
+	 * @param enabled true if stages should be timed
+	 */
+	private CostingStageTimer(final boolean enabled) {
+		_enabled = enabled;
+		_stageNanos = enabled ? new long[CostingStage.values().length] : null;
+		_lapStart = enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Start timing a costing
+	 *
+	 * @param enabled true if stages should be timed
+	 * @return a timer for the costing
+	 */
+	static CostingStageTimer start(final boolean enabled) {
+		return enabled ? new CostingStageTimer(true) : DISABLED;
+	}
+
+	/**
+	 * Record the end of a stage, which started when the previous stage ended
+	 *
+	 * @param stage the stage that has ended
+	 */
+	void lap(final CostingStage stage) {
+		if(_enabled) {
+			final long now = System.nanoTime();
+			_stageNanos[stage.ordinal()] += now - _lapStart;
+			_timedStages |= 1 << stage.ordinal();
+			_lapStart = now;
+		}
+	}
+
+	/**
+	 * Add the times of the stages that have been timed to histograms
+	 *
+	 * @param histograms the histogram for each stage
+	 */
+	void recordTo(final Map<CostingStage, LatencyHistogram> histograms) {
+		if(_enabled) {
+			for(final Map.Entry<CostingStage, LatencyHistogram> histogram : histograms.entrySet()) {
+				final int stage = histogram.getKey().ordinal();
+				if((_timedStages & (1 << stage)) != 0) {
+					histogram.getValue().record(_stageNanos[stage]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get a trace of the stage times
+	 *
+	 * @return a trace of the stage times or null if timing is switched off
+	 */
+	CostingTrace getTrace() {
+		return _enabled ? new CostingTrace(_stageNanos) : null;
+	}
+
+	/**
+	 * Make a histogram for each stage
+	 *
+	 * @return an empty histogram for each stage
+	 */
+	static Map<CostingStage, LatencyHistogram> newHistograms() {
+		final Map<CostingStage, LatencyHistogram> histograms = new EnumMap<>(CostingStage.class);
+		for(final CostingStage stage : CostingStage.values()) {
+			histograms.put(stage, new LatencyHistogram());
+		}
+		return histograms;
+	}
+}
@@ -0,0 +1,240 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import java.util.Arrays;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+
+/**
+ * Finds how many times to apply each discount to a basket to give the customer the largest
+ * total discount, where applying discounts in list order may give less when discounts
+ * compete for the same products.
+ *
+ * Discounts are allocated by branch and bound, one component of discounts sharing products
+ * at a time, starting from the in-order answer so the result is never worse. The search
+ * stops at a deadline, keeping the best answer found so far, so a basket with many
+ * overlapping discounts costs no more than the time allowed.
+ *
+ * An optimiser is used for one costing and is not thread safe.
+ */
+final class DiscountOptimiser {
+
+	/**
+	 * The most discounts in a component searched. Larger components keep the in-order answer
+	 * as there is little chance of searching them in the time allowed.
+	 */
+	static final int MAX_COMPONENT_DISCOUNTS = 64;
+
+	/**
+	 * The number of branches searched between checks of the deadline
+	 */
+	private static final int NODES_PER_DEADLINE_CHECK = 32;
+
+	private final CompiledDiscounts _compiledDiscounts;
+	private final long[] _applicationValues;
+	private final long _deadlineNanos;
+
+	/**
+	 * Scratch-pad of product counts, restored as the search backs out of each branch
+	 */
+	private final int[] _productCounts;
+
+	/**
+	 * Scratch-pad of the best value of a unit of each product, used in working out bounds
+	 */
+	private final double[] _unitValues;
+
+	private int _nodeCount = 0;
+	private boolean _timedOut = false;
+
+	// The search of the current component
+	private int[] _items;
+	private int[] _targetProducts;
+	private int[] _targetQuantities;
+	private int[] _choices;
+	private int[] _bestChoices;
+	private long _bestValue;
+	private boolean _improved;
+
+	/**
+	 * Constructor
+	 *
+	 * @param compiledDiscounts the compiled form of the current discounts
+	 * @param applicationValues the discount in pence given by one application of each discount, indexed by discount index
+	 * @param deadlineNanos the value of {@link System#nanoTime()} at which to stop searching
+	 */
+	DiscountOptimiser(
+			final CompiledDiscounts compiledDiscounts,
+			final long[] applicationValues,
+			final long deadlineNanos) {
+		_compiledDiscounts = compiledDiscounts;
+		_applicationValues = applicationValues;
+		_deadlineNanos = deadlineNanos;
+		_productCounts = new int[compiledDiscounts.getProductCount()];
+		_unitValues = new double[compiledDiscounts.getProductCount()];
+	}
+
+	/**
+	 * Check whether the search stopped at the deadline before it was complete
+	 *
+	 * @return true if the deadline was reached
+	 */
+	boolean isTimedOut() {
+		return _timedOut;
+	}
+
+	/**
+	 * Allocate some of the discounts to a basket to give the largest total discount
+	 *
+	 * @param basket a customer basket from the basket service
+	 * @param discountIndexes the ascending indexes of the discounts to allocate
+	 * @return the number of times each discount is applied, indexed by discount index
+	 */
+	int[] allocate(final Basket basket, final int[] discountIndexes) {
+		final int[] applicationCounts = new int[_compiledDiscounts.getDiscountCount()];
+		final int[] greedyCounts = _compiledDiscounts.applyDiscountsExhaustively(basket, discountIndexes);
+		for(final int discountIndex : discountIndexes) {
+			applicationCounts[discountIndex] = greedyCounts[discountIndex];
+		}
+
+		// Order the discounts by component, each component's discounts in ascending order
+		final long[] byComponent = new long[discountIndexes.length];
+		for(int i = 0; i < discountIndexes.length; ++i) {
+			byComponent[i] = ((long)_compiledDiscounts.getComponent(discountIndexes[i]) << 32) | discountIndexes[i];
+		}
+		Arrays.sort(byComponent);
+
+		_compiledDiscounts.loadProductCounts(basket, _productCounts);
+		int start = 0;
+		while(start < byComponent.length && !_timedOut) {
+			int end = start + 1;
+			while(end < byComponent.length && (byComponent[end] >>> 32) == (byComponent[start] >>> 32)) {
+				++end;
+			}
+			// The in-order answer is already the best for a component of one discount
+			if(end - start > 1 && end - start <= MAX_COMPONENT_DISCOUNTS) {
+				optimiseComponent(byComponent, start, end, applicationCounts);
+			}
+			start = end;
+		}
+		return applicationCounts;
+	}
+
+	/**
+	 * Search for the best allocation of the discounts in a component
+	 *
+	 * @param byComponent the discount indexes in the low words, ordered by component
+	 * @param start the position of the component's first discount
+	 * @param end the position after the component's last discount
+	 * @param applicationCounts the in-order application counts, replaced for the component if bettered
+	 */
+	private void optimiseComponent(final long[] byComponent, final int start, final int end, final int[] applicationCounts) {
+		// Discounts worth nothing are left out; searching the most valuable first finds good answers sooner
+		final Integer[] items = new Integer[end - start];
+		int itemCount = 0;
+		long greedyValue = 0;
+		for(int i = start; i < end; ++i) {
+			final int discountIndex = (int)byComponent[i];
+			greedyValue += applicationCounts[discountIndex] * _applicationValues[discountIndex];
+			if(_applicationValues[discountIndex] > 0) {
+				items[itemCount++] = discountIndex;
+			}
+		}
+		Arrays.sort(items, 0, itemCount, (a, b) -> Long.compare(_applicationValues[b], _applicationValues[a]));
+
+		_items = new int[itemCount];
+		_targetProducts = new int[itemCount];
+		_targetQuantities = new int[itemCount];
+		for(int i = 0; i < itemCount; ++i) {
+			_items[i] = items[i];
+			_targetProducts[i] = _compiledDiscounts.getDiscounts().get(items[i]).getTargetProductId();
+			_targetQuantities[i] = _compiledDiscounts.getRequiredQuantity(items[i], _targetProducts[i]);
+		}
+		_choices = new int[itemCount];
+		_bestChoices = new int[itemCount];
+		_bestValue = greedyValue;
+		_improved = false;
+
+		search(0, 0);
+
+		// Only a strictly better answer replaces the in-order one, so ties report as before
+		if(_improved) {
+			for(int i = start; i < end; ++i) {
+				applicationCounts[(int)byComponent[i]] = 0;
+			}
+			for(int i = 0; i < itemCount; ++i) {
+				applicationCounts[_items[i]] = _bestChoices[i];
+			}
+		}
+	}
+
+	/**
+	 * Search the allocations of the discounts from a position on
+	 *
+	 * @param position the position of the next discount to allocate
+	 * @param value the value of the discounts allocated so far
+	 */
+	private void search(final int position, final long value) {
+		if(++_nodeCount % NODES_PER_DEADLINE_CHECK == 0 && System.nanoTime() - _deadlineNanos > 0) {
+			_timedOut = true;
+		}
+		if(_timedOut) {
+			return;
+		}
+		if(position == _items.length) {
+			if(value > _bestValue) {
+				_bestValue = value;
+				System.arraycopy(_choices, 0, _bestChoices, 0, _choices.length);
+				_improved = true;
+			}
+			return;
+		}
+		if(value + getBound(position) <= _bestValue) {
+			return;
+		}
+
+		// Try the most applications first, handing the products back one application at a time
+		final int discountIndex = _items[position];
+		final long applicationValue = _applicationValues[discountIndex];
+		final int maximum = _compiledDiscounts.countApplications(discountIndex, _productCounts);
+		_compiledDiscounts.removeDiscountProducts(discountIndex, maximum, _productCounts);
+		int count = maximum;
+		while(true) {
+			_choices[position] = count;
+			search(position + 1, value + count * applicationValue);
+			if(count == 0 || _timedOut) {
+				break;
+			}
+			_compiledDiscounts.removeDiscountProducts(discountIndex, -1, _productCounts);
+			--count;
+		}
+		_compiledDiscounts.removeDiscountProducts(discountIndex, -count, _productCounts);
+	}
+
+	/**
+	 * Work out an upper bound on the value of the discounts from a position on, given the
+	 * products left.
+	 *
+	 * This is the smaller of two bounds: each discount applied as often as it could be on
+	 * its own, and each unit of every target product earning the most any discount gives
+	 * for a unit of it.
+	 *
+	 * @param position the position of the first discount
+	 * @return an upper bound on the value in pence
+	 */
+	private long getBound(final int position) {
+		long independentBound = 0;
+		for(int i = position; i < _items.length; ++i) {
+			independentBound += _compiledDiscounts.countApplications(_items[i], _productCounts) * _applicationValues[_items[i]];
+			final double unitValue = (double)_applicationValues[_items[i]] / _targetQuantities[i];
+			_unitValues[_targetProducts[i]] = Math.max(_unitValues[_targetProducts[i]], unitValue);
+		}
+		double targetBound = 0;
+		for(int i = position; i < _items.length; ++i) {
+			final int targetProduct = _targetProducts[i];
+			targetBound += _productCounts[targetProduct] * _unitValues[targetProduct];
+			_unitValues[targetProduct] = 0;
+		}
+		// Rounded up a little against error in the division
+		return Math.min(independentBound, (long)Math.ceil(targetBound + 1e-6));
+	}
+}
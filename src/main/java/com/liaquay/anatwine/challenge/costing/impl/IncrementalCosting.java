@@ -0,0 +1,139 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.costing.AppliedDiscount;
+import com.liaquay.anatwine.challenge.costing.Costing;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+
+/**
+ * A costing of a basket that is kept up to date as products are added.
+ *
+ * The subtotal, unavailable products and discount applications are updated from
+ * each addition rather than being recalculated from the whole basket. Only the
+ * discounts affected by an added product are re-applied.
+ *
+ * A costing is tied to the catalog and discounts it was started with and must be
+ * replaced when either changes (see {@link #isCurrent(long, PercentageDiscountIndex)}).
+ *
+ * This class is not thread safe.
+ */
+public class IncrementalCosting {
+
+	private final ProductCatalogService _productCatalogService;
+	private final long _catalogVersion;
+	private final PercentageDiscountIndex _discountIndex;
+	private final CompiledDiscounts _compiledDiscounts;
+
+	/**
+	 * The products added so far mapped to their product details, including price
+	 */
+	private final Map<String, Product> _pricedBasketProducts = new HashMap<>();
+
+	/**
+	 * The names of products that are not available mapped to the missing quantity
+	 */
+	private final Map<String, Integer> _unavilableProducts = new HashMap<>();
+
+	/**
+	 * The product counts remaining after the discounts have been applied, indexed by product index
+	 */
+	private final int[] _productCounts;
+
+	/**
+	 * The number of times each discount has been applied, indexed by discount index
+	 */
+	private final int[] _applicationCounts;
+
+	/**
+	 * The discounts that have been applied at least once
+	 */
+	private final BitSet _appliedDiscounts = new BitSet();
+
+	/**
+	 * The subtotal in pence
+	 */
+	private long _subtotal = 0;
+
+	/**
+	 * Constructor for a costing of an empty basket
+	 *
+	 * @param productCatalogService the catalog used to price products
+	 * @param discountIndex the current discounts
+	 * @param compiledDiscounts the compiled form of the current discounts
+	 */
+	public IncrementalCosting(
+			final ProductCatalogService productCatalogService,
+			final PercentageDiscountIndex discountIndex,
+			final CompiledDiscounts compiledDiscounts) {
+
+		_productCatalogService = productCatalogService;
+		_catalogVersion = productCatalogService.getVersion();
+		_discountIndex = discountIndex;
+		_compiledDiscounts = compiledDiscounts;
+		_productCounts = new int[compiledDiscounts.getProductCount()];
+		_applicationCounts = new int[compiledDiscounts.getDiscountCount()];
+	}
+
+	/**
+	 * Check the costing was started with the given catalog and discounts
+	 *
+	 * @param catalogVersion the current version of the catalog
+	 * @param discountIndex the current discounts
+	 * @return true if the costing can continue to be updated
+	 */
+	public boolean isCurrent(final long catalogVersion, final PercentageDiscountIndex discountIndex) {
+		return _catalogVersion == catalogVersion && _discountIndex == discountIndex;
+	}
+
+	/**
+	 * Update the costing for products added to the basket
+	 *
+	 * @param productName the name of the product added
+	 * @param quantity the number of products added
+	 */
+	public void add(final String productName, final int quantity) {
+
+		final Product product = _pricedBasketProducts.computeIfAbsent(productName, _productCatalogService::getProductByName);
+
+		_subtotal += product.getPrice() * quantity;
+
+		if(product.getStatus() == ProductStatus.Unavailable) {
+			_unavilableProducts.merge(productName, quantity, Integer::sum);
+		}
+
+		final int productIndex = _compiledDiscounts.getProductIndex(productName);
+		if(productIndex >= 0) {
+			_compiledDiscounts.addProducts(productIndex, quantity, _productCounts, _applicationCounts, _appliedDiscounts);
+		}
+	}
+
+	/**
+	 * Get a costing of the basket as it currently stands
+	 *
+	 * @return a costing of the basket
+	 */
+	public Costing getCosting() {
+
+		final List<AppliedDiscount> appliedDiscounts = CostingServiceImpl.reportAppliedDiscounts(
+				_compiledDiscounts.getDiscounts(),
+				_appliedDiscounts.stream(),
+				_applicationCounts,
+				_pricedBasketProducts);
+
+		final long totalDiscount = CostingServiceImpl.getTotalDiscount(appliedDiscounts);
+
+		return new Costing(
+				ImmutableMap.copyOf(_unavilableProducts),
+				appliedDiscounts,
+				_subtotal,
+				_subtotal - totalDiscount);
+	}
+}
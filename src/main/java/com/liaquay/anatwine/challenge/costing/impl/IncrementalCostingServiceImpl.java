@@ -0,0 +1,202 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.BasketService;
+import com.liaquay.anatwine.challenge.costing.Costing;
+import com.liaquay.anatwine.challenge.costing.CostingService;
+import com.liaquay.anatwine.challenge.discount.DiscountService;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+
+/**
+ * A costing service that keeps the costing of the customer's basket up to date
+ * as products are added, rather than costing the whole basket each time.
+ *
+ * This service wraps the basket service so that it sees every product added.
+ * The costing is only rebuilt from the whole basket when the product catalog
+ * or the current discounts change.
+ *
+ * Like {@link com.liaquay.anatwine.challenge.basket.impl.BasketServiceImpl} this
+ * implementation is only suitable for a single customer.
+ */
+public class IncrementalCostingServiceImpl implements CostingService, BasketService {
+
+	private final BasketService _basketService;
+	private final ProductCatalogService _productCatalogService;
+	private final DiscountService _discountService;
+
+	/**
+	 * The costing of the current basket or null if it must be rebuilt
+	 */
+	private IncrementalCosting _costing = null;
+
+	/**
+	 * The compiled form of the discounts last used, shared by every costing while they are current
+	 */
+	private volatile CompiledDiscounts _compiledDiscounts = null;
+
+	public IncrementalCostingServiceImpl(
+			final BasketService basketService,
+			final ProductCatalogService productCatalogService,
+			final DiscountService discountService) {
+
+		_basketService = basketService;
+		_productCatalogService = productCatalogService;
+		_discountService = discountService;
+	}
+
+	/**
+	 * Start a costing of an empty basket using the current catalog and discounts
+	 *
+	 * @param discountIndex the current discounts
+	 * @return a costing of an empty basket
+	 */
+	private IncrementalCosting startCosting(final PercentageDiscountIndex discountIndex) {
+		return new IncrementalCosting(
+				_productCatalogService,
+				discountIndex,
+				getCompiledDiscounts(discountIndex));
+	}
+
+	/**
+	 * Get the compiled form of the current discounts, compiling them only if they have changed
+	 *
+	 * @param discountIndex the current discounts
+	 * @return the compiled form of the current discounts
+	 */
+	private CompiledDiscounts getCompiledDiscounts(final PercentageDiscountIndex discountIndex) {
+		final List<PercentageDiscount> discounts = discountIndex.getDiscounts();
+		final CompiledDiscounts compiledDiscounts = _compiledDiscounts;
+		if(compiledDiscounts != null && compiledDiscounts.isCompiledFrom(discounts, discountIndex.getDictionary())) {
+			return compiledDiscounts;
+		}
+		final CompiledDiscounts recompiledDiscounts = new CompiledDiscounts(discounts, discountIndex.getDictionary());
+		_compiledDiscounts = recompiledDiscounts;
+		return recompiledDiscounts;
+	}
+
+	/**
+	 * Start a costing of a whole basket using the current catalog and discounts
+	 *
+	 * @param discountIndex the current discounts
+	 * @param basket a snapshot of a basket from the basket service
+	 * @return a costing of the basket
+	 */
+	private IncrementalCosting startCosting(final PercentageDiscountIndex discountIndex, final Basket basket) {
+		return addBasket(startCosting(discountIndex), basket);
+	}
+
+	/**
+	 * Add the contents of a basket to a costing
+	 *
+	 * @param costing the costing to add to
+	 * @param basket a snapshot of a basket from the basket service
+	 * @return the costing
+	 */
+	private static IncrementalCosting addBasket(final IncrementalCosting costing, final Basket basket) {
+		for(final String productName : basket.getProductNames()) {
+			costing.add(productName, basket.getQuantity(productName));
+		}
+		return costing;
+	}
+
+	/**
+	 * Get the costing of the current basket, rebuilding it from the whole basket
+	 * if the catalog or discounts have changed.
+	 *
+	 * @return an up to date costing of the current basket
+	 */
+	private IncrementalCosting getCurrentCosting() {
+		final PercentageDiscountIndex discountIndex = _discountService.getPercentageDiscountIndex();
+		if(_costing == null || !_costing.isCurrent(_productCatalogService.getVersion(), discountIndex)) {
+			_costing = startCosting(discountIndex, _basketService.getCurrentBasket());
+		}
+		return _costing;
+	}
+
+	@Override
+	public synchronized void clear() {
+		_basketService.clear();
+		_costing = startCosting(_discountService.getPercentageDiscountIndex());
+	}
+
+	@Override
+	public synchronized void add(final String productName) {
+		add(productName, 1);
+	}
+
+	@Override
+	public synchronized void add(final String productName, final int quantity) {
+		_basketService.add(productName, quantity);
+		final IncrementalCosting costing = getCostingToUpdate();
+		if(costing != null && quantity > 0) {
+			costing.add(productName, quantity);
+		}
+	}
+
+	@Override
+	public synchronized void addAll(final Map<String, Integer> products) {
+		_basketService.addAll(products);
+		final IncrementalCosting costing = getCostingToUpdate();
+		if(costing != null) {
+			products.forEach((productName, quantity) -> {
+				if(quantity > 0) {
+					costing.add(productName, quantity);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Get the costing to update with products that have just been added to the basket
+	 *
+	 * @return the costing to update, or null if the costing will be rebuilt from the whole basket
+	 */
+	private IncrementalCosting getCostingToUpdate() {
+		if(_costing != null && !_costing.isCurrent(_productCatalogService.getVersion(), _discountService.getPercentageDiscountIndex())) {
+			// Rebuild from the whole basket when next costed
+			_costing = null;
+		}
+		return _costing;
+	}
+
+	@Override
+	public synchronized Basket getCurrentBasket() {
+		return _basketService.getCurrentBasket();
+	}
+
+	@Override
+	public synchronized Costing getCosting() {
+		return getCurrentCosting().getCosting();
+	}
+
+	/**
+	 * Cost a basket other than the current basket.
+	 *
+	 * There is no incremental state for other baskets so the basket is costed in full.
+	 */
+	@Override
+	public Costing getCosting(final Basket basket) {
+		return startCosting(_discountService.getPercentageDiscountIndex(), basket).getCosting();
+	}
+
+	/**
+	 * Cost baskets other than the current basket, one at a time, against the same discounts.
+	 *
+	 * {@link CostingServiceImpl} should be preferred for large batches as it costs them in parallel.
+	 */
+	@Override
+	public List<Costing> getCostings(final Collection<Basket> baskets) {
+		final PercentageDiscountIndex discountIndex = _discountService.getPercentageDiscountIndex();
+		final CompiledDiscounts compiledDiscounts = getCompiledDiscounts(discountIndex);
+		return baskets.stream()
+				.map(basket -> addBasket(new IncrementalCosting(_productCatalogService, discountIndex, compiledDiscounts), basket).getCosting())
+				.collect(Collectors.toList());
+	}
+}
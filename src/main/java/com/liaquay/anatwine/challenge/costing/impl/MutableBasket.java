@@ -96,15 +96,37 @@ public class MutableBasket {
 	/**
 	 * Apply a discount repeatedly until there are no products left for it to apply to.
 	 *
+	 * Rather than applying the discount once at a time, the number of applications is
+	 * worked out in one step as the smallest ratio of available to required quantity
+	 * over the discount's products, so the cost does not depend on the basket quantities.
+	 *
 	 * @param discount The discount to apply
 	 * @return the number of times the discount was applied
 	 */
 	public int applyDiscountExhaustively(
 			final PercentageDiscount discount) {
 
-		int count = 0;
-		while(applyDiscount(discount)) {
-			++count;
+		final Map<String, Integer> requirements = discount.getConditionalAndTargetProducts();
+
+		int count = Integer.MAX_VALUE;
+		for(final Map.Entry<String, Integer> requirement : requirements.entrySet()) {
+			final int requiredQuantity = requirement.getValue();
+			if(requiredQuantity > 0) {
+				final Integer actualQuantity = _productCounts.get(requirement.getKey());
+				count = Math.min(count, actualQuantity == null ? 0 : actualQuantity / requiredQuantity);
+			}
+		}
+
+		if(count > 0) {
+			for(final Map.Entry<String, Integer> requirement : requirements.entrySet()) {
+				final int requiredQuantity = requirement.getValue();
+				if(requiredQuantity > 0) {
+					final String productName = requirement.getKey();
+					_productCounts.put(
+							productName,
+							_productCounts.get(productName) - count * requiredQuantity);
+				}
+			}
 		}
 		return count;
 	}
@@ -128,12 +150,12 @@ public class MutableBasket {
 	 * Calculate the subtotal of the items in the basket given their prices
 	 *
 	 * @param pricedBasketProducts a map of product names to their prices
-	 * @return the subtotal of the basket in GBP
+	 * @return the subtotal of the basket in pence
 	 */
-	public double calculateSubtotal(final Map<String, Product> pricedBasketProducts) {
+	public long calculateSubtotal(final Map<String, Product> pricedBasketProducts) {
 
 		return _productCounts.entrySet().stream()
-				.mapToDouble(productCount -> {
+				.mapToLong(productCount -> {
 					final String productName = productCount.getKey();
 					final int count = productCount.getValue();
 					final Product product = pricedBasketProducts.get(productName);
@@ -0,0 +1,17 @@
+package com.liaquay.anatwine.challenge.customer;
+
+/**
+ * Service identifying the customer on whose behalf the current request is made.
+ *
+ * This allows services such as the basket service to serve many customers
+ * without need for additional method arguments.
+ */
+public interface CustomerService {
+
+	/**
+	 * Get the identity of the current customer
+	 *
+	 * @return the identity of the current customer, e.g. a customer or session id
+	 */
+	public String getCurrentCustomerId();
+}
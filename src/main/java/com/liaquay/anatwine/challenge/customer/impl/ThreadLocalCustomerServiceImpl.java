@@ -0,0 +1,42 @@
+package com.liaquay.anatwine.challenge.customer.impl;
+
+import org.springframework.stereotype.Component;
+
+import com.liaquay.anatwine.challenge.customer.CustomerService;
+
+/**
+ * Customer service where the identity of the current customer is held in thread local storage.
+ *
+ * The thread handling a request sets the customer before calling other services and
+ * clears it when the request is complete.
+ */
+@Component
+public class ThreadLocalCustomerServiceImpl implements CustomerService {
+
+	private final ThreadLocal<String> _customerId = new ThreadLocal<>();
+
+	/**
+	 * Set the customer for requests on the calling thread
+	 *
+	 * @param customerId the identity of the customer
+	 */
+	public void setCurrentCustomerId(final String customerId) {
+		_customerId.set(customerId);
+	}
+
+	/**
+	 * Forget the customer for requests on the calling thread
+	 */
+	public void clearCurrentCustomerId() {
+		_customerId.remove();
+	}
+
+	@Override
+	public String getCurrentCustomerId() {
+		final String customerId = _customerId.get();
+		if(customerId == null) {
+			throw new IllegalStateException("Sorry, no customer has been identified for this request");
+		}
+		return customerId;
+	}
+}
@@ -15,4 +15,13 @@ public interface DiscountService {
 	 * @return a list of current discounts
 	 */
 	public List<PercentageDiscount> getPercentageDiscounts();
+
+	/**
+	 * Get the current percentage discounts indexed by the products they involve.
+	 *
+	 * A new index is returned only when the current discounts change.
+	 *
+	 * @return an index of the current discounts
+	 */
+	public PercentageDiscountIndex getPercentageDiscountIndex();
 }
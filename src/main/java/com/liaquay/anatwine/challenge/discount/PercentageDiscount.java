@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.google.common.base.Objects;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
 
 /**
  * The discount service's model of a percentage discount.
@@ -18,17 +19,26 @@ public class PercentageDiscount {
 	private final String _targetProduct;
 	private final double _percentage;
 
+	/**
+	 * The ids of the conditional and target products and their required quantities
+	 */
+	private final int _targetProductId;
+	private final int[] _requiredProductIds;
+	private final int[] _requiredQuantities;
+
 	/**
 	 * Constructor
 	 *
 	 * @param conditionalProducts a map of conditional products to their required quantities
 	 * @param targetProduct The name of the product to which the discount will be applied
 	 * @param percentage The percentage discount to apply to the target product
+	 * @param dictionary the dictionary assigning ids to the products
 	 */
 	public PercentageDiscount(
 			final Map<String, Integer> conditionalProducts,
 			final String targetProduct,
-			final double percentage) {
+			final double percentage,
+			final ProductDictionary dictionary) {
 
 		// Combine the target and conditional products
 		final Map<String, Integer> conditionalProductsWithTarget = new HashMap<>(conditionalProducts);
@@ -39,6 +49,16 @@ public class PercentageDiscount {
 		_conditionalAndTargetProducts = Collections.unmodifiableMap(conditionalProductsWithTarget);
 		_targetProduct = targetProduct;
 		_percentage = percentage;
+
+		_targetProductId = dictionary.getId(targetProduct);
+		_requiredProductIds = new int[_conditionalAndTargetProducts.size()];
+		_requiredQuantities = new int[_conditionalAndTargetProducts.size()];
+		int i = 0;
+		for(final Map.Entry<String, Integer> product : _conditionalAndTargetProducts.entrySet()) {
+			_requiredProductIds[i] = dictionary.getId(product.getKey());
+			_requiredQuantities[i] = product.getValue();
+			++i;
+		}
 	}
 
 	/**
@@ -61,6 +81,37 @@ public class PercentageDiscount {
 		return _targetProduct;
 	}
 
+	/**
+	 * Get the id of the product to which the discount applies
+	 *
+	 * @return the id in the product dictionary of the product to which the discount applies
+	 */
+	public int getTargetProductId() {
+		return _targetProductId;
+	}
+
+	/**
+	 * Get the ids of the conditional and target products.
+	 *
+	 * The returned array must not be modified.
+	 *
+	 * @return the ids in the product dictionary of the conditional and target products
+	 */
+	public int[] getRequiredProductIds() {
+		return _requiredProductIds;
+	}
+
+	/**
+	 * Get the required quantities of the conditional and target products.
+	 *
+	 * The returned array must not be modified.
+	 *
+	 * @return the required quantities in the same order as {@link #getRequiredProductIds()}
+	 */
+	public int[] getRequiredQuantities() {
+		return _requiredQuantities;
+	}
+
 	/**
 	 * Get the amount of the discount as a percentage
 	 *
@@ -0,0 +1,202 @@
+package com.liaquay.anatwine.challenge.discount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.liaquay.anatwine.challenge.basket.IndexedBasket;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * An immutable list of percentage discounts indexed by the products they involve.
+ *
+ * Each product id (target or conditional) is mapped to the positions in the list of
+ * the discounts that involve it. This allows the discounts that could apply to a basket
+ * to be found without looking at every discount.
+ *
+ * Discounts are always reported in list order as the order discounts are applied is important.
+ */
+public class PercentageDiscountIndex {
+
+	/**
+	 * Shared empty array of discount positions
+	 */
+	private static final int[] NO_DISCOUNTS = new int[0];
+
+	/**
+	 * The discounts in the order they are applied
+	 */
+	private final List<PercentageDiscount> _discounts;
+
+	/**
+	 * The dictionary giving the ids of the products
+	 */
+	private final ProductDictionary _dictionary;
+
+	/**
+	 * The ascending positions of the discounts that involve each product, indexed by product id
+	 */
+	private final int[][] _discountsByProduct;
+
+	/**
+	 * The ids of the products each discount requires, indexed by discount position
+	 */
+	private final int[][] _requiredProducts;
+
+	/**
+	 * Constructor
+	 *
+	 * @param discounts the discounts to index, in the order they are applied
+	 * @param dictionary the dictionary that gave the discounts their product ids
+	 */
+	public PercentageDiscountIndex(final List<PercentageDiscount> discounts, final ProductDictionary dictionary) {
+
+		_discounts = ImmutableList.copyOf(discounts);
+		_dictionary = dictionary;
+		_requiredProducts = new int[_discounts.size()][];
+
+		int productCount = 0;
+		for(final PercentageDiscount discount : _discounts) {
+			for(final int productId : discount.getRequiredProductIds()) {
+				productCount = Math.max(productCount, productId + 1);
+			}
+		}
+
+		final List<List<Integer>> discountsByProduct = new ArrayList<>(Collections.nCopies(productCount, null));
+		for(int position = 0; position < _discounts.size(); ++position) {
+			final PercentageDiscount discount = _discounts.get(position);
+			final int[] productIds = discount.getRequiredProductIds();
+			final int[] quantities = discount.getRequiredQuantities();
+			final List<Integer> requiredProducts = new ArrayList<>();
+			for(int requirement = 0; requirement < productIds.length; ++requirement) {
+				final int productId = productIds[requirement];
+				if(discountsByProduct.get(productId) == null) {
+					discountsByProduct.set(productId, new ArrayList<>());
+				}
+				discountsByProduct.get(productId).add(position);
+				if(quantities[requirement] > 0) {
+					requiredProducts.add(productId);
+				}
+			}
+			_requiredProducts[position] = Ints.toArray(requiredProducts);
+		}
+
+		_discountsByProduct = new int[productCount][];
+		for(int productId = 0; productId < productCount; ++productId) {
+			final List<Integer> positions = discountsByProduct.get(productId);
+			_discountsByProduct[productId] = positions == null ? NO_DISCOUNTS : Ints.toArray(positions);
+		}
+	}
+
+	/**
+	 * Get all of the discounts in the order they are applied
+	 *
+	 * @return all of the discounts in the order they are applied
+	 */
+	public List<PercentageDiscount> getDiscounts() {
+		return _discounts;
+	}
+
+	/**
+	 * Get the dictionary giving the ids of the products
+	 *
+	 * @return the dictionary that gave the discounts their product ids
+	 */
+	public ProductDictionary getDictionary() {
+		return _dictionary;
+	}
+
+	/**
+	 * Get the positions of the discounts that involve a product either as the target or a condition.
+	 *
+	 * The returned array must not be modified.
+	 *
+	 * @param productId the id of the product in the product dictionary
+	 * @return the ascending positions of the discounts in {@link #getDiscounts()} that involve the product
+	 */
+	public int[] getDiscountPositionsInvolving(final int productId) {
+		return productId >= 0 && productId < _discountsByProduct.length ? _discountsByProduct[productId] : NO_DISCOUNTS;
+	}
+
+	/**
+	 * Get the positions of the discounts that involve a product either as the target or a condition.
+	 *
+	 * The returned array must not be modified.
+	 *
+	 * @param productName the name of the product
+	 * @return the ascending positions of the discounts in {@link #getDiscounts()} that involve the product
+	 */
+	public int[] getDiscountPositionsInvolving(final String productName) {
+		return getDiscountPositionsInvolving(_dictionary.findId(productName));
+	}
+
+	/**
+	 * Get the positions of the discounts whose required products are all in a basket.
+	 *
+	 * Only the presence of products is considered, not their quantities.
+	 *
+	 * @param basket a basket keyed by product id
+	 * @return the ascending positions of the discounts in {@link #getDiscounts()} that could apply
+	 */
+	public int[] getApplicableDiscountPositions(final IndexedBasket basket) {
+
+		int[] applicable = NO_DISCOUNTS;
+		int applicableCount = 0;
+
+		for(final int productId : basket.getProductIds()) {
+			for(final int position : getDiscountPositionsInvolving(productId)) {
+				final int[] requiredProducts = _requiredProducts[position];
+				// Only consider each discount from its first required product so it is counted once
+				if(requiredProducts.length > 0 && requiredProducts[0] == productId && containsAll(basket, requiredProducts)) {
+					if(applicableCount == applicable.length) {
+						applicable = Arrays.copyOf(applicable, Math.max(4, applicableCount * 2));
+					}
+					applicable[applicableCount++] = position;
+				}
+			}
+		}
+
+		final int[] positions = Arrays.copyOf(applicable, applicableCount);
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	/**
+	 * Get the discounts whose required products are all among the given products.
+	 *
+	 * @param productNames the names of the products in a basket
+	 * @return the discounts that could apply, in the order they are applied
+	 */
+	public List<PercentageDiscount> getApplicableDiscounts(final Set<String> productNames) {
+		final Map<String, Integer> products = new HashMap<>();
+		productNames.forEach(productName -> products.put(productName, 1));
+		final int[] positions = getApplicableDiscountPositions(new IndexedBasket(products, _dictionary));
+		final List<PercentageDiscount> discounts = new ArrayList<>(positions.length);
+		for(final int position : positions) {
+			discounts.add(_discounts.get(position));
+		}
+		return discounts;
+	}
+
+	/**
+	 * Check that all of the required products are present
+	 *
+	 * @param basket a basket keyed by product id
+	 * @param requiredProducts the ids of the products required
+	 * @return true if all of the required products are present
+	 */
+	private static boolean containsAll(final IndexedBasket basket, final int[] requiredProducts) {
+		for(final int requiredProduct : requiredProducts) {
+			if(!basket.contains(requiredProduct)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,11 +1,17 @@
 package com.liaquay.anatwine.challenge.discount.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -16,13 +22,26 @@ import com.fasterxml.jackson.databind.ObjectReader;
 import com.liaquay.anatwine.challenge.clock.ClockService;
 import com.liaquay.anatwine.challenge.discount.DiscountService;
 import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+import com.liaquay.anatwine.challenge.util.FileWatcher;
 
 /**
  * Simple immutable implementation of the discount service read from the resource file
- * discounts.json
+ * discounts.json, or from the file named by the system property anatwine.discounts.path
+ * which is reloaded whenever it changes.
+ *
+ * Each load is read and checked in full before it replaces the current discounts, together
+ * with the index of those that apply, in a single step. A costing fetches the index once so
+ * sees one whole set of discounts, and requests never wait for a reload.
  */
 @Component
-public class DiscountServiceImpl implements DiscountService {
+public class DiscountServiceImpl implements DiscountService, Closeable {
+
+	/**
+	 * The system property naming a discounts file to read and watch instead of the resource file
+	 */
+	public static final String DISCOUNTS_PATH_PROPERTY = "anatwine.discounts.path";
 
 	/**
 	 * Keep an object mapper as these are slow to create but are thread safe
@@ -39,41 +58,277 @@ public class DiscountServiceImpl implements DiscountService {
 	 */
 	private final ClockService _clockService;
 
+	/**
+	 * The dictionary assigning ids to the products in the discounts
+	 */
+	private final ProductDictionary _dictionary;
+
 	@Autowired
-	public DiscountServiceImpl(final ClockService clockService) {
+	public DiscountServiceImpl(final ClockService clockService, final ProductDictionary dictionary) {
 		_clockService = clockService;
+		_dictionary = dictionary;
+	}
+
+	/**
+	 * The discounts loaded and those active over the span of time containing the most recent
+	 * request, lazily initialised and replaced as a whole
+	 */
+	private final AtomicReference<ActiveDiscounts> _active = new AtomicReference<>();
+
+	/**
+	 * Held while loading for the first time and while replacing the discounts
+	 */
+	private final Object _loadLock = new Object();
+
+	/**
+	 * Watches the discounts file, or null if the discounts are not being reloaded
+	 */
+	private FileWatcher _watcher = null;
+
+	/**
+	 * The discounts loaded with the times at which each starts and stops applying.
+	 *
+	 * A discount applies strictly between its valid from and valid to times, so the set of
+	 * discounts applying changes only at those times. They are sorted into a list of
+	 * boundaries, between any two of which the same discounts apply.
+	 */
+	private static final class Schedule {
+
+		final ProductDictionary _dictionary;
+		final PercentageDiscount[] _discounts;
+		final long[] _validFrom;
+		final long[] _validTo;
+
+		/**
+		 * The distinct times at which a discount starts or stops applying, in order
+		 */
+		final long[] _boundaries;
+
+		/**
+		 * Constructor which checks the discounts
+		 *
+		 * @param persistentDiscounts the discounts with their applicable dates
+		 * @param dictionary the dictionary assigning ids to the products in the discounts
+		 * @throws IllegalArgumentException if a discount is incomplete or makes no sense
+		 */
+		Schedule(final List<PersistentPercentageDiscount> persistentDiscounts, final ProductDictionary dictionary) {
+			_dictionary = dictionary;
+			final int count = persistentDiscounts.size();
+			_discounts = new PercentageDiscount[count];
+			_validFrom = new long[count];
+			_validTo = new long[count];
+			final long[] boundaries = new long[2 * count];
+			for(int i = 0; i < count; ++i) {
+				final PersistentPercentageDiscount discount = persistentDiscounts.get(i);
+				validate(discount, i);
+				// Converted to the discount service model once rather than on every request
+				_discounts[i] = new PercentageDiscount(
+						discount.getConditionalProducts() == null ? Collections.emptyMap() : discount.getConditionalProducts(),
+						discount.getTargetProduct(),
+						discount.getPercentage(),
+						dictionary);
+				_validFrom[i] = discount.getValidFrom().getTime();
+				_validTo[i] = discount.getValidTo().getTime();
+				boundaries[2 * i] = _validFrom[i];
+				boundaries[2 * i + 1] = _validTo[i];
+			}
+			_boundaries = Arrays.stream(boundaries).sorted().distinct().toArray();
+		}
+
+		/**
+		 * Check a discount is complete and makes sense
+		 *
+		 * @param discount the discount
+		 * @param position the position of the discount in the file, for reporting
+		 * @throws IllegalArgumentException if the discount is incomplete or makes no sense
+		 */
+		private static void validate(final PersistentPercentageDiscount discount, final int position) {
+			if(discount == null) {
+				throw new IllegalArgumentException("Sorry, discount " + position + " is empty");
+			}
+			if(discount.getTargetProduct() == null || discount.getTargetProduct().isEmpty()) {
+				throw new IllegalArgumentException("Sorry, discount " + position + " has no target product");
+			}
+			if(discount.getValidFrom() == null || discount.getValidTo() == null) {
+				throw new IllegalArgumentException("Sorry, the discount on " + discount.getTargetProduct() + " has no valid from or valid to date");
+			}
+			if(!discount.getValidFrom().before(discount.getValidTo())) {
+				throw new IllegalArgumentException("Sorry, the discount on " + discount.getTargetProduct() + " is valid to before it is valid from");
+			}
+			if(!(discount.getPercentage() > 0 && discount.getPercentage() <= 100)) {
+				throw new IllegalArgumentException("Sorry, the discount on " + discount.getTargetProduct() + " of " + discount.getPercentage() + "% is not a percentage");
+			}
+			if(discount.getConditionalProducts() != null) {
+				for(final Map.Entry<String, Integer> product : discount.getConditionalProducts().entrySet()) {
+					if(product.getValue() == null || product.getValue() <= 0) {
+						throw new IllegalArgumentException("Sorry, the discount on " + discount.getTargetProduct() + " needs " + product.getValue() + " of " + product.getKey());
+					}
+				}
+			}
+		}
+
+		/**
+		 * Get the discounts that apply at a time, in the order they were loaded
+		 *
+		 * @param now the time in milliseconds
+		 * @return the discounts that apply
+		 */
+		List<PercentageDiscount> getDiscountsAt(final long now) {
+			final List<PercentageDiscount> discounts = new ArrayList<>();
+			for(int i = 0; i < _discounts.length; ++i) {
+				if(_validFrom[i] < now && _validTo[i] > now) {
+					discounts.add(_discounts[i]);
+				}
+			}
+			return discounts;
+		}
 	}
 
 	/**
-	 * A list of the discounts with their applicable dates
+	 * The index of the discounts that apply over a span of time
 	 */
-	private List<PersistentPercentageDiscount> _persistentDiscounts;
+	private static final class ActiveDiscounts {
+
+		final Schedule _schedule;
+
+		/**
+		 * The first and last milliseconds of the span, inclusive
+		 */
+		final long _from;
+		final long _to;
+
+		final PercentageDiscountIndex _index;
+
+		/**
+		 * Constructor
+		 *
+		 * @param schedule the discounts from which the active discounts were chosen
+		 * @param from the first millisecond of the span
+		 * @param to the last millisecond of the span
+		 * @param index an index of the discounts that apply over the span
+		 */
+		ActiveDiscounts(
+				final Schedule schedule,
+				final long from,
+				final long to,
+				final PercentageDiscountIndex index) {
+			_schedule = schedule;
+			_from = from;
+			_to = to;
+			_index = index;
+		}
+
+		/**
+		 * Check whether these are the discounts that apply at a time
+		 *
+		 * @param now the time in milliseconds
+		 * @return true if these discounts apply
+		 */
+		boolean covers(final long now) {
+			return now >= _from && now <= _to;
+		}
+	}
 
 	/**
 	 *	Load the discounts from the stream
 	 *
 	 * 	@param is the stream from which to load the discounts
+	 * 	@throws IllegalArgumentException if a discount is incomplete or makes no sense
 	 */
 	public void load(final InputStream is) {
+		final List<PersistentPercentageDiscount> persistentDiscounts;
 		try {
-			_persistentDiscounts = READER.readValue(is);
+			persistentDiscounts = READER.readValue(is);
 		}
 		catch (final IOException e) {
 			// Need to know what we are supposed to do if we cannot read the discounts
 			throw new RuntimeException("Sorry, could not read product discounts", e);
 		}
+		// Checked, and the discounts that apply now indexed, on the loading thread before taking
+		// the lock, so requests never build the index for a reload and only the publication is serialised
+		final Schedule schedule = new Schedule(persistentDiscounts, _dictionary);
+		final ActiveDiscounts active = activate(schedule, _clockService.currentTimeMillis(), _active.get());
+
+		// Published under the lock so a first load from file in progress cannot replace these discounts
+		synchronized(_loadLock) {
+			_active.set(active);
+		}
 	}
 
 	/**
-	 * Get an instance of the product discounts loading them from file if necessary
+	 * Load the discounts from a file
 	 *
-	 * @return the product discounts
+	 * @param path the file from which to load the discounts
 	 */
-	private List<PersistentPercentageDiscount> getDiscounts() {
-		if(_persistentDiscounts == null) {
-			load(this.getClass().getClassLoader().getResourceAsStream("discounts.json"));
+	public void load(final Path path) {
+		try (final InputStream is = Files.newInputStream(path)) {
+			load(is);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Sorry, could not read product discounts " + path, e);
+		}
+	}
+
+	/**
+	 * Load the discounts from a file and reload them whenever the file changes.
+	 *
+	 * Reloading happens on the watcher's thread. If the changed file cannot be read, or
+	 * any discount in it is invalid, the current discounts are kept.
+	 *
+	 * @param path the file from which to load the discounts
+	 */
+	public void watch(final Path path) {
+		load(path);
+		synchronized(_loadLock) {
+			if(_watcher != null) {
+				throw new IllegalStateException("Sorry, the discount service is already watching " + _watcher.getFile());
+			}
+			try {
+				_watcher = new FileWatcher(path, this::load);
+			}
+			catch (final IOException e) {
+				throw new RuntimeException("Sorry, could not watch product discounts " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * Stop reloading the discounts
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(_loadLock) {
+			if(_watcher != null) {
+				_watcher.close();
+				_watcher = null;
+			}
+		}
+	}
+
+	/**
+	 * Get the current discounts loading them from file if necessary.
+	 *
+	 * Only the first caller loads the discounts; any others arriving at the same time wait for them.
+	 *
+	 * @return the current discounts
+	 */
+	private ActiveDiscounts getActive() {
+		final ActiveDiscounts active = _active.get();
+		if(active != null) {
+			return active;
+		}
+		synchronized(_loadLock) {
+			if(_active.get() == null) {
+				final String path = System.getProperty(DISCOUNTS_PATH_PROPERTY);
+				if(path == null) {
+					load(this.getClass().getClassLoader().getResourceAsStream("discounts.json"));
+				}
+				else {
+					watch(Paths.get(path));
+				}
+			}
+			return _active.get();
 		}
-		return _persistentDiscounts;
 	}
 
 	/**
@@ -81,23 +336,59 @@ public class DiscountServiceImpl implements DiscountService {
 	 */
 	@Override
 	public List<PercentageDiscount> getPercentageDiscounts() {
-		// Get the current date from out clock service
-		final Date now = _clockService.now();
-
-		return getDiscounts().stream()
-				// filter the discounts by date
-				.filter(discount -> {
-					return discount.getValidFrom().before(now) &&
-							discount.getValidTo().after(now);
-				})
-				// Convert to the Discount service model
-				.map(discount -> {
-					return new PercentageDiscount(
-							discount.getConditionalProducts(),
-							discount.getTargetProduct(),
-							discount.getPercentage());
-				})
-				// Return as a list
-				.collect(Collectors.toList());
+		return getPercentageDiscountIndex().getDiscounts();
+	}
+
+	/**
+	 * Get an index of the discounts filtered by date range.
+	 *
+	 * The discounts that apply are worked out only when the clock crosses a time at which
+	 * a discount starts or stops applying, and the index is rebuilt only if they differ.
+	 * Between those times the published index is returned as it is.
+	 */
+	@Override
+	public PercentageDiscountIndex getPercentageDiscountIndex() {
+		final long now = _clockService.currentTimeMillis();
+		ActiveDiscounts active = getActive();
+		while(!active.covers(now)) {
+			final ActiveDiscounts next = activate(active._schedule, now, active);
+			// A reload published meanwhile wins, and is checked against the time in turn
+			if(_active.compareAndSet(active, next)) {
+				return next._index;
+			}
+			active = _active.get();
+		}
+		return active._index;
+	}
+
+	/**
+	 * Work out the discounts that apply over the span of time containing a time
+	 *
+	 * @param schedule the discounts loaded
+	 * @param now the time in milliseconds
+	 * @param previous the discounts that applied before, whose index is reused if the same discounts apply, or null
+	 * @return the discounts that apply
+	 */
+	private static ActiveDiscounts activate(final Schedule schedule, final long now, final ActiveDiscounts previous) {
+		final long[] boundaries = schedule._boundaries;
+		final int position = Arrays.binarySearch(boundaries, now);
+		final long from;
+		final long to;
+		if(position >= 0) {
+			// No discount applies at the very time it starts or stops, so a boundary is a span of its own
+			from = now;
+			to = now;
+		}
+		else {
+			final int next = -position - 1;
+			from = next == 0 ? Long.MIN_VALUE : boundaries[next - 1] + 1;
+			to = next == boundaries.length ? Long.MAX_VALUE : boundaries[next] - 1;
+		}
+
+		final List<PercentageDiscount> discounts = schedule.getDiscountsAt(now);
+		final PercentageDiscountIndex index = previous != null && previous._index.getDiscounts().equals(discounts)
+				? previous._index
+				: new PercentageDiscountIndex(discounts, schedule._dictionary);
+		return new ActiveDiscounts(schedule, from, to, index);
 	}
 }
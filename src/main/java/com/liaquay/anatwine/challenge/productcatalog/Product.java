@@ -1,5 +1,7 @@
 package com.liaquay.anatwine.challenge.productcatalog;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.google.common.base.Objects;
 import com.liaquay.anatwine.challenge.util.CurrencyFormatter;
 
@@ -8,26 +10,56 @@ import com.liaquay.anatwine.challenge.util.CurrencyFormatter;
  */
 public class Product {
 
+	/**
+	 * The most unavailable products kept for reuse
+	 */
+	private static final int MAX_UNAVAILABLE_PRODUCTS = 4096;
+
+	/**
+	 * Unavailable products kept for reuse, as products are immutable
+	 */
+	private static final ConcurrentHashMap<String, Product> UNAVAILABLE_PRODUCTS = new ConcurrentHashMap<>();
+
 	private final String _name;
-	private final double _price;
+	private final long _price;
 	private final ProductStatus _status;
 
 	/**
 	 * Construct a product
 	 *
 	 * @param name The name of the product (e.g. Tie, Shirt)
-	 * @param price The price of the product in GBP
+	 * @param price The price of the product in pence
 	 * @param status The availability status of the product
 	 */
 	public Product(
 			final String name,
-			final double price,
+			final long price,
 			final ProductStatus status) {
 		_name = name;
 		_price = price;
 		_status = status;
 	}
 
+	/**
+	 * Get a product that is not in the catalog.
+	 *
+	 * Baskets often hold the same unknown products so these are shared rather than
+	 * created for every lookup. The number shared is limited as the names come from customers.
+	 *
+	 * @param name The name of the product
+	 * @return an unavailable product with no price
+	 */
+	public static Product unavailable(final String name) {
+		final Product product = UNAVAILABLE_PRODUCTS.get(name);
+		if(product != null) {
+			return product;
+		}
+		if(UNAVAILABLE_PRODUCTS.size() >= MAX_UNAVAILABLE_PRODUCTS) {
+			return new Product(name, 0, ProductStatus.Unavailable);
+		}
+		return UNAVAILABLE_PRODUCTS.computeIfAbsent(name, productName -> new Product(productName, 0, ProductStatus.Unavailable));
+	}
+
 	/**
 	 * Get the name of the product (e.g. Tie, Shirt)
 	 *
@@ -38,11 +70,11 @@ public class Product {
 	}
 
 	/**
-	 * Get the price of the product in GBP
+	 * Get the price of the product in pence
 	 *
-	 * @return The price of the product in GBP
+	 * @return The price of the product in pence
 	 */
-	public double getPrice() {
+	public long getPrice() {
 		return _price;
 	}
 
@@ -1,5 +1,9 @@
 package com.liaquay.anatwine.challenge.productcatalog;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Interface to the product catalog service.
  *
@@ -15,4 +19,32 @@ public interface ProductCatalogService {
 	 * @return the product price and availability
 	 */
 	public Product getProductByName(final String name);
+
+	/**
+	 * Fetch many products at once.
+	 *
+	 * Implementations backed by a remote store should override this to fetch the
+	 * products in a single request.
+	 *
+	 * @param names the names of the products
+	 *
+	 * @return a map of product names to price and availability, in the order the names were given
+	 */
+	public default Map<String, Product> getProductsByNames(final Collection<String> names) {
+		final Map<String, Product> products = new LinkedHashMap<>();
+		for(final String name : names) {
+			products.put(name, getProductByName(name));
+		}
+		return products;
+	}
+
+	/**
+	 * Get the version of the catalog data.
+	 *
+	 * The version changes whenever the products or their prices change, allowing
+	 * results derived from the catalog to be reused until then.
+	 *
+	 * @return the version of the catalog data
+	 */
+	public long getVersion();
 }
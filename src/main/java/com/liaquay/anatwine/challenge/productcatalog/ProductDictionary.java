@@ -0,0 +1,102 @@
+package com.liaquay.anatwine.challenge.productcatalog;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * A dictionary assigning each product name a small, dense integer id.
+ *
+ * Ids are assigned when discounts and catalogs are loaded, and never change. The costing
+ * of a basket can then count and look up products in arrays indexed by id rather than
+ * hashing and comparing names. Names are only needed again when reporting.
+ *
+ * Ids are never freed, so names from customers' baskets are only ever looked up
+ * (see {@link #findId(String)}); a product no discount or catalog knows has no id.
+ *
+ * Product names mean the same thing to every service so a single dictionary
+ * is shared by the whole application, injected where it is needed.
+ *
+ * This class is thread safe. Looking up an id or a name does not lock.
+ */
+@Component
+public class ProductDictionary {
+
+	/**
+	 * Product names mapped to their id
+	 */
+	private final ConcurrentHashMap<String, Integer> _ids = new ConcurrentHashMap<>();
+
+	/**
+	 * Product names indexed by id, replaced with a larger copy as names are added
+	 */
+	private volatile String[] _names = new String[16];
+
+	/**
+	 * Get the id of a product, assigning one if the product has not been seen before.
+	 *
+	 * Only for products from trusted sources such as discounts and catalogs.
+	 *
+	 * @param productName the name of the product
+	 * @return the id of the product
+	 */
+	public int getId(final String productName) {
+		final Integer id = _ids.get(productName);
+		return id == null ? assignId(productName) : id;
+	}
+
+	/**
+	 * Get the id of a product without assigning one
+	 *
+	 * @param productName the name of the product
+	 * @return the id of the product or -1 if the product has not been seen before
+	 */
+	public int findId(final String productName) {
+		final Integer id = _ids.get(productName);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Get the name of a product
+	 *
+	 * @param productId the id of the product
+	 * @return the name of the product
+	 */
+	public String getName(final int productId) {
+		return _names[productId];
+	}
+
+	/**
+	 * Get the number of ids assigned so far
+	 *
+	 * @return one more than the largest id assigned so far
+	 */
+	public int size() {
+		return _ids.size();
+	}
+
+	/**
+	 * Assign the next id to a product.
+	 *
+	 * The name is published before the id so any thread that can see an id can see its name.
+	 *
+	 * @param productName the name of the product
+	 * @return the id of the product
+	 */
+	private synchronized int assignId(final String productName) {
+		final Integer existingId = _ids.get(productName);
+		if(existingId != null) {
+			return existingId;
+		}
+		final int id = _ids.size();
+		String[] names = _names;
+		if(id == names.length) {
+			names = Arrays.copyOf(names, names.length * 2);
+		}
+		names[id] = productName;
+		_names = names;
+		_ids.put(productName, id);
+		return id;
+	}
+}
@@ -3,7 +3,9 @@ package com.liaquay.anatwine.challenge.productcatalog;
 /**
  * A simple concept of product status with just 2 states.
  *
- * In a richer implementation we might want to be considering stock levels, delivery lead time etc.
+ * Stock levels are counted separately by the {@link StockService}, so a product available
+ * for sale may still be short of units. In a richer implementation we might want to be
+ * considering delivery lead time etc.
  */
 public enum ProductStatus {
 	/**
@@ -0,0 +1,144 @@
+package com.liaquay.anatwine.challenge.productcatalog;
+
+import java.util.Arrays;
+
+/**
+ * A compact, read only table of product names and prices for large catalogs.
+ *
+ * Names and prices are held in two parallel columns, with prices as primitive pence, and
+ * found through an open-addressing index of positions in those columns. A catalog of
+ * millions of products therefore costs little more than its names, without the entry,
+ * boxed price and product objects of a hash map of products.
+ *
+ * A {@link Product} is only made the first time a product is looked up and is then
+ * kept, so later lookups of the same product return the same instance.
+ *
+ * This class is thread safe once constructed. Racing lookups of a new product may each
+ * make a product but products are immutable so any will do.
+ */
+public class ProductTable {
+
+	/**
+	 * An empty slot in the index
+	 */
+	private static final int EMPTY = -1;
+
+	private final String[] _names;
+	private final long[] _prices;
+	private final Product[] _products;
+
+	/**
+	 * Open-addressing index of positions in the columns, with a power of two length
+	 */
+	private final int[] _index;
+
+	/**
+	 * Constructor which takes the columns as they are, dropping all but the last price of any product listed more than once
+	 *
+	 * @param names the names of the products, which may be longer than the number of products
+	 * @param prices the prices of the products in pence, which may be longer than the number of products
+	 * @param size the number of products
+	 */
+	public ProductTable(final String[] names, final long[] prices, final int size) {
+		// Keep the index at most two thirds full so probes stay short
+		_index = new int[Integer.highestOneBit(Math.max(size + size / 2, 2) - 1) << 1];
+		Arrays.fill(_index, EMPTY);
+
+		int count = 0;
+		for(int i = 0; i < size; ++i) {
+			final int slot = findSlot(names, names[i]);
+			if(_index[slot] == EMPTY) {
+				names[count] = names[i];
+				prices[count] = prices[i];
+				_index[slot] = count++;
+			}
+			else {
+				prices[_index[slot]] = prices[i];
+			}
+		}
+
+		_names = count == names.length ? names : Arrays.copyOf(names, count);
+		_prices = count == prices.length ? prices : Arrays.copyOf(prices, count);
+		_products = new Product[count];
+	}
+
+	/**
+	 * Get the number of products
+	 *
+	 * @return the number of products
+	 */
+	public int size() {
+		return _names.length;
+	}
+
+	/**
+	 * Find the position of a product
+	 *
+	 * @param name the name of the product
+	 * @return the position of the product or -1 if it is not in the table
+	 */
+	public int indexOf(final String name) {
+		return _index[findSlot(_names, name)];
+	}
+
+	/**
+	 * Get the name of the product at a position
+	 *
+	 * @param index the position of the product
+	 * @return the name of the product
+	 */
+	public String getName(final int index) {
+		return _names[index];
+	}
+
+	/**
+	 * Get the price of the product at a position
+	 *
+	 * @param index the position of the product
+	 * @return the price of the product in pence
+	 */
+	public long getPrice(final int index) {
+		return _prices[index];
+	}
+
+	/**
+	 * Get a product by name
+	 *
+	 * @param name the name of the product
+	 * @return the available product or null if it is not in the table
+	 */
+	public Product getProduct(final String name) {
+		final int index = indexOf(name);
+		if(index == EMPTY) {
+			return null;
+		}
+		final Product product = _products[index];
+		if(product != null) {
+			return product;
+		}
+		final Product created = new Product(_names[index], _prices[index], ProductStatus.Available);
+		_products[index] = created;
+		return created;
+	}
+
+	/**
+	 * Find the slot in the index holding a name, or the empty slot where it would go
+	 *
+	 * @param names the column of names the index refers to
+	 * @param name the name to find
+	 * @return the slot
+	 */
+	private int findSlot(final String[] names, final String name) {
+		final int mask = _index.length - 1;
+		// Spread the high bits of the hash, which strings often differ in, into the low bits
+		final int hash = name.hashCode();
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while(true) {
+			final int index = _index[slot];
+			if(index == EMPTY || names[index].equals(name)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.liaquay.anatwine.challenge.productcatalog;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.basket.Basket;
+
+/**
+ * The stock service's answer to a request for the products in a basket.
+ *
+ * An allocation splits the basket into the units that can be supplied and the units that
+ * are short. An allocation made by {@link StockService#reserve(Basket)} holds the units it
+ * can supply until it is released or committed, which may happen only once. Only the units
+ * of products whose stock was counted when they were reserved are held; the rest are
+ * supplied without holding anything, so nothing is given back for them.
+ */
+public class StockAllocation {
+
+	private final Basket _allocated;
+	private final Map<String, Integer> _shortfalls;
+	private final Map<String, Integer> _reserved;
+	private final boolean _reservation;
+
+	/**
+	 * Set once a reservation has been released or committed
+	 */
+	private final AtomicBoolean _settled = new AtomicBoolean();
+
+	/**
+	 * Constructor
+	 *
+	 * @param allocated the basket of units that can be supplied
+	 * @param shortfalls the names of products mapped to the number of units that cannot be supplied
+	 * @param reserved the names of products mapped to the number of units held against their stock
+	 * @param reservation true if the allocated units are held for the customer
+	 */
+	public StockAllocation(
+			final Basket allocated,
+			final Map<String, Integer> shortfalls,
+			final Map<String, Integer> reserved,
+			final boolean reservation) {
+		_allocated = allocated;
+		_shortfalls = ImmutableMap.copyOf(shortfalls);
+		_reserved = ImmutableMap.copyOf(reserved);
+		_reservation = reservation;
+	}
+
+	/**
+	 * Get the basket of units that can be supplied
+	 *
+	 * @return the basket of units that can be supplied
+	 */
+	public Basket getAllocated() {
+		return _allocated;
+	}
+
+	/**
+	 * Get the names of products mapped to the number of units that cannot be supplied
+	 *
+	 * @return the names of products mapped to the number of units short
+	 */
+	public Map<String, Integer> getShortfalls() {
+		return _shortfalls;
+	}
+
+	/**
+	 * Get the names of products mapped to the number of units held against their stock,
+	 * which are the units given back when the reservation is released or committed
+	 *
+	 * @return the names of products mapped to the number of units held
+	 */
+	public Map<String, Integer> getReserved() {
+		return _reserved;
+	}
+
+	/**
+	 * Check whether every unit asked for can be supplied
+	 *
+	 * @return true if nothing is short
+	 */
+	public boolean isComplete() {
+		return _shortfalls.isEmpty();
+	}
+
+	/**
+	 * Check whether the allocated units are held for the customer
+	 *
+	 * @return true if this allocation is a reservation
+	 */
+	public boolean isReservation() {
+		return _reservation;
+	}
+
+	/**
+	 * Mark a reservation as released or committed.
+	 *
+	 * Called by stock services so the units held are given up only once.
+	 *
+	 * @return true if the reservation had not already been settled
+	 */
+	public boolean settle() {
+		if(!_reservation) {
+			throw new IllegalStateException("Sorry, only a reservation can be released or committed");
+		}
+		return _settled.compareAndSet(false, true);
+	}
+}
@@ -0,0 +1,45 @@
+package com.liaquay.anatwine.challenge.productcatalog;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+
+/**
+ * A service keeping count of the units of each product on hand and reserved for customers.
+ *
+ * The catalog says whether a product is for sale at all; the stock service says how many
+ * units of it can be supplied. A whole basket is checked or reserved in one call, each
+ * product getting as many of the units asked for as are available.
+ */
+public interface StockService {
+
+	/**
+	 * Check how much of a basket could be supplied now, without holding any stock
+	 *
+	 * @param basket the basket to check
+	 * @return the units that could be supplied and the units short
+	 */
+	StockAllocation getAvailability(Basket basket);
+
+	/**
+	 * Reserve as much of a basket as can be supplied.
+	 *
+	 * The reserved units are held until the reservation is released or committed.
+	 *
+	 * @param basket the basket to reserve
+	 * @return the reservation, with the units reserved and the units short
+	 */
+	StockAllocation reserve(Basket basket);
+
+	/**
+	 * Return the units held by a reservation to stock, e.g. when a basket is abandoned
+	 *
+	 * @param reservation a reservation from {@link #reserve(Basket)}
+	 */
+	void release(StockAllocation reservation);
+
+	/**
+	 * Take the units held by a reservation out of stock, e.g. when an order is placed
+	 *
+	 * @param reservation a reservation from {@link #reserve(Basket)}
+	 */
+	void commit(StockAllocation reservation);
+}
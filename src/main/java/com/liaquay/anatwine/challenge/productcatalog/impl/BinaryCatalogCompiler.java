@@ -0,0 +1,230 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import com.liaquay.anatwine.challenge.productcatalog.ProductTable;
+
+/**
+ * Compiles a JSON product catalog into a binary catalog file (see {@link BinaryCatalogFormat})
+ * to be memory-mapped by {@link ProductCatalogServiceMappedFileImpl}.
+ *
+ * Run as a build step with the JSON file and the binary file to write, e.g.
+ *
+ * java ... BinaryCatalogCompiler products.json products.cat
+ *
+ * The perfect hash is built by grouping names into buckets by one hash and, starting with
+ * the largest bucket, searching for a seed that hashes every name in the bucket to a slot
+ * not yet taken. Buckets holding a single name are simply given one of the free slots left.
+ */
+public class BinaryCatalogCompiler {
+
+	/**
+	 * The most seeds tried for a bucket before giving up
+	 */
+	private static final int MAX_SEED = 1 << 24;
+
+	public static void main(final String[] args) throws IOException {
+		if(args.length != 2) {
+			System.err.println("Usage: BinaryCatalogCompiler <products.json> <catalog file>");
+			System.exit(1);
+		}
+		try (final InputStream is = Files.newInputStream(Paths.get(args[0]))) {
+			compile(is, Paths.get(args[1]));
+		}
+	}
+
+	/**
+	 * Compile a JSON product catalog into a binary catalog file.
+	 *
+	 * The file is written in full alongside the destination, synced and then moved into
+	 * place, so a node mapping the catalog never sees a partly written file, even after a crash.
+	 *
+	 * @param json the JSON product catalog
+	 * @param output the binary catalog file to write
+	 * @throws IOException if the catalog could not be read or written
+	 */
+	public static void compile(final InputStream json, final Path output) throws IOException {
+		final ProductTable products = ProductCatalogServiceJsonFileImpl.read(json);
+		final int[] slotProducts = buildPerfectHash(products);
+
+		final int productCount = products.size();
+		final int bucketCount = getBucketCount(productCount);
+
+		final Path temporaryPath = output.resolveSibling(output.getFileName() + ".tmp");
+		try (final FileOutputStream file = new FileOutputStream(temporaryPath.toFile())) {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			out.writeInt(BinaryCatalogFormat.MAGIC);
+			out.writeInt(BinaryCatalogFormat.FORMAT_VERSION);
+			out.writeInt(productCount);
+			out.writeInt(bucketCount);
+			for(int bucket = 0; bucket < bucketCount; ++bucket) {
+				out.writeInt(slotProducts[productCount + bucket]);
+			}
+
+			// Records follow the slots, in slot order
+			long recordOffset = BinaryCatalogFormat.HEADER_SIZE + 4L * bucketCount + 4L * productCount;
+			for(int slot = 0; slot < productCount; ++slot) {
+				if(recordOffset > Integer.MAX_VALUE) {
+					throw new IOException("Sorry, the product catalog is too large for a binary catalog file");
+				}
+				out.writeInt((int)recordOffset);
+				recordOffset += BinaryCatalogFormat.RECORD_HEADER_SIZE + getEncodedName(products, slotProducts[slot]).length;
+			}
+
+			for(int slot = 0; slot < productCount; ++slot) {
+				final byte[] name = getEncodedName(products, slotProducts[slot]);
+				out.writeLong(products.getPrice(slotProducts[slot]));
+				out.writeShort(name.length);
+				out.write(name);
+			}
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(temporaryPath, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Get the number of buckets used for a number of products
+	 *
+	 * @param productCount the number of products
+	 * @return the number of buckets
+	 */
+	private static int getBucketCount(final int productCount) {
+		// About one name per bucket keeps buckets small so seeds are quick to find
+		return Math.max(productCount, 1);
+	}
+
+	/**
+	 * Encode the name of a product
+	 *
+	 * @param products the products
+	 * @param index the position of the product
+	 * @return the name in UTF-8
+	 */
+	private static byte[] getEncodedName(final ProductTable products, final int index) {
+		final byte[] name = products.getName(index).getBytes(StandardCharsets.UTF_8);
+		if(name.length > 0xffff) {
+			throw new IllegalArgumentException("Sorry, the product name " + products.getName(index).substring(0, 32) + "... is too long");
+		}
+		return name;
+	}
+
+	/**
+	 * Build a minimal perfect hash of the product names
+	 *
+	 * @param products the products
+	 * @return the position of the product in each slot, followed by the seed of each bucket
+	 */
+	private static int[] buildPerfectHash(final ProductTable products) {
+		final int productCount = products.size();
+		final int bucketCount = getBucketCount(productCount);
+
+		// Group the products by bucket, counting sort style
+		final int[] productBuckets = new int[productCount];
+		final int[] bucketStarts = new int[bucketCount + 1];
+		for(int i = 0; i < productCount; ++i) {
+			productBuckets[i] = BinaryCatalogFormat.reduce(BinaryCatalogFormat.hash(products.getName(i), 0), bucketCount);
+			++bucketStarts[productBuckets[i] + 1];
+		}
+		int largestBucket = 0;
+		for(int bucket = 0; bucket < bucketCount; ++bucket) {
+			largestBucket = Math.max(largestBucket, bucketStarts[bucket + 1]);
+			bucketStarts[bucket + 1] += bucketStarts[bucket];
+		}
+		final int[] bucketProducts = new int[productCount];
+		final int[] bucketFill = new int[bucketCount];
+		for(int i = 0; i < productCount; ++i) {
+			bucketProducts[bucketStarts[productBuckets[i]] + bucketFill[productBuckets[i]]++] = i;
+		}
+
+		// Order the buckets largest first, as large buckets are hardest to place
+		final int[] sizeStarts = new int[largestBucket + 2];
+		for(int bucket = 0; bucket < bucketCount; ++bucket) {
+			++sizeStarts[largestBucket - bucketFill[bucket] + 1];
+		}
+		for(int size = 0; size <= largestBucket; ++size) {
+			sizeStarts[size + 1] += sizeStarts[size];
+		}
+		final int[] bucketOrder = new int[bucketCount];
+		for(int bucket = 0; bucket < bucketCount; ++bucket) {
+			bucketOrder[sizeStarts[largestBucket - bucketFill[bucket]]++] = bucket;
+		}
+
+		final int[] result = new int[productCount + bucketCount];
+		final boolean[] taken = new boolean[productCount];
+		final int[] slots = new int[largestBucket];
+		int freeSlot = 0;
+		for(final int bucket : bucketOrder) {
+			final int size = bucketFill[bucket];
+			final int start = bucketStarts[bucket];
+			if(size == 0) {
+				break;
+			}
+			if(size == 1) {
+				while(taken[freeSlot]) {
+					++freeSlot;
+				}
+				taken[freeSlot] = true;
+				result[freeSlot] = bucketProducts[start];
+				result[productCount + bucket] = -(freeSlot + 1);
+				continue;
+			}
+
+			final int seed = findSeed(products, bucketProducts, start, size, taken, slots);
+			for(int i = 0; i < size; ++i) {
+				taken[slots[i]] = true;
+				result[slots[i]] = bucketProducts[start + i];
+			}
+			result[productCount + bucket] = seed;
+		}
+		return result;
+	}
+
+	/**
+	 * Find a seed that hashes every product in a bucket to a different free slot
+	 *
+	 * @param products the products
+	 * @param bucketProducts the positions of the products grouped by bucket
+	 * @param start the start of the bucket's products
+	 * @param size the number of products in the bucket
+	 * @param taken the slots already taken
+	 * @param slots receives the slot of each product in the bucket
+	 * @return the seed
+	 */
+	private static int findSeed(
+			final ProductTable products,
+			final int[] bucketProducts,
+			final int start,
+			final int size,
+			final boolean[] taken,
+			final int[] slots) {
+
+		final int productCount = products.size();
+		nextSeed:
+		for(int seed = 1; seed < MAX_SEED; ++seed) {
+			for(int i = 0; i < size; ++i) {
+				final int slot = BinaryCatalogFormat.reduce(BinaryCatalogFormat.hash(products.getName(bucketProducts[start + i]), seed), productCount);
+				if(taken[slot]) {
+					continue nextSeed;
+				}
+				for(int j = 0; j < i; ++j) {
+					if(slots[j] == slot) {
+						continue nextSeed;
+					}
+				}
+				slots[i] = slot;
+			}
+			return seed;
+		}
+		throw new IllegalStateException("Sorry, could not build a perfect hash of the product names");
+	}
+}
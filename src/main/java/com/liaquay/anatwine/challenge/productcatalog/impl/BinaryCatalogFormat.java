@@ -0,0 +1,70 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+/**
+ * The layout of a binary catalog file, written by {@link BinaryCatalogCompiler} and
+ * read by {@link ProductCatalogServiceMappedFileImpl}.
+ *
+ * All numbers are big-endian.
+ *
+ * <pre>
+ * header   int magic, int format version, int product count, int bucket count
+ * seeds    int per bucket: a seed &gt; 0 used to hash the bucket's names to slots,
+ *          -(slot + 1) for a bucket holding one name, or 0 for an empty bucket
+ * slots    int per product: the position of its record from the start of the file
+ * records  long price in pence, unsigned short name length, name in UTF-8
+ * </pre>
+ *
+ * Together the seeds and slots form a minimal perfect hash of the product names: every
+ * name in the catalog maps to its own slot with one lookup of its bucket's seed, so
+ * finding a product reads one seed, one slot and one record whatever the catalog size.
+ * A name not in the catalog maps to some slot whose record holds a different name.
+ */
+final class BinaryCatalogFormat {
+
+	static final int MAGIC = 0x41434154;
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_SIZE = 16;
+
+	/**
+	 * The number of bytes of a record before the name
+	 */
+	static final int RECORD_HEADER_SIZE = 10;
+
+	private BinaryCatalogFormat() {
+	}
+
+	/**
+	 * Hash a product name.
+	 *
+	 * The characters of the name are hashed rather than its encoding so a name can be
+	 * hashed without allocating.
+	 *
+	 * @param name the name of the product
+	 * @param seed varies the hash
+	 * @return the hash
+	 */
+	static int hash(final String name, final int seed) {
+		// FNV-1a over the characters, then a final mix so every bit of the result depends on every character
+		int hash = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+		for(int i = 0; i < name.length(); ++i) {
+			hash = (hash ^ name.charAt(i)) * 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+	/**
+	 * Reduce a hash to a range without division
+	 *
+	 * @param hash the hash
+	 * @param range the size of the range
+	 * @return a number from 0 to range - 1
+	 */
+	static int reduce(final int hash, final int range) {
+		return (int)(((hash & 0xffffffffL) * range) >>> 32);
+	}
+}
@@ -0,0 +1,402 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.liaquay.anatwine.challenge.clock.ClockService;
+import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+import com.liaquay.anatwine.challenge.util.LatencyHistogram;
+
+/**
+ * A read-through cache in front of a slow product catalog, such as one backed by a database,
+ * keeping the catalog off the costing hot path.
+ *
+ * Products are cached up to a maximum number and for a maximum time. Products still in use
+ * are refreshed in the background some time before they expire, so callers are not held up
+ * by the catalog while the old product is served. Concurrent misses for the same product
+ * wait for a single fetch, whether they look up one product or many. Names the catalog
+ * does not know are remembered separately, for a shorter time so that new products soon
+ * appear.
+ *
+ * Looking up many products at once fetches all of the products not cached in a single
+ * request.
+ *
+ * The version of the cached catalog changes whenever a product fetched differs from the one
+ * last fetched under its name, including a name the catalog did not know becoming a product,
+ * whether or not anyone has looked it up since. A product dropped from the cache and fetched
+ * again unchanged keeps the version. The version also changes every time products may have
+ * expired, so nothing built on the cached catalog, such as cached costings, outlives the
+ * products it was built from. Asking the catalog itself for its version would cost a request
+ * on every costing.
+ */
+public class CachingProductCatalogServiceImpl implements ProductCatalogService, Closeable {
+
+	/**
+	 * Thrown by the loader for a product the catalog does not know, so it is not cached with the known products
+	 */
+	private static class UnknownProductException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		final Product _product;
+
+		/**
+		 * Constructor
+		 *
+		 * @param product the unavailable product
+		 */
+		UnknownProductException(final Product product) {
+			super(product.getName(), null, false, false);
+			_product = product;
+		}
+	}
+
+	private final ProductCatalogService _productCatalogService;
+	private final ClockService _clockService;
+	private final long _expireAfterMillis;
+	private final LoadingCache<String, Product> _products;
+	private final Cache<String, Product> _unknownProducts;
+	private final ExecutorService _refreshExecutor;
+
+	/**
+	 * The product last fetched under each name, known or not, to tell when a product changes.
+	 * Names are remembered for longer than products are cached, so a product fetched again
+	 * is compared with the one it replaces.
+	 */
+	private final Cache<String, Product> _fetchedProducts;
+
+	/**
+	 * The fetches under way, by product name, shared by callers missing the same product
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<Product>> _fetches = new ConcurrentHashMap<>();
+
+	/**
+	 * The time taken by each request to the catalog
+	 */
+	private final LatencyHistogram _fetchLatency = new LatencyHistogram();
+
+	private final AtomicLong _version = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param productCatalogService the catalog to cache
+	 * @param clockService the clock used to expire products
+	 * @param maximumSize the most products cached, and the most unknown names remembered
+	 * @param expireAfterMillis the time after which a product is fetched again
+	 * @param refreshAfterMillis the time after which a product in use is refreshed in the background
+	 * @param unknownExpireAfterMillis the time for which a name the catalog does not know is remembered
+	 */
+	public CachingProductCatalogServiceImpl(
+			final ProductCatalogService productCatalogService,
+			final ClockService clockService,
+			final long maximumSize,
+			final long expireAfterMillis,
+			final long refreshAfterMillis,
+			final long unknownExpireAfterMillis) {
+
+		_productCatalogService = productCatalogService;
+		_clockService = clockService;
+		_expireAfterMillis = expireAfterMillis;
+
+		final Ticker ticker = new Ticker() {
+			@Override
+			public long read() {
+				return TimeUnit.MILLISECONDS.toNanos(clockService.currentTimeMillis());
+			}
+		};
+
+		_refreshExecutor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+				.setNameFormat("catalog-refresh-%d")
+				.setDaemon(true)
+				.build());
+
+		_products = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterMillis, TimeUnit.MILLISECONDS)
+				.refreshAfterWrite(refreshAfterMillis, TimeUnit.MILLISECONDS)
+				.ticker(ticker)
+				.recordStats()
+				.build(CacheLoader.asyncReloading(new CacheLoader<String, Product>() {
+					@Override
+					public Product load(final String name) throws UnknownProductException, ExecutionException, InterruptedException {
+						final Product product = fetchShared(Collections.singletonList(name)).get(name);
+						fetched(name, product);
+						if(product.getStatus() == ProductStatus.Unavailable) {
+							_unknownProducts.put(name, product);
+							throw new UnknownProductException(product);
+						}
+						return product;
+					}
+
+					@Override
+					public Map<String, Product> loadAll(final Iterable<? extends String> names) throws ExecutionException, InterruptedException {
+						final List<String> nameList = new ArrayList<>();
+						names.forEach(nameList::add);
+
+						// Names the catalog does not know are left out, so are not cached with the known products
+						final Map<String, Product> products = new LinkedHashMap<>(nameList.size() * 2);
+						fetchShared(nameList).forEach((name, product) -> {
+							fetched(name, product);
+							if(product.getStatus() == ProductStatus.Unavailable) {
+								_unknownProducts.put(name, product);
+							}
+							else {
+								products.put(name, product);
+							}
+						});
+						return products;
+					}
+
+					@Override
+					public ListenableFuture<Product> reload(final String name, final Product oldProduct) {
+						// A product withdrawn from the catalog is cached as unavailable until it expires
+						final Product product = fetch(name);
+						if(!product.equals(oldProduct)) {
+							// Published before the version changes, so nothing built for the new version sees the old product
+							_products.put(name, product);
+						}
+						fetched(name, product);
+						return Futures.immediateFuture(product);
+					}
+				}, _refreshExecutor));
+
+		_unknownProducts = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(unknownExpireAfterMillis, TimeUnit.MILLISECONDS)
+				.ticker(ticker)
+				.recordStats()
+				.build();
+
+		_fetchedProducts = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize * 4)
+				.<String, Product>removalListener(removal -> {
+					// A product forgotten may differ when next served, with nothing to compare it to
+					if(removal.getCause() == RemovalCause.SIZE) {
+						_version.incrementAndGet();
+					}
+				})
+				.build();
+	}
+
+	/**
+	 * Get the statistics of the cache of known products, including hit rate and time spent fetching
+	 *
+	 * @return the statistics of the cache of known products
+	 */
+	public CacheStats getStats() {
+		return _products.stats();
+	}
+
+	/**
+	 * Get the statistics of the names the catalog does not know
+	 *
+	 * @return the statistics of the cache of unknown names
+	 */
+	public CacheStats getUnknownStats() {
+		return _unknownProducts.stats();
+	}
+
+	/**
+	 * Get the time taken by each request to the catalog, whether for one product or many
+	 *
+	 * @return a histogram of the time taken by each request to the catalog
+	 */
+	public LatencyHistogram getFetchLatency() {
+		return _fetchLatency;
+	}
+
+	/**
+	 * Get the number of products cached
+	 *
+	 * @return the number of products cached
+	 */
+	public long size() {
+		return _products.size();
+	}
+
+	@Override
+	public Product getProductByName(final String name) {
+		final Product unknown = _unknownProducts.getIfPresent(name);
+		if(unknown != null) {
+			return unknown;
+		}
+		try {
+			return _products.get(name);
+		}
+		catch (final ExecutionException e) {
+			if(e.getCause() instanceof UnknownProductException) {
+				return ((UnknownProductException)e.getCause())._product;
+			}
+			throw new RuntimeException("Sorry, could not fetch product " + name, e.getCause());
+		}
+		catch (final UncheckedExecutionException e) {
+			throw new RuntimeException("Sorry, could not fetch product " + name, e.getCause());
+		}
+	}
+
+	@Override
+	public Map<String, Product> getProductsByNames(final Collection<String> names) {
+		final Map<String, Product> products = new LinkedHashMap<>(names.size() * 2);
+		final List<String> lookups = new ArrayList<>();
+		for(final String name : names) {
+			final Product product = _unknownProducts.getIfPresent(name);
+			products.put(name, product);
+			if(product == null) {
+				lookups.add(name);
+			}
+		}
+
+		if(!lookups.isEmpty()) {
+			try {
+				products.putAll(_products.getAll(lookups));
+			}
+			catch (final InvalidCacheLoadException e) {
+				// The loader leaves out names the catalog does not know, having remembered them
+				for(final String name : lookups) {
+					Product product = _products.asMap().get(name);
+					if(product == null) {
+						product = _unknownProducts.asMap().get(name);
+					}
+					products.put(name, product == null ? Product.unavailable(name) : product);
+				}
+			}
+			catch (final ExecutionException | UncheckedExecutionException e) {
+				throw new RuntimeException("Sorry, could not fetch products " + lookups, e.getCause());
+			}
+		}
+		return products;
+	}
+
+	/**
+	 * Note a product fetched from the catalog, changing the version if it differs from the
+	 * one last fetched under its name
+	 *
+	 * @param name the name fetched
+	 * @param product the product fetched
+	 */
+	private void fetched(final String name, final Product product) {
+		final Product previous = _fetchedProducts.asMap().put(name, product);
+		if(previous != null && !previous.equals(product)) {
+			_version.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Fetch products from the catalog, sharing the fetch of any product already being fetched
+	 * for another caller and fetching the rest in one request
+	 *
+	 * @param names the names of the products
+	 * @return a map of product names to products, unavailable if the catalog does not know them
+	 * @throws ExecutionException if the catalog could not be asked
+	 * @throws InterruptedException if interrupted waiting for another caller's fetch
+	 */
+	private Map<String, Product> fetchShared(final List<String> names) throws ExecutionException, InterruptedException {
+		final Map<String, CompletableFuture<Product>> fetches = new LinkedHashMap<>(names.size() * 2);
+		final List<String> owned = new ArrayList<>();
+		for(final String name : names) {
+			final CompletableFuture<Product> fetch = new CompletableFuture<>();
+			final CompletableFuture<Product> existing = _fetches.putIfAbsent(name, fetch);
+			fetches.put(name, existing == null ? fetch : existing);
+			if(existing == null) {
+				owned.add(name);
+			}
+		}
+
+		if(!owned.isEmpty()) {
+			try {
+				final Map<String, Product> fetched = owned.size() == 1
+						? Collections.singletonMap(owned.get(0), fetch(owned.get(0)))
+						: fetch(owned);
+				for(final String name : owned) {
+					final Product product = fetched.get(name);
+					fetches.get(name).complete(product == null ? Product.unavailable(name) : product);
+				}
+			}
+			catch (final RuntimeException e) {
+				owned.forEach(name -> fetches.get(name).completeExceptionally(e));
+			}
+			finally {
+				owned.forEach(name -> _fetches.remove(name, fetches.get(name)));
+			}
+		}
+
+		final Map<String, Product> products = new LinkedHashMap<>(names.size() * 2);
+		for(final Map.Entry<String, CompletableFuture<Product>> fetch : fetches.entrySet()) {
+			products.put(fetch.getKey(), fetch.getValue().get());
+		}
+		return products;
+	}
+
+	/**
+	 * Fetch a product from the catalog, timing the request
+	 *
+	 * @param name the name of the product
+	 * @return the product
+	 */
+	private Product fetch(final String name) {
+		final long start = System.nanoTime();
+		try {
+			return _productCatalogService.getProductByName(name);
+		}
+		finally {
+			_fetchLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Fetch many products from the catalog in one request, timing the request
+	 *
+	 * @param names the names of the products
+	 * @return a map of product names to products
+	 */
+	private Map<String, Product> fetch(final Collection<String> names) {
+		final long start = System.nanoTime();
+		try {
+			return _productCatalogService.getProductsByNames(names);
+		}
+		finally {
+			_fetchLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public long getVersion() {
+		// Both only ever grow, so their sum changes whenever either does
+		return _version.get() + _clockService.currentTimeMillis() / _expireAfterMillis;
+	}
+
+	/**
+	 * Stop refreshing products
+	 */
+	@Override
+	public void close() {
+		_refreshExecutor.shutdownNow();
+	}
+}
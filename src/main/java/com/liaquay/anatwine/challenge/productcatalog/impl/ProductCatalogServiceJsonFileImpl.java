@@ -1,40 +1,105 @@
 package com.liaquay.anatwine.challenge.productcatalog.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.liaquay.anatwine.challenge.productcatalog.Product;
 import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
-import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+import com.liaquay.anatwine.challenge.productcatalog.ProductTable;
+import com.liaquay.anatwine.challenge.util.FileWatcher;
+import com.liaquay.anatwine.challenge.util.Money;
 
 /**
  * A simple immutable implementation of a product catalog read from the resource file
- * products.json
+ * products.json, or from the file named by the system property anatwine.catalog.path
+ * which is reloaded whenever it changes.
+ *
+ * Each load builds a complete new catalog which replaces the old one in a single step,
+ * so readers never wait for a load and every lookup sees one whole catalog.
  */
 @Component
-public class ProductCatalogServiceJsonFileImpl implements ProductCatalogService {
+public class ProductCatalogServiceJsonFileImpl implements ProductCatalogService, Closeable {
 
 	/**
-	 * Keep an object mapper as these are slow to create but are thread safe
+	 * The system property naming a catalog file to read and watch instead of the resource file
 	 */
-	private static final ObjectMapper MAPPER = new ObjectMapper();
+	public static final String CATALOG_PATH_PROPERTY = "anatwine.catalog.path";
 
 	/**
-	 * Keep an object reader as these are slow to create but are thread safe
+	 * Keep a JSON factory as these are slow to create but are thread safe.
+	 *
+	 * Product names are not canonicalised as, unlike field names in most JSON, each appears only once.
+	 */
+	private static final JsonFactory FACTORY = new JsonFactory().disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES);
+
+	/**
+	 * The number of products room is first made for while loading
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * A loaded catalog and its version, replaced as a whole so the two always agree
+	 */
+	private static class Catalog {
+
+		final ProductTable _products;
+		final long _version;
+
+		/**
+		 * Constructor
+		 *
+		 * @param products the products in the catalog
+		 * @param version the version of the catalog
+		 */
+		Catalog(final ProductTable products, final long version) {
+			_products = products;
+			_version = version;
+		}
+	}
+
+	/**
+	 * The current catalog lazily initialised, built once per load and shared by every caller
+	 */
+	private volatile Catalog _catalog = null;
+
+	/**
+	 * The version of the catalog, incremented each time it is loaded
 	 */
-	private static final ObjectReader READER = MAPPER.readerFor(new TypeReference<HashMap<String,Double>>() {});
+	private final AtomicLong _version = new AtomicLong();
 
 	/**
-	 * A map of product name to price in GBP lazily initialised
+	 * The number of loads started
 	 */
-	private Map<String, Double> _catalog = null;
+	private final AtomicLong _loadsStarted = new AtomicLong();
+
+	/**
+	 * The number of the load whose catalog is current, in the order loads were started. Guarded by the load lock.
+	 */
+	private long _publishedLoad = 0;
+
+	/**
+	 * Held while loading for the first time and while replacing the catalog
+	 */
+	private final Object _loadLock = new Object();
+
+	/**
+	 * Watches the catalog file, or null if the catalog is not being reloaded
+	 */
+	private FileWatcher _watcher = null;
 
 	/**
 	 *	Load the catalog from the stream
@@ -42,33 +107,163 @@ public class ProductCatalogServiceJsonFileImpl implements ProductCatalogService
 	 * 	@param is the stream from which to load the catalog
 	 */
 	public void load(final InputStream is) {
+		final long load = _loadsStarted.incrementAndGet();
+		final ProductTable products;
 		try {
-			_catalog = READER.readValue(is);
+			products = read(is);
 		}
 		catch (final IOException e) {
 			// Need to know what we are supposed to do if we cannot read the catalog
 			throw new RuntimeException("Sorry, could not read product catalog", e);
 		}
+
+		// A slow load finishing after one started later would replace newer products, so is dropped
+		synchronized(_loadLock) {
+			if(load > _publishedLoad) {
+				_publishedLoad = load;
+				_catalog = new Catalog(products, _version.incrementAndGet());
+			}
+		}
 	}
 
 	/**
-	 * Get an instance of the product price map loading it from file if necessary
+	 * Read a catalog of product names mapped to prices in pounds, e.g. {"Tie": 9.50}.
+	 *
+	 * The catalog is read a token at a time straight into the columns of a product table,
+	 * so no map, boxed price or decimal is made for each product.
 	 *
-	 * @return an instance of the product price map
+	 * @param is the stream from which to read the catalog
+	 * @return the products in the catalog
+	 * @throws IOException if the catalog could not be read
 	 */
-	private Map<String, Double> getCatalog() {
-		if(_catalog == null) {
-			load(this.getClass().getClassLoader().getResourceAsStream("products.json"));
+	static ProductTable read(final InputStream is) throws IOException {
+		try (final JsonParser parser = FACTORY.createParser(is)) {
+			if(parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Sorry, a product catalog should map product names to prices");
+			}
+
+			String[] names = new String[INITIAL_CAPACITY];
+			long[] prices = new long[INITIAL_CAPACITY];
+			int size = 0;
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String name = parser.getCurrentName();
+				final JsonToken price = parser.nextToken();
+				if(price != JsonToken.VALUE_NUMBER_INT && price != JsonToken.VALUE_NUMBER_FLOAT) {
+					throw new IOException("Sorry, the price of " + name + " should be a number");
+				}
+				if(size == names.length) {
+					names = Arrays.copyOf(names, size * 2);
+					prices = Arrays.copyOf(prices, size * 2);
+				}
+				names[size] = name;
+				// Prices are read exactly from the text of the number and converted to pence
+				prices[size] = Money.parseMajorUnits(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+				++size;
+			}
+			if(parser.getCurrentToken() != JsonToken.END_OBJECT) {
+				throw new IOException("Sorry, a product catalog should map product names to prices");
+			}
+			return new ProductTable(names, prices, size);
+		}
+	}
+
+	/**
+	 * Load the catalog from a file
+	 *
+	 * @param path the file from which to load the catalog
+	 */
+	public void load(final Path path) {
+		try (final InputStream is = Files.newInputStream(path)) {
+			load(is);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Sorry, could not read product catalog " + path, e);
+		}
+	}
+
+	/**
+	 * Load the catalog from a file and reload it whenever the file changes.
+	 *
+	 * Reloading happens on the watcher's thread. If the changed file cannot be read the
+	 * current catalog is kept.
+	 *
+	 * @param path the file from which to load the catalog
+	 */
+	public void watch(final Path path) {
+		load(path);
+		synchronized(_loadLock) {
+			if(_watcher != null) {
+				throw new IllegalStateException("Sorry, the product catalog is already watching " + _watcher.getFile());
+			}
+			try {
+				_watcher = new FileWatcher(path, this::load);
+			}
+			catch (final IOException e) {
+				throw new RuntimeException("Sorry, could not watch product catalog " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * Stop reloading the catalog
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(_loadLock) {
+			if(_watcher != null) {
+				_watcher.close();
+				_watcher = null;
+			}
+		}
+	}
+
+	/**
+	 * Get the current catalog loading it from file if necessary.
+	 *
+	 * Only the first caller loads the catalog; any others arriving at the same time wait for it.
+	 *
+	 * @return the current catalog
+	 */
+	private Catalog getCatalog() {
+		final Catalog catalog = _catalog;
+		if(catalog != null) {
+			return catalog;
+		}
+		synchronized(_loadLock) {
+			if(_catalog == null) {
+				final String path = System.getProperty(CATALOG_PATH_PROPERTY);
+				if(path == null) {
+					load(this.getClass().getClassLoader().getResourceAsStream("products.json"));
+				}
+				else {
+					watch(Paths.get(path));
+				}
+			}
+			return _catalog;
 		}
-		return _catalog;
 	}
 
 	@Override
 	public Product getProductByName(final String name) {
-		final Double price =  getCatalog().get(name);
-		if(price == null) {
-			return new Product(name, 0.00, ProductStatus.Unavailable);
+		final Product product = getCatalog()._products.getProduct(name);
+		return product == null ? Product.unavailable(name) : product;
+	}
+
+	@Override
+	public Map<String, Product> getProductsByNames(final Collection<String> names) {
+		// Read the catalog once so every product comes from the same load
+		final ProductTable catalog = getCatalog()._products;
+		final Map<String, Product> products = new LinkedHashMap<>(names.size() * 2);
+		for(final String name : names) {
+			final Product product = catalog.getProduct(name);
+			products.put(name, product == null ? Product.unavailable(name) : product);
 		}
-		return new Product(name, price, ProductStatus.Available);
+		return products;
+	}
+
+	@Override
+	public long getVersion() {
+		final Catalog catalog = _catalog;
+		return catalog == null ? 0 : catalog._version;
 	}
 }
@@ -0,0 +1,183 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+
+/**
+ * An immutable product catalog memory-mapped from a binary catalog file compiled by
+ * {@link BinaryCatalogCompiler}.
+ *
+ * Opening the catalog only maps the file, so it takes the same time however large the
+ * catalog is, and the catalog is paged in from the file as it is used. JVMs on the same
+ * host mapping the same file share one copy in the operating system's page cache.
+ *
+ * A product is found through the file's perfect hash by reading one seed, one slot and
+ * one record, without decoding its name. The catalog itself holds no objects on the heap;
+ * only a bounded number of the products looked up most recently are kept, so popular
+ * products are made once and the heap used does not grow with the catalog.
+ */
+public class ProductCatalogServiceMappedFileImpl implements ProductCatalogService {
+
+	/**
+	 * The most products kept on the heap
+	 */
+	static final int CACHED_PRODUCTS = 1024;
+
+	private final MappedByteBuffer _buffer;
+	private final int _productCount;
+	private final int _bucketCount;
+	private final int _slotsOffset;
+
+	/**
+	 * Products looked up recently
+	 */
+	private final Cache<String, Product> _products = CacheBuilder.newBuilder()
+			.maximumSize(CACHED_PRODUCTS)
+			.build();
+
+	/**
+	 * Constructor which maps the catalog file
+	 *
+	 * @param path the binary catalog file
+	 */
+	public ProductCatalogServiceMappedFileImpl(final Path path) {
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Sorry, " + path + " is too large to map");
+			}
+			// The mapping remains valid once the channel is closed
+			_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Sorry, could not read product catalog " + path, e);
+		}
+
+		if(_buffer.capacity() < BinaryCatalogFormat.HEADER_SIZE
+				|| _buffer.getInt(0) != BinaryCatalogFormat.MAGIC
+				|| _buffer.getInt(4) != BinaryCatalogFormat.FORMAT_VERSION) {
+			throw new IllegalArgumentException("Sorry, " + path + " is not a binary product catalog");
+		}
+		_productCount = _buffer.getInt(8);
+		_bucketCount = _buffer.getInt(12);
+		_slotsOffset = BinaryCatalogFormat.HEADER_SIZE + 4 * _bucketCount;
+	}
+
+	/**
+	 * Get the number of products in the catalog
+	 *
+	 * @return the number of products in the catalog
+	 */
+	public int size() {
+		return _productCount;
+	}
+
+	/**
+	 * Get the number of products kept on the heap
+	 *
+	 * @return the number of products kept on the heap
+	 */
+	public long getCachedProductCount() {
+		return _products.size();
+	}
+
+	@Override
+	public Product getProductByName(final String name) {
+		final Product cached = _products.getIfPresent(name);
+		if(cached != null) {
+			return cached;
+		}
+		final int record = findRecord(name);
+		if(record < 0) {
+			return Product.unavailable(name);
+		}
+		// Racing threads may each make the product but they are equal so any will do
+		final Product product = new Product(name, _buffer.getLong(record), ProductStatus.Available);
+		_products.put(name, product);
+		return product;
+	}
+
+	/**
+	 * Find the record of a product
+	 *
+	 * @param name the name of the product
+	 * @return the position of the product's record or -1 if it is not in the catalog
+	 */
+	private int findRecord(final String name) {
+		if(_productCount == 0) {
+			return -1;
+		}
+		final int bucket = BinaryCatalogFormat.reduce(BinaryCatalogFormat.hash(name, 0), _bucketCount);
+		final int seed = _buffer.getInt(BinaryCatalogFormat.HEADER_SIZE + 4 * bucket);
+		if(seed == 0) {
+			return -1;
+		}
+		final int slot = seed < 0 ? -seed - 1 : BinaryCatalogFormat.reduce(BinaryCatalogFormat.hash(name, seed), _productCount);
+		final int record = _buffer.getInt(_slotsOffset + 4 * slot);
+		return nameEquals(record, name) ? record : -1;
+	}
+
+	/**
+	 * Compare the name in a record with a name, decoding the UTF-8 of the record a character at a time
+	 *
+	 * @param record the position of the record
+	 * @param name the name to compare with
+	 * @return true if the record holds the name
+	 */
+	private boolean nameEquals(final int record, final String name) {
+		final int length = _buffer.getShort(record + 8) & 0xffff;
+		// Each character takes one to three bytes, or four for a pair of characters
+		if(length < name.length() || length > 3 * name.length()) {
+			return false;
+		}
+		int position = record + BinaryCatalogFormat.RECORD_HEADER_SIZE;
+		final int end = position + length;
+		int i = 0;
+		while(position < end) {
+			final int b = _buffer.get(position++) & 0xff;
+			final int codePoint;
+			if(b < 0x80) {
+				codePoint = b;
+			}
+			else if(b < 0xe0) {
+				codePoint = ((b & 0x1f) << 6) | (_buffer.get(position++) & 0x3f);
+			}
+			else if(b < 0xf0) {
+				codePoint = ((b & 0x0f) << 12) | ((_buffer.get(position++) & 0x3f) << 6) | (_buffer.get(position++) & 0x3f);
+			}
+			else {
+				codePoint = ((b & 0x07) << 18) | ((_buffer.get(position++) & 0x3f) << 12) | ((_buffer.get(position++) & 0x3f) << 6) | (_buffer.get(position++) & 0x3f);
+			}
+
+			if(codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				if(i >= name.length() || name.charAt(i++) != codePoint) {
+					return false;
+				}
+			}
+			else {
+				if(i + 1 >= name.length()
+						|| name.charAt(i++) != Character.highSurrogate(codePoint)
+						|| name.charAt(i++) != Character.lowSurrogate(codePoint)) {
+					return false;
+				}
+			}
+		}
+		return i == name.length();
+	}
+
+	/**
+	 * The catalog file is immutable so always has the same version
+	 */
+	@Override
+	public long getVersion() {
+		return 0;
+	}
+}
@@ -1,6 +1,7 @@
 package com.liaquay.anatwine.challenge.productcatalog.impl;
 
 import java.util.Map;
+import java.util.stream.Stream;
 
 import com.google.common.collect.ImmutableMap;
 import com.liaquay.anatwine.challenge.productcatalog.Product;
@@ -12,19 +13,27 @@ import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
  */
 public class ProductCatalogServiceSimpleImpl implements ProductCatalogService {
 
-	final Map<String, Double> _catalog = ImmutableMap.<String, Double>builder().
-			put("Jacket", 49.90).
-			put("Trousers", 35.50).
-			put("Shirt", 12.50).
-			put("Tie", 9.50).
-			build();
+	/**
+	 * A map of product name to product, built once and shared by every caller
+	 */
+	private final Map<String, Product> _catalog = Stream.of(
+			new Product("Jacket", 4990L, ProductStatus.Available),
+			new Product("Trousers", 3550L, ProductStatus.Available),
+			new Product("Shirt", 1250L, ProductStatus.Available),
+			new Product("Tie", 950L, ProductStatus.Available))
+			.collect(ImmutableMap.toImmutableMap(Product::getName, product -> product));
 
 	@Override
 	public Product getProductByName(final String name) {
-		final Double price =  _catalog.get(name);
-		if(price == null) {
-			return new Product(name, 0.00, ProductStatus.Unavailable);
-		}
-		return new Product(name, price, ProductStatus.Available);
+		final Product product = _catalog.get(name);
+		return product == null ? Product.unavailable(name) : product;
+	}
+
+	/**
+	 * The catalog never changes so always has the same version
+	 */
+	@Override
+	public long getVersion() {
+		return 0;
 	}
 }
@@ -0,0 +1,226 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.productcatalog.StockAllocation;
+import com.liaquay.anatwine.challenge.productcatalog.StockService;
+
+/**
+ * An in-memory stock service.
+ *
+ * The stock level of each product is a single atomic word holding the units on hand in
+ * the high 32 bits and the units reserved in the low 32 bits, so a reservation is one
+ * compare-and-set of one product's level. There is no lock: customers buying different
+ * products never touch the same word, and customers buying the same product retry only
+ * when another reservation of it lands in between.
+ *
+ * Products are tracked from when their units on hand are first set. Products not tracked
+ * are treated as always in stock, and units of them reserved hold nothing even if they are
+ * tracked before the reservation is released or committed.
+ */
+public class StockServiceImpl implements StockService {
+
+	private final ConcurrentHashMap<String, AtomicLong> _levels = new ConcurrentHashMap<>();
+
+	/**
+	 * Set the number of units of a product on hand, tracking the product from now on.
+	 *
+	 * Units already reserved remain reserved.
+	 *
+	 * @param productName the name of the product
+	 * @param units the number of units on hand
+	 */
+	public void setOnHand(final String productName, final int units) {
+		if(units < 0) {
+			throw new IllegalArgumentException("Sorry, cannot have " + units + " of " + productName + " on hand");
+		}
+		_levels.computeIfAbsent(productName, name -> new AtomicLong())
+				.updateAndGet(level -> pack(units, getReserved(level)));
+	}
+
+	/**
+	 * Add units of a product to those on hand, e.g. when a delivery arrives
+	 *
+	 * @param productName the name of the product
+	 * @param units the number of units delivered
+	 */
+	public void addOnHand(final String productName, final int units) {
+		if(units < 0) {
+			throw new IllegalArgumentException("Sorry, cannot add " + units + " of " + productName + " to stock");
+		}
+		_levels.computeIfAbsent(productName, name -> new AtomicLong())
+				.updateAndGet(level -> pack(
+						(int)Math.min(Integer.MAX_VALUE, (long)getOnHand(level) + units),
+						getReserved(level)));
+	}
+
+	/**
+	 * Get the number of units of a product on hand, including those reserved
+	 *
+	 * @param productName the name of the product
+	 * @return the number of units on hand, or 0 if the product is not tracked
+	 */
+	public int getOnHand(final String productName) {
+		final AtomicLong level = _levels.get(productName);
+		return level == null ? 0 : getOnHand(level.get());
+	}
+
+	/**
+	 * Get the number of units of a product reserved for customers
+	 *
+	 * @param productName the name of the product
+	 * @return the number of units reserved, or 0 if the product is not tracked
+	 */
+	public int getReserved(final String productName) {
+		final AtomicLong level = _levels.get(productName);
+		return level == null ? 0 : getReserved(level.get());
+	}
+
+	/**
+	 * Get the number of units of a product that can be reserved
+	 *
+	 * @param productName the name of the product
+	 * @return the number of units available, or Integer.MAX_VALUE if the product is not tracked
+	 */
+	public int getAvailable(final String productName) {
+		final AtomicLong level = _levels.get(productName);
+		return level == null ? Integer.MAX_VALUE : getAvailable(level.get());
+	}
+
+	@Override
+	public StockAllocation getAvailability(final Basket basket) {
+		return allocate(basket, false);
+	}
+
+	@Override
+	public StockAllocation reserve(final Basket basket) {
+		return allocate(basket, true);
+	}
+
+	/**
+	 * Allocate as much of each product in a basket as is available
+	 *
+	 * @param basket the basket to allocate
+	 * @param reserve true to reserve the units allocated
+	 * @return the allocation
+	 */
+	private StockAllocation allocate(final Basket basket, final boolean reserve) {
+		Map<String, Integer> allocated = null;
+		Map<String, Integer> shortfalls = null;
+		final Map<String, Integer> reserved = reserve ? new LinkedHashMap<>() : Collections.emptyMap();
+		for(final String productName : basket.getProductNames()) {
+			final int quantity = basket.getQuantity(productName);
+			final AtomicLong level = _levels.get(productName);
+			final int granted = level == null ? quantity : reserve ? reserve(level, quantity) : Math.min(quantity, getAvailable(level.get()));
+			if(reserve && level != null && granted > 0) {
+				reserved.put(productName, granted);
+			}
+
+			if(granted < quantity && shortfalls == null) {
+				// Most baskets are in stock, so the maps are only made on the first shortfall
+				shortfalls = new LinkedHashMap<>();
+				allocated = new LinkedHashMap<>();
+				for(final String allocatedName : basket.getProductNames()) {
+					if(allocatedName.equals(productName)) break;
+					allocated.put(allocatedName, basket.getQuantity(allocatedName));
+				}
+			}
+			if(shortfalls != null) {
+				if(granted > 0) {
+					allocated.put(productName, granted);
+				}
+				if(granted < quantity) {
+					shortfalls.put(productName, quantity - granted);
+				}
+			}
+		}
+		return shortfalls == null
+				? new StockAllocation(basket, Collections.emptyMap(), reserved, reserve)
+				: new StockAllocation(new Basket(allocated), shortfalls, reserved, reserve);
+	}
+
+	/**
+	 * Reserve up to a number of units of a product
+	 *
+	 * @param level the stock level of the product
+	 * @param quantity the number of units wanted
+	 * @return the number of units reserved
+	 */
+	private static int reserve(final AtomicLong level, final int quantity) {
+		while(true) {
+			final long current = level.get();
+			final int granted = Math.min(quantity, getAvailable(current));
+			// Reserved units never exceed those on hand so adding to the low word cannot carry
+			if(granted == 0 || level.compareAndSet(current, current + granted)) {
+				return granted;
+			}
+		}
+	}
+
+	@Override
+	public void release(final StockAllocation reservation) {
+		if(!reservation.settle()) {
+			return;
+		}
+		reservation.getReserved().forEach((productName, quantity) ->
+				_levels.get(productName).updateAndGet(current -> pack(getOnHand(current), getReserved(current) - quantity)));
+	}
+
+	@Override
+	public void commit(final StockAllocation reservation) {
+		if(!reservation.settle()) {
+			throw new IllegalStateException("Sorry, the reservation has already been released or committed");
+		}
+		// Units on hand may have been set below those reserved meanwhile
+		reservation.getReserved().forEach((productName, quantity) ->
+				_levels.get(productName).updateAndGet(current -> pack(
+						Math.max(0, getOnHand(current) - quantity),
+						getReserved(current) - quantity)));
+	}
+
+	/**
+	 * Pack the units on hand and reserved into a stock level
+	 *
+	 * @param onHand the units on hand
+	 * @param reserved the units reserved
+	 * @return the stock level
+	 */
+	private static long pack(final int onHand, final int reserved) {
+		return ((long)onHand << 32) | (reserved & 0xffffffffL);
+	}
+
+	/**
+	 * Get the units on hand from a stock level
+	 *
+	 * @param level the stock level
+	 * @return the units on hand
+	 */
+	private static int getOnHand(final long level) {
+		return (int)(level >>> 32);
+	}
+
+	/**
+	 * Get the units reserved from a stock level
+	 *
+	 * @param level the stock level
+	 * @return the units reserved
+	 */
+	private static int getReserved(final long level) {
+		return (int)level;
+	}
+
+	/**
+	 * Get the units that can be reserved from a stock level
+	 *
+	 * @param level the stock level
+	 * @return the units on hand but not reserved
+	 */
+	private static int getAvailable(final long level) {
+		return Math.max(0, getOnHand(level) - getReserved(level));
+	}
+}
@@ -1,23 +1,162 @@
 package com.liaquay.anatwine.challenge.util;
 
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
+import java.util.Currency;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Utility to present doubles as GBP.
+ * Utility to present amounts in pence as GBP.
+ *
+ * Unlike {@link NumberFormat} a formatter is immutable so may be shared between threads
+ * without locking. Amounts are written digit by digit straight to an {@link Appendable}
+ * so no intermediate objects are created.
+ *
+ * The symbols and layout used for each locale are looked up once and cached.
  */
-public class CurrencyFormatter {
+public final class CurrencyFormatter {
+
+	private static final Currency GBP = Currency.getInstance("GBP");
+
+	/**
+	 * Powers of ten indexed by exponent, covering the range of a long
+	 */
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i < POWERS_OF_TEN.length; ++i) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Formatters for each locale seen so far
+	 */
+	private static final ConcurrentHashMap<Locale, CurrencyFormatter> FORMATTERS = new ConcurrentHashMap<>();
 
 	// Get the currency formatter for england
-	private static final NumberFormat CURRENCY_FORMATTER = NumberFormat.getCurrencyInstance(Locale.UK);
+	private static final CurrencyFormatter UK = forLocale(Locale.UK);
+
+	private final String _positivePrefix;
+	private final String _positiveSuffix;
+	private final String _negativePrefix;
+	private final String _negativeSuffix;
+	private final char _groupingSeparator;
+	private final int _groupingSize;
+	private final char _decimalSeparator;
+	private final char _zeroDigit;
+
+	/**
+	 * Constructor taking the symbols and layout from the locale's own currency format
+	 *
+	 * @param locale the locale to present amounts for
+	 */
+	private CurrencyFormatter(final Locale locale) {
+		final DecimalFormat format = (DecimalFormat)NumberFormat.getCurrencyInstance(locale);
+		format.setCurrency(GBP);
+		final DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+
+		_positivePrefix = format.getPositivePrefix();
+		_positiveSuffix = format.getPositiveSuffix();
+		_negativePrefix = format.getNegativePrefix();
+		_negativeSuffix = format.getNegativeSuffix();
+		_groupingSeparator = symbols.getGroupingSeparator();
+		_groupingSize = format.isGroupingUsed() ? format.getGroupingSize() : 0;
+		_decimalSeparator = symbols.getMonetaryDecimalSeparator();
+		_zeroDigit = symbols.getZeroDigit();
+	}
 
 	/**
-	 * Format a double as GBP
+	 * Get the formatter for a locale
 	 *
-	 * @param amount value in pounds
+	 * @param locale the locale to present amounts for
+	 * @return a formatter that may be shared between threads
+	 */
+	public static CurrencyFormatter forLocale(final Locale locale) {
+		return FORMATTERS.computeIfAbsent(locale, CurrencyFormatter::new);
+	}
+
+	/**
+	 * Format an amount in pence as GBP
+	 *
+	 * @param amount value in pence
 	 * @return amount in GBP
 	 */
-	public static String format(final double amount) {
-		return CURRENCY_FORMATTER.format(amount);
+	public static String format(final long amount) {
+		return UK.toString(amount);
+	}
+
+	/**
+	 * Write an amount in pence as GBP
+	 *
+	 * @param out where to write the amount
+	 * @param amount value in pence
+	 * @throws IOException if the amount could not be written
+	 */
+	public static void format(final Appendable out, final long amount) throws IOException {
+		UK.appendTo(out, amount);
+	}
+
+	/**
+	 * Present an amount in pence as GBP
+	 *
+	 * @param amount value in pence
+	 * @return amount in GBP
+	 */
+	public String toString(final long amount) {
+		final StringBuilder sb = new StringBuilder(16);
+		try {
+			appendTo(sb, amount);
+		}
+		catch (final IOException e) {
+			// A string builder does not throw
+			throw new RuntimeException("Sorry, could not format amount", e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write an amount in pence as GBP
+	 *
+	 * @param out where to write the amount
+	 * @param amount value in pence
+	 * @throws IOException if the amount could not be written
+	 */
+	public void appendTo(final Appendable out, final long amount) throws IOException {
+		final boolean negative = amount < 0;
+
+		// Split before taking the magnitude so that Long.MIN_VALUE does not overflow
+		final long pounds = Math.abs(amount / Money.MINOR_UNITS_PER_MAJOR_UNIT);
+		final long pence = Math.abs(amount % Money.MINOR_UNITS_PER_MAJOR_UNIT);
+
+		out.append(negative ? _negativePrefix : _positivePrefix);
+		appendPounds(out, pounds);
+		out.append(_decimalSeparator);
+		out.append((char)(_zeroDigit + pence / 10));
+		out.append((char)(_zeroDigit + pence % 10));
+		out.append(negative ? _negativeSuffix : _positiveSuffix);
+	}
+
+	/**
+	 * Write a whole number of pounds with grouping separators
+	 *
+	 * @param out where to write the pounds
+	 * @param pounds a non-negative number of pounds
+	 * @throws IOException if the pounds could not be written
+	 */
+	private void appendPounds(final Appendable out, final long pounds) throws IOException {
+		int digits = 1;
+		while(digits < POWERS_OF_TEN.length && pounds >= POWERS_OF_TEN[digits]) {
+			++digits;
+		}
+		for(int digit = digits - 1; digit >= 0; --digit) {
+			out.append((char)(_zeroDigit + pounds / POWERS_OF_TEN[digit] % 10));
+			if(_groupingSize > 0 && digit > 0 && digit % _groupingSize == 0) {
+				out.append(_groupingSeparator);
+			}
+		}
 	}
 }
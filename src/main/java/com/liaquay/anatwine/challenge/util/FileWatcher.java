@@ -0,0 +1,102 @@
+package com.liaquay.anatwine.challenge.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a file and calls a listener on its own thread whenever the file is created or changed.
+ *
+ * The directory holding the file is watched, so the file may be replaced by moving a new
+ * file over it, which is the safest way to update a file that is being read. Several
+ * changes in quick succession may be reported once.
+ *
+ * The listener is called on the watcher's thread, away from any request, and a failing
+ * listener does not stop the watcher.
+ */
+public class FileWatcher implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileWatcher.class);
+
+	private final Path _file;
+	private final Consumer<Path> _listener;
+	private final WatchService _watchService;
+	private final Thread _thread;
+
+	/**
+	 * Constructor which starts watching the file
+	 *
+	 * @param file the file to watch
+	 * @param listener called with the file each time it is created or changed
+	 * @throws IOException if the file's directory could not be watched
+	 */
+	public FileWatcher(final Path file, final Consumer<Path> listener) throws IOException {
+		_file = file.toAbsolutePath();
+		_listener = listener;
+		_watchService = FileSystems.getDefault().newWatchService();
+		_file.getParent().register(
+				_watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		_thread = new Thread(this::watch, "file-watcher-" + _file.getFileName());
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Get the file being watched
+	 *
+	 * @return the file being watched
+	 */
+	public Path getFile() {
+		return _file;
+	}
+
+	/**
+	 * The watcher thread's loop, waiting for changes to the directory until closed
+	 */
+	private void watch() {
+		try {
+			while(true) {
+				final WatchKey key = _watchService.take();
+				boolean changed = false;
+				for(final WatchEvent<?> event : key.pollEvents()) {
+					// An overflow means events were lost so the file may have changed
+					changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || _file.getFileName().equals(event.context());
+				}
+				key.reset();
+				if(changed) {
+					try {
+						_listener.accept(_file);
+					}
+					catch (final RuntimeException e) {
+						LOG.warn("Sorry, could not handle a change to " + _file, e);
+					}
+				}
+			}
+		}
+		catch (final InterruptedException | ClosedWatchServiceException e) {
+			// Closed
+		}
+	}
+
+	/**
+	 * Stop watching the file
+	 */
+	@Override
+	public void close() throws IOException {
+		_watchService.close();
+		_thread.interrupt();
+	}
+}
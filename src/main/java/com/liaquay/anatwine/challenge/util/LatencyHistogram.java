@@ -0,0 +1,138 @@
+package com.liaquay.anatwine.challenge.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe histogram of latencies in nanoseconds.
+ *
+ * Latencies are counted in buckets whose bounds are powers of 2, so recording is a
+ * couple of instructions to find the bucket and an uncontended add. Percentiles are
+ * reported as the upper bound of the bucket they fall in, so are accurate to within
+ * a factor of 2.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Bucket 0 holds latencies of 0, bucket n holds latencies from 2^(n-1) to 2^n - 1
+	 */
+	public static final int BUCKET_COUNT = 64;
+
+	private final LongAdder[] _buckets = new LongAdder[BUCKET_COUNT];
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _totalNanos = new LongAdder();
+
+	/**
+	 * Constructor for an empty histogram
+	 */
+	public LatencyHistogram() {
+		for(int i = 0; i < BUCKET_COUNT; ++i) {
+			_buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Get the bucket a latency is counted in
+	 *
+	 * @param nanos a latency in nanoseconds
+	 * @return the index of the bucket
+	 */
+	public static int getBucket(final long nanos) {
+		// Negative latencies can only come from a misbehaving clock so count them as 0
+		return nanos <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * Get the largest latency counted in a bucket
+	 *
+	 * @param bucket the index of the bucket
+	 * @return the largest latency in nanoseconds counted in the bucket
+	 */
+	public static long getBucketUpperBound(final int bucket) {
+		return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/**
+	 * Record a latency
+	 *
+	 * @param nanos a latency in nanoseconds
+	 */
+	public void record(final long nanos) {
+		_buckets[getBucket(nanos)].increment();
+		_count.increment();
+		_totalNanos.add(Math.max(0, nanos));
+	}
+
+	/**
+	 * Get the number of latencies recorded
+	 *
+	 * @return the number of latencies recorded
+	 */
+	public long getCount() {
+		return _count.sum();
+	}
+
+	/**
+	 * Get the sum of the latencies recorded
+	 *
+	 * @return the sum of the latencies recorded in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return _totalNanos.sum();
+	}
+
+	/**
+	 * Get the number of latencies counted in a bucket
+	 *
+	 * @param bucket the index of the bucket
+	 * @return the number of latencies counted in the bucket
+	 */
+	public long getBucketCount(final int bucket) {
+		return _buckets[bucket].sum();
+	}
+
+	/**
+	 * Get an upper bound on a percentile of the latencies recorded.
+	 *
+	 * Latencies recorded while this is being worked out may or may not be included.
+	 *
+	 * @param percentile the percentile, e.g. 99.0
+	 * @return an upper bound in nanoseconds on the percentile, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(final double percentile) {
+		final long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		for(int i = 0; i < BUCKET_COUNT; ++i) {
+			counts[i] = _buckets[i].sum();
+			count += counts[i];
+		}
+		if(count == 0) return 0;
+
+		final long rank = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; ++i) {
+			seen += counts[i];
+			if(seen >= rank) return getBucketUpperBound(i);
+		}
+		return getBucketUpperBound(BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Forget all of the latencies recorded
+	 */
+	public void reset() {
+		for(final LongAdder bucket : _buckets) {
+			bucket.reset();
+		}
+		_count.reset();
+		_totalNanos.reset();
+	}
+
+	@Override
+	public String toString() {
+		final long count = getCount();
+		return "count=" + count +
+				" mean=" + (count == 0 ? 0 : getTotalNanos() / count) + "ns" +
+				" p50<=" + getPercentile(50.0) + "ns" +
+				" p99<=" + getPercentile(99.0) + "ns";
+	}
+}
@@ -0,0 +1,123 @@
+package com.liaquay.anatwine.challenge.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Utility for amounts of money held as a whole number of minor units (pence).
+ *
+ * Holding money as a long keeps calculations exact and free of allocation.
+ * Where a calculation cannot be exact, such as taking a percentage, the result
+ * is rounded half up to the nearest penny.
+ */
+public final class Money {
+
+	/**
+	 * The number of decimal places of a major unit (pounds) held in the minor units
+	 */
+	public static final int SCALE = 2;
+
+	/**
+	 * The number of minor units in a major unit
+	 */
+	public static final long MINOR_UNITS_PER_MAJOR_UNIT = 100;
+
+	/**
+	 * Percentages are worked to this many decimal places, e.g. 12.5%
+	 */
+	private static final long PERCENTAGE_SCALE = 100;
+
+	private Money() {
+	}
+
+	/**
+	 * Convert an amount in pounds to pence, rounding half up to the nearest penny.
+	 *
+	 * @param amount an amount in pounds, e.g. 12.50
+	 * @return the amount in pence, e.g. 1250
+	 */
+	public static long fromMajorUnits(final BigDecimal amount) {
+		return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+	}
+
+	/**
+	 * Convert an amount in pounds written as text to pence, rounding half up to the nearest penny.
+	 *
+	 * Plain decimals such as 12.5 are converted without allocating, which matters when
+	 * loading millions of prices. Anything else, such as an exponent, is left to {@link BigDecimal}.
+	 *
+	 * @param chars the characters holding the amount
+	 * @param offset the position of the first character of the amount
+	 * @param length the number of characters in the amount
+	 * @return the amount in pence
+	 */
+	public static long parseMajorUnits(final char[] chars, final int offset, final int length) {
+		final int end = offset + length;
+		int position = offset;
+		final boolean negative = position < end && chars[position] == '-';
+		if(negative) {
+			++position;
+		}
+
+		long amount = 0;
+		int integerDigits = 0;
+		while(position < end && chars[position] >= '0' && chars[position] <= '9') {
+			amount = amount * 10 + (chars[position++] - '0');
+			++integerDigits;
+		}
+
+		int decimalDigits = 0;
+		boolean roundUp = false;
+		if(position < end && chars[position] == '.') {
+			++position;
+			while(position < end && chars[position] >= '0' && chars[position] <= '9') {
+				if(decimalDigits < SCALE) {
+					amount = amount * 10 + (chars[position] - '0');
+				}
+				else if(decimalDigits == SCALE) {
+					roundUp = chars[position] >= '5';
+				}
+				++position;
+				++decimalDigits;
+			}
+		}
+
+		// Fall back for anything unusual, or too long to be sure of not overflowing
+		if(position != end || integerDigits == 0 || integerDigits > 16) {
+			return fromMajorUnits(new BigDecimal(chars, offset, length));
+		}
+
+		for(int i = decimalDigits; i < SCALE; ++i) {
+			amount *= 10;
+		}
+		if(roundUp) {
+			++amount;
+		}
+		return negative ? -amount : amount;
+	}
+
+	/**
+	 * Convert an amount in pence to pounds
+	 *
+	 * @param amount an amount in pence, e.g. 1250
+	 * @return the amount in pounds, e.g. 12.50
+	 */
+	public static BigDecimal toMajorUnits(final long amount) {
+		return BigDecimal.valueOf(amount, SCALE);
+	}
+
+	/**
+	 * Take a percentage of an amount, rounding half up to the nearest penny.
+	 *
+	 * The percentage is used to two decimal places.
+	 *
+	 * @param amount an amount in pence
+	 * @param percentage the percentage to take, e.g. 10.0
+	 * @return the percentage of the amount in pence
+	 */
+	public static long percentageOf(final long amount, final double percentage) {
+		final long scaledPercentage = Math.round(percentage * PERCENTAGE_SCALE);
+		final long divisor = 100 * PERCENTAGE_SCALE;
+		return Math.floorDiv(Math.multiplyExact(amount, scaledPercentage) + divisor / 2, divisor);
+	}
+}
@@ -1,6 +1,7 @@
 package com.liaquay.anatwine.challenge.basket;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Map;
 
@@ -8,6 +9,7 @@ import org.junit.Test;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
 
 /**
  * Tests for the basket service's model of a basket
@@ -47,4 +49,103 @@ public class BasketTest {
 				0,
 				basket.getQuantity("Caterpillars"));
 	}
+
+	/**
+	 * Check adding a product makes a new basket and leaves the original unchanged
+	 */
+	@Test
+	public void testWithProduct() {
+
+		final Basket basket = new Basket(ImmutableMap.of("Tie", 1));
+		final Basket moreTies = basket.withProduct("Tie", 2);
+		final Basket withShirt = moreTies.withProduct("Shirt", 1);
+
+		assertEquals(
+				"The original basket should be unchanged",
+				1,
+				basket.getQuantity("Tie"));
+
+		assertEquals(
+				"The ties should have been added to the existing ties",
+				3,
+				moreTies.getQuantity("Tie"));
+
+		assertEquals(
+				"The new product should have been added",
+				new Basket(ImmutableMap.of("Tie", 3, "Shirt", 1)),
+				withShirt);
+
+		assertEquals(
+				"Equal baskets should have equal hash codes",
+				new Basket(ImmutableMap.of("Shirt", 1, "Tie", 3)).hashCode(),
+				withShirt.hashCode());
+	}
+
+	/**
+	 * Check the basket keyed by product id matches the basket keyed by name
+	 */
+	@Test
+	public void testIndexed() {
+
+		final ProductDictionary dictionary = new ProductDictionary();
+		dictionary.getId("Shirt");
+		dictionary.getId("Tie");
+		dictionary.getId("Trousers");
+
+		final Basket basket = new Basket(ImmutableMap.of("Tie", 1, "Trousers", 2, "Shirt", 3));
+		final IndexedBasket indexed = basket.getIndexed(dictionary);
+
+		assertEquals(
+				"The indexed basket should hold each product",
+				3,
+				indexed.size());
+
+		for(final String productName : basket.getProductNames()) {
+			assertEquals(
+					"The indexed basket should hold the same quantity of each product",
+					basket.getQuantity(productName),
+					indexed.getQuantity(dictionary.getId(productName)));
+		}
+
+		for(int i = 1; i < indexed.size(); ++i) {
+			assertTrue(
+					"The products should be in ascending order of id",
+					indexed.getProductIds()[i - 1] < indexed.getProductIds()[i]);
+		}
+	}
+
+	/**
+	 * Check products without ids are left out of the indexed basket without being given ids
+	 */
+	@Test
+	public void testIndexedUnknownProducts() {
+
+		final ProductDictionary dictionary = new ProductDictionary();
+		final int tieId = dictionary.getId("Tie");
+
+		final Basket basket = new Basket(ImmutableMap.of("Tie", 1, "Cravat", 2));
+		final IndexedBasket indexed = basket.getIndexed(dictionary);
+
+		assertEquals(
+				"Only the product with an id should be indexed",
+				1,
+				indexed.size());
+
+		assertEquals(
+				"The product with an id should keep its quantity",
+				1,
+				indexed.getQuantity(tieId));
+
+		assertEquals(
+				"Indexing a basket should not assign ids",
+				-1,
+				dictionary.findId("Cravat"));
+
+		final int cravatId = dictionary.getId("Cravat");
+
+		assertEquals(
+				"A product given an id since should be indexed",
+				2,
+				basket.getIndexed(dictionary).getQuantity(cravatId));
+	}
 }
@@ -1,11 +1,17 @@
 package com.liaquay.anatwine.challenge.basket.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.liaquay.anatwine.challenge.basket.Basket;
 import com.liaquay.anatwine.challenge.basket.BasketService;
 
 /**
@@ -90,4 +96,75 @@ public class BasketServiceImplTest {
 				0,
 				basketService.getCurrentBasket().getQuantity("Trousers"));
 	}
+
+	/**
+	 * Check an unchanged basket is not copied for each snapshot
+	 */
+	@Test
+	public void testSnapshotOfUnchangedBasket() {
+		final BasketService basketService = createBasketService();
+
+		basketService.add("Tie");
+		final Basket basket = basketService.getCurrentBasket();
+
+		assertSame(
+				"The same snapshot should be returned while the basket is unchanged",
+				basket,
+				basketService.getCurrentBasket());
+
+		basketService.add("Tie");
+
+		assertNotSame(
+				"A new snapshot should be returned once the basket changes",
+				basket,
+				basketService.getCurrentBasket());
+
+		assertEquals(
+				"The earlier snapshot should be unchanged",
+				1,
+				basket.getQuantity("Tie"));
+	}
+
+	/**
+	 * Check products can be added in bulk
+	 */
+	@Test
+	public void testBulkAdd() {
+		final BasketService basketService = createBasketService();
+
+		basketService.add("Tie", 3);
+		basketService.addAll(ImmutableMap.of("Tie", 1, "Shirt", 2));
+		basketService.addAll(Arrays.asList("Shirt", "Trousers", "Shirt"));
+
+		assertEquals(
+				"The basket should contain every tie added",
+				4,
+				basketService.getCurrentBasket().getQuantity("Tie"));
+
+		assertEquals(
+				"The basket should contain every shirt added",
+				4,
+				basketService.getCurrentBasket().getQuantity("Shirt"));
+
+		assertEquals(
+				"The basket should contain every trouser added",
+				1,
+				basketService.getCurrentBasket().getQuantity("Trousers"));
+
+		final Basket basket = basketService.getCurrentBasket();
+		basketService.add("Tie", 0);
+
+		assertSame(
+				"Adding nothing should not change the basket",
+				basket,
+				basketService.getCurrentBasket());
+	}
+
+	/**
+	 * Check a negative quantity is refused
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeQuantity() {
+		createBasketService().add("Tie", -1);
+	}
 }
@@ -0,0 +1,196 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+import com.liaquay.anatwine.challenge.clock.ClockService;
+import com.liaquay.anatwine.challenge.customer.impl.ThreadLocalCustomerServiceImpl;
+
+/**
+ * Test our basket implementation that holds baskets within a memory budget
+ */
+public class BoundedBasketServiceImplTest {
+
+	private static final long IDLE_TIMEOUT = 60000;
+
+	/**
+	 * Roughly the memory used by three small baskets
+	 */
+	private static final long MEMORY_BUDGET = 1000;
+
+	private final ThreadLocalCustomerServiceImpl _customerService = new ThreadLocalCustomerServiceImpl();
+
+	private long _time = 0;
+
+	private final ClockService _clockService = new ClockService() {
+		@Override
+		public Date now() {
+			return new Date(_time);
+		}
+	};
+
+	/**
+	 * Check baskets not used for longer than the idle timeout are thrown away
+	 */
+	@Test
+	public void testIdleBasketsEvicted() {
+		final BoundedBasketServiceImpl basketService = new BoundedBasketServiceImpl(_customerService, _clockService, MEMORY_BUDGET, IDLE_TIMEOUT, 4096);
+
+		_customerService.setCurrentCustomerId("alice");
+		basketService.add("Tie");
+
+		_time = IDLE_TIMEOUT / 2;
+		_customerService.setCurrentCustomerId("bob");
+		basketService.add("Shirt");
+
+		_time = IDLE_TIMEOUT + 1;
+		_customerService.setCurrentCustomerId("carol");
+		basketService.add("Jacket");
+
+		assertEquals("Alice's idle basket should have been thrown away", 1, basketService.getEvictionCount());
+		assertEquals("Bob and Carol's baskets should remain", 2, basketService.getResidentCount());
+
+		_customerService.setCurrentCustomerId("alice");
+		assertEquals("Alice's basket should be empty", 0, basketService.getCurrentBasket().getQuantity("Tie"));
+		_customerService.setCurrentCustomerId("bob");
+		assertEquals("Bob's basket should be kept", 1, basketService.getCurrentBasket().getQuantity("Shirt"));
+	}
+
+	/**
+	 * Check baskets over the memory budget are moved off the heap and brought back
+	 */
+	@Test
+	public void testSpillOffHeap() {
+		final BoundedBasketServiceImpl basketService = new BoundedBasketServiceImpl(_customerService, _clockService, MEMORY_BUDGET, IDLE_TIMEOUT, 4096);
+
+		for(int i = 0; i < 10; ++i) {
+			_time = i;
+			_customerService.setCurrentCustomerId("customer" + i);
+			basketService.add("Tie", i + 1);
+			basketService.add("Shirt");
+		}
+
+		assertTrue("The baskets on the heap should be within the budget", basketService.getResidentBytes() <= MEMORY_BUDGET);
+		assertEquals("Every basket should be on or off the heap", 10, basketService.getResidentCount() + basketService.getOffHeapCount());
+		assertTrue("Some baskets should have been moved off the heap", basketService.getSpillCount() > 0);
+		assertTrue("The baskets off the heap should use some memory", basketService.getOffHeapBytes() > 0);
+		assertEquals("No baskets should have been thrown away", 0, basketService.getEvictionCount());
+
+		for(int i = 0; i < 10; ++i) {
+			_customerService.setCurrentCustomerId("customer" + i);
+			assertEquals("Each basket should be brought back intact", i + 1, basketService.getCurrentBasket().getQuantity("Tie"));
+			assertEquals("Each basket should be brought back intact", 1, basketService.getCurrentBasket().getQuantity("Shirt"));
+		}
+		assertEquals("Every basket should be back on the heap", 0, basketService.getOffHeapCount());
+
+		_customerService.setCurrentCustomerId("customer0");
+		basketService.add("Tie");
+		assertEquals("A basket brought back should still change", 2, basketService.getCurrentBasket().getQuantity("Tie"));
+	}
+
+	/**
+	 * Check the characters of product names count towards the memory budget
+	 */
+	@Test
+	public void testLongNamesSpill() {
+		final BoundedBasketServiceImpl basketService = new BoundedBasketServiceImpl(_customerService, _clockService, MEMORY_BUDGET, IDLE_TIMEOUT, 4096);
+		final String longName = Strings.repeat("Tie", 80);
+
+		_customerService.setCurrentCustomerId("alice");
+		basketService.add(longName);
+		_time = 1;
+		_customerService.setCurrentCustomerId("bob");
+		basketService.add(longName);
+
+		assertEquals("A basket of long names should have been moved off the heap", 1, basketService.getSpillCount());
+		assertTrue("The baskets on the heap should be within the budget", basketService.getResidentBytes() <= MEMORY_BUDGET);
+
+		_customerService.setCurrentCustomerId("alice");
+		assertEquals("The basket should be brought back intact", 1, basketService.getCurrentBasket().getQuantity(longName));
+	}
+
+	/**
+	 * Check idle baskets are found a few at a time as baskets change, and all at once by a sweep
+	 */
+	@Test
+	public void testIdleSweepInSlices() {
+		final int customers = BoundedBasketServiceImpl.IDLE_SWEEP_SLICE * 3;
+		final BoundedBasketServiceImpl basketService = new BoundedBasketServiceImpl(_customerService, _clockService, Long.MAX_VALUE, IDLE_TIMEOUT, 0);
+		for(int i = 0; i < customers; ++i) {
+			_customerService.setCurrentCustomerId("customer" + i);
+			basketService.add("Tie");
+		}
+
+		_time = IDLE_TIMEOUT + 1;
+		_customerService.setCurrentCustomerId("active");
+		basketService.add("Tie");
+		final long firstSlice = basketService.getEvictionCount();
+		assertTrue(
+				"A change should check only a slice of the baskets",
+				firstSlice > 0 && firstSlice <= BoundedBasketServiceImpl.IDLE_SWEEP_SLICE);
+
+		basketService.add("Shirt");
+		assertTrue(
+				"The next change should check the next slice",
+				basketService.getEvictionCount() > firstSlice && basketService.getEvictionCount() <= 2 * BoundedBasketServiceImpl.IDLE_SWEEP_SLICE);
+
+		basketService.sweep();
+		assertEquals("A sweep should find every idle basket", customers, basketService.getEvictionCount());
+		assertEquals("The active basket should remain", 1, basketService.getResidentCount());
+	}
+
+	/**
+	 * Check baskets over the memory budget are thrown away when there is no room off the heap
+	 */
+	@Test
+	public void testEvictedOverBudget() {
+		final BoundedBasketServiceImpl withoutOffHeap = new BoundedBasketServiceImpl(_customerService, _clockService, MEMORY_BUDGET, IDLE_TIMEOUT, 0);
+		final BoundedBasketServiceImpl smallOffHeap = new BoundedBasketServiceImpl(_customerService, _clockService, MEMORY_BUDGET, IDLE_TIMEOUT, 16);
+
+		for(int i = 0; i < 10; ++i) {
+			_time = i;
+			_customerService.setCurrentCustomerId("customer" + i);
+			withoutOffHeap.add("Tie");
+			smallOffHeap.add("Tie");
+		}
+
+		assertTrue("The baskets on the heap should be within the budget", withoutOffHeap.getResidentBytes() <= MEMORY_BUDGET);
+		assertEquals("Baskets not on the heap should have been thrown away", 10 - withoutOffHeap.getResidentCount(), withoutOffHeap.getEvictionCount());
+
+		assertEquals(
+				"Baskets that did not fit off the heap should have been thrown away",
+				10 - smallOffHeap.getResidentCount() - smallOffHeap.getOffHeapCount(),
+				smallOffHeap.getEvictionCount());
+		assertTrue("The oldest baskets should have been thrown away", smallOffHeap.getEvictionCount() > 0);
+		assertTrue("The store off the heap should stay within its capacity", smallOffHeap.getOffHeapBytes() <= 16);
+	}
+
+	/**
+	 * Check a refused change leaves a basket and its memory unchanged
+	 */
+	@Test
+	public void testRefusedChange() {
+		final BoundedBasketServiceImpl basketService = new BoundedBasketServiceImpl(_customerService, _clockService, MEMORY_BUDGET, IDLE_TIMEOUT, 4096);
+		_customerService.setCurrentCustomerId("alice");
+		basketService.add("Tie");
+		final long residentBytes = basketService.getResidentBytes();
+
+		try {
+			basketService.add("Tie", -1);
+			fail("Removing products should be refused");
+		}
+		catch (final IllegalArgumentException e) {
+			// Expected
+		}
+
+		assertEquals("The memory used should not change", residentBytes, basketService.getResidentBytes());
+		assertEquals("The basket should not change", 1, basketService.getCurrentBasket().getQuantity("Tie"));
+	}
+}
@@ -0,0 +1,101 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.customer.impl.ThreadLocalCustomerServiceImpl;
+
+/**
+ * Test our in memory basket implementation for many customers
+ */
+public class ConcurrentBasketServiceImplTest {
+
+	private final ThreadLocalCustomerServiceImpl _customerService = new ThreadLocalCustomerServiceImpl();
+	private final ConcurrentBasketServiceImpl _basketService = new ConcurrentBasketServiceImpl(_customerService);
+
+	/**
+	 * Check each customer has their own basket
+	 */
+	@Test
+	public void testBasketsArePerCustomer() {
+		_customerService.setCurrentCustomerId("alice");
+		_basketService.add("Tie");
+		_basketService.add("Tie");
+
+		_customerService.setCurrentCustomerId("bob");
+		_basketService.add("Trousers");
+
+		assertEquals(
+				"Bob's basket should only contain his products",
+				Sets.newHashSet("Trousers"),
+				_basketService.getCurrentBasket().getProductNames());
+
+		_basketService.clear();
+
+		_customerService.setCurrentCustomerId("alice");
+		assertEquals(
+				"Alice's basket should not be cleared with Bob's",
+				2,
+				_basketService.getCurrentBasket().getQuantity("Tie"));
+
+		_customerService.setCurrentCustomerId("carol");
+		assertTrue(
+				"A new customer should have an empty basket",
+				_basketService.getCurrentBasket().getProductNames().isEmpty());
+
+		assertEquals(
+				"Only customers who have added products should hold baskets",
+				2,
+				_basketService.getBasketCount());
+	}
+
+	/**
+	 * Check no additions are lost and snapshots are consistent when many threads add to the same basket
+	 */
+	@Test
+	public void testConcurrentAdditions() throws Exception {
+		final int threads = 4;
+		final int additions = 10000;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> results = new ArrayList<>();
+			for(int t = 0; t < threads; ++t) {
+				results.add(executor.submit(() -> {
+					_customerService.setCurrentCustomerId("alice");
+					for(int i = 0; i < additions; ++i) {
+						_basketService.add("Shirt");
+						_basketService.add("Tie");
+						final Basket basket = _basketService.getCurrentBasket();
+						// Ties are always added after shirts so a consistent snapshot never has more ties
+						if(basket.getQuantity("Tie") > basket.getQuantity("Shirt")) {
+							throw new AssertionError("Inconsistent snapshot " + basket.getQuantity("Tie") + " > " + basket.getQuantity("Shirt"));
+						}
+					}
+					return null;
+				}));
+			}
+			for(final Future<?> result : results) {
+				result.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		_customerService.setCurrentCustomerId("alice");
+		assertEquals(
+				"Every shirt should have been counted",
+				threads * additions,
+				_basketService.getCurrentBasket().getQuantity("Shirt"));
+	}
+}
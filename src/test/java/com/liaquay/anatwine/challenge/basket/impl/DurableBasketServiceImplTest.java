@@ -0,0 +1,266 @@
+package com.liaquay.anatwine.challenge.basket.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.customer.impl.ThreadLocalCustomerServiceImpl;
+
+/**
+ * Test the basket implementation that saves baskets to disk
+ */
+public class DurableBasketServiceImplTest {
+
+	@Rule
+	public final TemporaryFolder _folder = new TemporaryFolder();
+
+	private final ThreadLocalCustomerServiceImpl _customerService = new ThreadLocalCustomerServiceImpl();
+
+	/**
+	 * Factory method for the basket service
+	 *
+	 * @param maximumLogSize the size of log at which a snapshot is taken
+	 * @return the basket service
+	 */
+	private DurableBasketServiceImpl createBasketService(final long maximumLogSize) {
+		return new DurableBasketServiceImpl(_customerService, _folder.getRoot().toPath(), true, maximumLogSize);
+	}
+
+	/**
+	 * Check baskets survive a restart
+	 */
+	@Test
+	public void testRestart() throws IOException {
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("alice");
+			basketService.add("Tie");
+			basketService.addAll(ImmutableMap.of("Shirt", 2, "Tie", 1));
+
+			_customerService.setCurrentCustomerId("bob");
+			basketService.add("Trousers", 3);
+			basketService.clear();
+			basketService.add("Jacket");
+		}
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("alice");
+			assertEquals(
+					"Alice's basket should have been read back",
+					ImmutableMap.of("Tie", 2, "Shirt", 2),
+					toMap(basketService));
+
+			_customerService.setCurrentCustomerId("bob");
+			assertEquals(
+					"Bob's basket should have been read back after being cleared",
+					ImmutableMap.of("Jacket", 1),
+					toMap(basketService));
+
+			basketService.add("Tie");
+		}
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("bob");
+			assertEquals(
+					"Changes after a restart should follow on from the replayed log",
+					ImmutableMap.of("Jacket", 1, "Tie", 1),
+					toMap(basketService));
+		}
+	}
+
+	/**
+	 * Check baskets survive the log being replaced with snapshots
+	 */
+	@Test
+	public void testSnapshots() throws IOException {
+		try (final DurableBasketServiceImpl basketService = createBasketService(256)) {
+			for(int i = 0; i < 1000; ++i) {
+				_customerService.setCurrentCustomerId("customer" + (i % 10));
+				basketService.add("Tie");
+				if(i % 100 == 0) {
+					basketService.clear();
+				}
+			}
+		}
+
+		assertTrue(
+				"The log should have been kept small by taking snapshots",
+				Files.size(_folder.getRoot().toPath().resolve("baskets.log")) < 1024);
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(256)) {
+			_customerService.setCurrentCustomerId("customer0");
+			assertEquals(
+					"The basket cleared last should only hold later additions",
+					9,
+					basketService.getCurrentBasket().getQuantity("Tie"));
+
+			_customerService.setCurrentCustomerId("customer5");
+			assertEquals(
+					"Every other basket should hold every addition",
+					100,
+					basketService.getCurrentBasket().getQuantity("Tie"));
+		}
+	}
+
+	/**
+	 * Check a record cut short by a crash is ignored
+	 */
+	@Test
+	public void testTornLog() throws IOException {
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("alice");
+			basketService.add("Tie");
+		}
+
+		final Path log = _folder.getRoot().toPath().resolve("baskets.log");
+		Files.write(log, new byte[] {0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("alice");
+			basketService.add("Shirt");
+		}
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("alice");
+			assertEquals(
+					"The torn record should be dropped and later changes kept",
+					ImmutableMap.of("Tie", 1, "Shirt", 1),
+					toMap(basketService));
+		}
+	}
+
+	/**
+	 * Check a torn record whose length is larger than the rest of the log is ignored
+	 */
+	@Test
+	public void testTornLength() throws IOException {
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("alice");
+			basketService.add("Tie");
+		}
+
+		final Path log = _folder.getRoot().toPath().resolve("baskets.log");
+		Files.write(log, new byte[] {0x7f, -1, -1, -1, 1, 2, 3}, StandardOpenOption.APPEND);
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId("alice");
+			assertEquals(
+					"The torn record should be dropped",
+					ImmutableMap.of("Tie", 1),
+					toMap(basketService));
+		}
+	}
+
+	/**
+	 * Check customer ids and product names too long for a modified UTF-8 string are saved
+	 */
+	@Test
+	public void testLongStrings() throws IOException {
+		final String customerId = Strings.repeat("c", 70000);
+		final String productName = Strings.repeat("\u00e9", 40000);
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(1)) {
+			_customerService.setCurrentCustomerId(customerId);
+			basketService.add(productName);
+
+			_customerService.setCurrentCustomerId("alice");
+			basketService.add("Tie");
+		}
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE)) {
+			_customerService.setCurrentCustomerId(customerId);
+			assertEquals(
+					"The basket with long strings should have been read back",
+					ImmutableMap.of(productName, 1),
+					toMap(basketService));
+
+			_customerService.setCurrentCustomerId("alice");
+			basketService.add("Shirt");
+			assertEquals(
+					"Later changes should still be saved",
+					ImmutableMap.of("Tie", 1, "Shirt", 1),
+					toMap(basketService));
+		}
+	}
+
+	/**
+	 * Check a change after the service is closed is refused rather than left waiting
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testChangeAfterClose() throws IOException {
+		final DurableBasketServiceImpl basketService = createBasketService(Long.MAX_VALUE);
+		basketService.close();
+
+		_customerService.setCurrentCustomerId("alice");
+		basketService.add("Tie");
+	}
+
+	/**
+	 * Check no additions are lost when many threads add at once
+	 */
+	@Test
+	public void testConcurrentAdditions() throws Exception {
+		final int threads = 4;
+		final int additions = 500;
+		try (final DurableBasketServiceImpl basketService = createBasketService(4096)) {
+			final ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				final List<Future<?>> results = new ArrayList<>();
+				for(int t = 0; t < threads; ++t) {
+					final String customerId = "customer" + t;
+					results.add(executor.submit(() -> {
+						_customerService.setCurrentCustomerId(customerId);
+						for(int i = 0; i < additions; ++i) {
+							basketService.add("Tie");
+							basketService.add("Shirt", 2);
+						}
+						return null;
+					}));
+				}
+				for(final Future<?> result : results) {
+					result.get();
+				}
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+
+		try (final DurableBasketServiceImpl basketService = createBasketService(4096)) {
+			for(int t = 0; t < threads; ++t) {
+				_customerService.setCurrentCustomerId("customer" + t);
+				assertEquals(
+						"Every addition should have been saved",
+						ImmutableMap.of("Tie", additions, "Shirt", 2 * additions),
+						toMap(basketService));
+			}
+		}
+	}
+
+	/**
+	 * Get the current basket as a map for comparison
+	 *
+	 * @param basketService the basket service
+	 * @return the names of products mapped to their quantity
+	 */
+	private static ImmutableMap<String, Integer> toMap(final DurableBasketServiceImpl basketService) {
+		final ImmutableMap.Builder<String, Integer> products = ImmutableMap.builder();
+		basketService.getCurrentBasket().getProductNames()
+				.forEach(productName -> products.put(productName, basketService.getCurrentBasket().getQuantity(productName)));
+		return products.build();
+	}
+}
@@ -19,7 +19,7 @@ public class AppliedDiscountTest {
 
 		final String description = "description";
 		final int applicationCount = 1;
-		final double discountPerApplication = 21.3;
+		final long discountPerApplication = 2130;
 
 		final AppliedDiscount appliedDiscount = new AppliedDiscount(
 				description,
@@ -29,8 +29,7 @@ public class AppliedDiscountTest {
 		assertEquals(
 			"The applied discount should be the same as the one supplied",
 			discountPerApplication,
-			appliedDiscount.getTotalDiscount(),
-			0.001);
+			appliedDiscount.getTotalDiscount());
 
 		assertEquals(
 				"The applied discount should format correctly as a string",
@@ -46,20 +45,19 @@ public class AppliedDiscountTest {
 
 		final String description = "description";
 		final int applicationCount = 2;
-		final double discountPerApplication = 21.3;
+		final long discountPerApplication = 2130;
 
 		final AppliedDiscount appliedDiscount = new AppliedDiscount(
 				description,
 				applicationCount,
 				discountPerApplication);
 
-		final double expectedDiscount = applicationCount * discountPerApplication;
+		final long expectedDiscount = applicationCount * discountPerApplication;
 
 		assertEquals(
 			"The applied discount should mulitpled by the number of applications",
 			expectedDiscount,
-			appliedDiscount.getTotalDiscount(),
-			0.001);
+			appliedDiscount.getTotalDiscount());
 
 		assertEquals(
 				"The applied discount should format correctly as a string",
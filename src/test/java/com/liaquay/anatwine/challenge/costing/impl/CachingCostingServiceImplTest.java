@@ -0,0 +1,161 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.BasketService;
+import com.liaquay.anatwine.challenge.costing.Costing;
+import com.liaquay.anatwine.challenge.costing.CostingService;
+import com.liaquay.anatwine.challenge.discount.DiscountService;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * Tests for the costing service that caches costings
+ */
+public class CachingCostingServiceImplTest {
+
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	private final CostingService _costingService = mock(CostingService.class);
+	private final BasketService _basketService = mock(BasketService.class);
+	private final ProductCatalogService _productCatalogService = mock(ProductCatalogService.class);
+	private final DiscountService _discountService = mock(DiscountService.class);
+
+	private final CachingCostingServiceImpl _cachingCostingService = new CachingCostingServiceImpl(
+			_costingService,
+			_basketService,
+			_productCatalogService,
+			_discountService,
+			100);
+
+	private final Basket _basket = new Basket(ImmutableMap.of("Tie", 1, "Shirt", 2));
+
+	@Before
+	public void setUp() {
+		when(_productCatalogService.getVersion()).thenReturn(1L);
+		when(_discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(Collections.emptyList(), DICTIONARY));
+		when(_costingService.getCosting(new Basket(ImmutableMap.of("Tie", 1, "Shirt", 2)))).thenAnswer(
+				invocation -> new Costing(Collections.emptyMap(), Collections.emptyList(), 3450, 3450));
+	}
+
+	/**
+	 * Check an identical basket is costed once
+	 */
+	@Test
+	public void testIdenticalBasketsAreCostedOnce() {
+
+		final Costing costing = _cachingCostingService.getCosting(_basket);
+
+		assertSame(
+				"An identical basket should get the cached costing",
+				costing,
+				_cachingCostingService.getCosting(new Basket(ImmutableMap.of("Shirt", 2, "Tie", 1))));
+
+		verify(_costingService, times(1)).getCosting(_basket);
+
+		assertEquals(
+				"There should have been one hit",
+				1,
+				_cachingCostingService.getStats().hitCount());
+
+		assertEquals(
+				"There should have been one miss",
+				1,
+				_cachingCostingService.getStats().missCount());
+	}
+
+	/**
+	 * Check costings are not reused once the catalog changes
+	 */
+	@Test
+	public void testCatalogChangeInvalidates() {
+
+		final Costing costing = _cachingCostingService.getCosting(_basket);
+
+		when(_productCatalogService.getVersion()).thenReturn(2L);
+
+		assertNotSame(
+				"The basket should have been costed again",
+				costing,
+				_cachingCostingService.getCosting(_basket));
+
+		assertEquals(
+				"Only the new costing should be cached",
+				1,
+				_cachingCostingService.getSize());
+	}
+
+	/**
+	 * Check a request that read the catalog version before a change does not clear the cache again
+	 */
+	@Test
+	public void testStaleRequestDoesNotInvalidate() {
+
+		when(_productCatalogService.getVersion()).thenReturn(2L);
+		final Costing costing = _cachingCostingService.getCosting(_basket);
+
+		// The first read of the version is from before the change
+		when(_productCatalogService.getVersion()).thenReturn(1L, 2L);
+		_cachingCostingService.getCosting(_basket);
+
+		assertEquals(
+				"The costing made with the new catalog should still be cached",
+				2,
+				_cachingCostingService.getSize());
+
+		assertSame(
+				"The costing made with the new catalog should be reused",
+				costing,
+				_cachingCostingService.getCosting(_basket));
+	}
+
+	/**
+	 * Check costings are not reused once the discounts change
+	 */
+	@Test
+	public void testDiscountChangeInvalidates() {
+
+		final Costing costing = _cachingCostingService.getCosting(_basket);
+
+		when(_discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(Collections.emptyList(), DICTIONARY));
+
+		assertNotSame(
+				"The basket should have been costed again",
+				costing,
+				_cachingCostingService.getCosting(_basket));
+	}
+
+	/**
+	 * Check the cache is bounded by weight
+	 */
+	@Test
+	public void testCacheIsBounded() {
+
+		for(int i = 0; i < 200; ++i) {
+			final Basket basket = new Basket(ImmutableMap.of("Tie", i + 1));
+			when(_costingService.getCosting(basket)).thenReturn(
+					new Costing(Collections.emptyMap(), Collections.emptyList(), 950, 950));
+			_cachingCostingService.getCosting(basket);
+		}
+
+		assertEquals(
+				"Costings should have been evicted to keep within the maximum weight",
+				50,
+				_cachingCostingService.getSize(),
+				5);
+	}
+}
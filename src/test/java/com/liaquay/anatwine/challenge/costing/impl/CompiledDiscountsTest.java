@@ -0,0 +1,223 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * Tests for the compiled discounts, checking they agree with the mutable basket
+ */
+public class CompiledDiscountsTest {
+
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	private static final String[] PRODUCT_NAMES = {"Jacket", "Trousers", "Shirt", "Tie", "Socks", "Hat"};
+
+	/**
+	 * Get the application counts the mutable basket would produce, indexed as the discounts list
+	 */
+	private int[] applyWithMutableBasket(final Basket basket, final List<PercentageDiscount> discounts) {
+		final MutableBasket mutableBasket = new MutableBasket(basket);
+		final int[] applicationCounts = new int[discounts.size()];
+		for(int i = 0; i < discounts.size(); ++i) {
+			applicationCounts[i] = mutableBasket.applyDiscountExhaustively(discounts.get(i));
+		}
+		return applicationCounts;
+	}
+
+	/**
+	 * Check that multiple offers are applied to the basket.
+	 */
+	@Test
+	public void testMulipleDiscountsAreAppliedExhautively() {
+		final Basket basket = new Basket(ImmutableMap.<String, Integer>builder()
+				.put("Jacket", 1)
+				.put("Trousers", 3)
+				.put("Shirt", 4)
+				.put("Tie", 4)
+				.build());
+
+		final List<PercentageDiscount> discounts = Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY),
+				new PercentageDiscount(ImmutableMap.of(), "Trousers", 10.0, DICTIONARY));
+
+		final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(discounts, DICTIONARY);
+
+		assertArrayEquals(
+				"The correct discounts should have been applied",
+				new int[] {2, 3},
+				compiledDiscounts.applyDiscountsExhaustively(basket));
+	}
+
+	/**
+	 * Check that the scratch-pads are reused by the calling thread
+	 */
+	@Test
+	public void testScratchPadIsReused() {
+		final Basket basket = new Basket(ImmutableMap.of("Tie", 2));
+
+		final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of(), "Tie", 50.0, DICTIONARY)), DICTIONARY);
+
+		assertSame(
+				"The application counts should be reused",
+				compiledDiscounts.applyDiscountsExhaustively(basket),
+				compiledDiscounts.applyDiscountsExhaustively(basket));
+	}
+
+	/**
+	 * Check the compiled discounts match the mutable basket for many random baskets and discounts
+	 */
+	@Test
+	public void testMatchesMutableBasket() {
+		final Random random = new Random(1234);
+
+		for(int trial = 0; trial < 1000; ++trial) {
+			final List<PercentageDiscount> discounts = new ArrayList<>();
+			final int discountCount = random.nextInt(6);
+			for(int d = 0; d < discountCount; ++d) {
+				final Map<String, Integer> conditionalProducts = new HashMap<>();
+				final int conditionCount = random.nextInt(3);
+				for(int c = 0; c < conditionCount; ++c) {
+					conditionalProducts.put(PRODUCT_NAMES[random.nextInt(PRODUCT_NAMES.length)], 1 + random.nextInt(3));
+				}
+				discounts.add(new PercentageDiscount(
+						conditionalProducts,
+						PRODUCT_NAMES[random.nextInt(PRODUCT_NAMES.length)],
+						5.0 * (1 + random.nextInt(10)), DICTIONARY));
+			}
+
+			final Map<String, Integer> products = new HashMap<>();
+			for(final String productName : PRODUCT_NAMES) {
+				if(random.nextBoolean()) {
+					products.put(productName, random.nextInt(12));
+				}
+			}
+			final Basket basket = new Basket(products);
+
+			assertArrayEquals(
+					"The compiled discounts should agree with the mutable basket",
+					applyWithMutableBasket(basket, discounts),
+					new CompiledDiscounts(discounts, DICTIONARY).applyDiscountsExhaustively(basket));
+		}
+	}
+
+	/**
+	 * Check the compiled discounts recognise the list they were compiled from
+	 */
+	@Test
+	public void testIsCompiledFrom() {
+		final List<PercentageDiscount> discounts = Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY));
+
+		final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(discounts, DICTIONARY);
+
+		assertTrue(
+				"Should recognise an equal list of discounts",
+				compiledDiscounts.isCompiledFrom(Lists.newArrayList(
+						new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY)), DICTIONARY));
+
+		assertFalse(
+				"Should not recognise discounts with ids from another dictionary",
+				compiledDiscounts.isCompiledFrom(discounts, new ProductDictionary()));
+
+		assertFalse(
+				"Should not recognise a different list of discounts",
+				compiledDiscounts.isCompiledFrom(Lists.newArrayList(
+						new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 40.0, DICTIONARY)), DICTIONARY));
+	}
+
+	/**
+	 * Check discounts are grouped into components connected through shared products
+	 */
+	@Test
+	public void testComponents() {
+		final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY),
+				new PercentageDiscount(ImmutableMap.of(), "Trousers", 10.0, DICTIONARY),
+				new PercentageDiscount(ImmutableMap.of("Jacket", 1), "Socks", 20.0, DICTIONARY),
+				new PercentageDiscount(ImmutableMap.of("Tie", 1), "Socks", 20.0, DICTIONARY)), DICTIONARY);
+
+		assertEquals(
+				"The discounts sharing products should be in one component",
+				2,
+				compiledDiscounts.getComponentCount());
+
+		assertEquals(
+				"Discounts connected through other discounts should share a component",
+				compiledDiscounts.getComponent(0),
+				compiledDiscounts.getComponent(2));
+
+		assertTrue(
+				"Discounts sharing no products should be in different components",
+				compiledDiscounts.getComponent(0) != compiledDiscounts.getComponent(1));
+	}
+
+	/**
+	 * Check applying components in parallel gives the same result as applying discounts in order
+	 */
+	@Test
+	public void testParallelMatchesSequential() {
+		final Random random = new Random(4321);
+		final ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+
+		for(int trial = 0; trial < 50; ++trial) {
+			final List<PercentageDiscount> discounts = new ArrayList<>();
+			final int familyCount = 1 + random.nextInt(40);
+			for(int d = 0; d < 300; ++d) {
+				final int family = random.nextInt(familyCount);
+				final Map<String, Integer> conditionalProducts = new HashMap<>();
+				final int conditionCount = random.nextInt(3);
+				for(int c = 0; c < conditionCount; ++c) {
+					conditionalProducts.put(family + PRODUCT_NAMES[random.nextInt(PRODUCT_NAMES.length)], 1 + random.nextInt(3));
+				}
+				discounts.add(new PercentageDiscount(
+						conditionalProducts,
+						family + PRODUCT_NAMES[random.nextInt(PRODUCT_NAMES.length)],
+						5.0 * (1 + random.nextInt(10)), DICTIONARY));
+			}
+
+			final Map<String, Integer> products = new HashMap<>();
+			for(int family = 0; family < familyCount; ++family) {
+				for(final String productName : PRODUCT_NAMES) {
+					if(random.nextBoolean()) {
+						products.put(family + productName, random.nextInt(12));
+					}
+				}
+			}
+			final Basket basket = new Basket(products);
+
+			final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(discounts, DICTIONARY);
+			final int[] discountIndexes = IntStream.range(0, discounts.size()).filter(i -> random.nextInt(4) > 0).toArray();
+
+			// The sequential result is in a scratch-pad so is copied before it can be reused
+			final int[] expected = compiledDiscounts.applyDiscountsExhaustively(basket, discountIndexes).clone();
+			final int[] actual = compiledDiscounts.applyDiscountsInParallel(basket, discountIndexes, forkJoinPool, 0);
+			for(final int discountIndex : discountIndexes) {
+				assertEquals(
+						"Applying components in parallel should agree with applying discounts in order",
+						expected[discountIndex],
+						actual[discountIndex]);
+			}
+		}
+		forkJoinPool.shutdown();
+	}
+}
@@ -1,11 +1,23 @@
 package com.liaquay.anatwine.challenge.costing.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -16,11 +28,17 @@ import com.liaquay.anatwine.challenge.basket.Basket;
 import com.liaquay.anatwine.challenge.basket.BasketService;
 import com.liaquay.anatwine.challenge.costing.Costing;
 import com.liaquay.anatwine.challenge.costing.CostingService;
+import com.liaquay.anatwine.challenge.costing.CostingStage;
 import com.liaquay.anatwine.challenge.discount.DiscountService;
 import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
 import com.liaquay.anatwine.challenge.productcatalog.Product;
 import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
 import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+import com.liaquay.anatwine.challenge.productcatalog.StockAllocation;
+import com.liaquay.anatwine.challenge.productcatalog.impl.ProductCatalogServiceSimpleImpl;
+import com.liaquay.anatwine.challenge.productcatalog.impl.StockServiceImpl;
 import com.liaquay.anatwine.challenge.util.CurrencyFormatter;
 
 /**
@@ -28,6 +46,26 @@ import com.liaquay.anatwine.challenge.util.CurrencyFormatter;
  */
 public class CostingServiceImplTest {
 
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	/**
+	 * Mock a product catalog whose bulk lookup returns the products stubbed for single lookups
+	 *
+	 * @return the mock product catalog
+	 */
+	@SuppressWarnings("unchecked")
+	private static ProductCatalogService mockProductCatalogService() {
+		final ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+		when(productCatalogService.getProductsByNames(anyCollectionOf(String.class))).thenAnswer(invocation -> {
+			final Map<String, Product> products = new LinkedHashMap<>();
+			for(final String name : (Collection<String>)invocation.getArguments()[0]) {
+				products.put(name, productCatalogService.getProductByName(name));
+			}
+			return products;
+		});
+		return productCatalogService;
+	}
+
 	/**
 	 * Test the service correctly reports for a basket with no discounts
 	 */
@@ -35,7 +73,7 @@ public class CostingServiceImplTest {
 	public void testBasketWithNoDiscounts() {
 
 		final BasketService basketService = mock(BasketService.class);
-		final ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+		final ProductCatalogService productCatalogService = mockProductCatalogService();
 		final DiscountService discountService = mock(DiscountService.class);
 
 		final CostingService costingService = new CostingServiceImpl(
@@ -51,13 +89,15 @@ public class CostingServiceImplTest {
 
 		when(basketService.getCurrentBasket()).thenReturn(basket);
 
-		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 49.9, ProductStatus.Available));
-		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 35.50, ProductStatus.Available));
-		when(productCatalogService.getProductByName("Shirt")).thenReturn(new Product("Shirt", 12.50, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 4990, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 3550, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Shirt")).thenReturn(new Product("Shirt", 1250, ProductStatus.Available));
+
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(Collections.emptyList(), DICTIONARY));
 
 		final Costing costing = costingService.getCosting();
 
-		final double expectedSubtotal = (49.9 * 1) + (35.50 * 3) + (12.50 * 5);
+		final long expectedSubtotal = (4990 * 1) + (3550 * 3) + (1250 * 5);
 
 		assertEquals(
 				"The subtotal should be correct",
@@ -88,7 +128,7 @@ public class CostingServiceImplTest {
 	public void testBasketWithSingleDiscount() {
 
 		final BasketService basketService = mock(BasketService.class);
-		final ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+		final ProductCatalogService productCatalogService = mockProductCatalogService();
 		final DiscountService discountService = mock(DiscountService.class);
 
 		final CostingService costingService = new CostingServiceImpl(
@@ -102,20 +142,20 @@ public class CostingServiceImplTest {
 				.build());
 
 		final List<PercentageDiscount> discounts = Lists.newArrayList(
-				new PercentageDiscount(Maps.newHashMap(), "Jacket", 10.0));
+				new PercentageDiscount(Maps.newHashMap(), "Jacket", 10.0, DICTIONARY));
 
 		when(basketService.getCurrentBasket()).thenReturn(basket);
 
-		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 49.9, ProductStatus.Available));
-		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 35.50, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 4990, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 3550, ProductStatus.Available));
 
-		when(discountService.getPercentageDiscounts()).thenReturn(discounts);
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(discounts, DICTIONARY));
 
 		final Costing costing = costingService.getCosting();
 
-		final double expectedSubtotal = (49.9 * 1) + (35.50 * 3);
+		final long expectedSubtotal = (4990 * 1) + (3550 * 3);
 
-		final double expectedTotal = (49.9 * 1 * 90 / 100) + (35.50 * 3);
+		final long expectedTotal = (4990 * 1 * 90 / 100) + (3550 * 3);
 
 		assertEquals(
 				"The subtotal should be correct",
@@ -147,7 +187,7 @@ public class CostingServiceImplTest {
 	public void testBasketWithMultipleDiscountsSameProduct() {
 
 		final BasketService basketService = mock(BasketService.class);
-		final ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+		final ProductCatalogService productCatalogService = mockProductCatalogService();
 		final DiscountService discountService = mock(DiscountService.class);
 
 		final CostingService costingService = new CostingServiceImpl(
@@ -161,20 +201,20 @@ public class CostingServiceImplTest {
 				.build());
 
 		final List<PercentageDiscount> discounts = Lists.newArrayList(
-				new PercentageDiscount(Maps.newHashMap(), "Jacket", 10.0));
+				new PercentageDiscount(Maps.newHashMap(), "Jacket", 10.0, DICTIONARY));
 
 		when(basketService.getCurrentBasket()).thenReturn(basket);
 
-		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 49.9, ProductStatus.Available));
-		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 35.50, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 4990, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 3550, ProductStatus.Available));
 
-		when(discountService.getPercentageDiscounts()).thenReturn(discounts);
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(discounts, DICTIONARY));
 
 		final Costing costing = costingService.getCosting();
 
-		final double expectedSubtotal = (49.9 * 2) + (35.50 * 3);
+		final long expectedSubtotal = (4990 * 2) + (3550 * 3);
 
-		final double expectedTotal = (49.9 * 2 * 90 / 100) + (35.50 * 3);
+		final long expectedTotal = (4990 * 2 * 90 / 100) + (3550 * 3);
 
 		assertEquals(
 				"The subtotal should be correct",
@@ -206,7 +246,7 @@ public class CostingServiceImplTest {
 	public void testBasketWithMultipleDiscountsDifferentProducts() {
 
 		final BasketService basketService = mock(BasketService.class);
-		final ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+		final ProductCatalogService productCatalogService = mockProductCatalogService();
 		final DiscountService discountService = mock(DiscountService.class);
 
 		final CostingService costingService = new CostingServiceImpl(
@@ -220,24 +260,24 @@ public class CostingServiceImplTest {
 				.build());
 
 		final List<PercentageDiscount> discounts = Lists.newArrayList(
-				new PercentageDiscount(Maps.newHashMap(), "Jacket", 10.0),
-				new PercentageDiscount(Maps.newHashMap(), "Trousers", 20.0));
+				new PercentageDiscount(Maps.newHashMap(), "Jacket", 10.0, DICTIONARY),
+				new PercentageDiscount(Maps.newHashMap(), "Trousers", 20.0, DICTIONARY));
 
 		when(basketService.getCurrentBasket()).thenReturn(basket);
 
-		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 49.9, ProductStatus.Available));
-		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 35.50, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Jacket")).thenReturn(new Product("Jacket", 4990, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Trousers")).thenReturn(new Product("Trousers", 3550, ProductStatus.Available));
 
-		when(discountService.getPercentageDiscounts()).thenReturn(discounts);
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(discounts, DICTIONARY));
 
 		final Costing costing = costingService.getCosting();
 
-		final double expectedSubtotal = (49.9 * 2) + (35.50 * 3);
+		final long expectedSubtotal = (4990 * 2) + (3550 * 3);
 
-		final double expectedDiscountJacket = 49.9 * 2 * 10 / 100;
-		final double expectedDiscountTrousers = 35.50 * 3 * 20 / 100;
+		final long expectedDiscountJacket = 4990 * 2 * 10 / 100;
+		final long expectedDiscountTrousers = 3550 * 3 * 20 / 100;
 
-		final double expectedTotal = expectedSubtotal - expectedDiscountJacket - expectedDiscountTrousers;
+		final long expectedTotal = expectedSubtotal - expectedDiscountJacket - expectedDiscountTrousers;
 
 		assertEquals(
 				"The subtotal should be correct",
@@ -262,4 +302,214 @@ public class CostingServiceImplTest {
 				"Total: " + CurrencyFormatter.format(expectedTotal) + "\n",
 				costing.toString());
 	}
+
+	/**
+	 * Test a batch of baskets is costed in parallel with the results in the same order as the baskets
+	 */
+	@Test
+	public void testBatchCosting() {
+
+		final BasketService basketService = mock(BasketService.class);
+		final ProductCatalogService productCatalogService = new ProductCatalogServiceSimpleImpl();
+		final DiscountService discountService = mock(DiscountService.class);
+
+		final ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+
+		final CostingService costingService = new CostingServiceImpl(
+				basketService,
+				productCatalogService,
+				discountService,
+				forkJoinPool);
+
+		final List<PercentageDiscount> discounts = Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY),
+				new PercentageDiscount(Maps.newHashMap(), "Trousers", 10.0, DICTIONARY));
+
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(discounts, DICTIONARY));
+
+		final String[] productNames = {"Jacket", "Trousers", "Shirt", "Tie", "Socks"};
+		final Random random = new Random(99);
+		final List<Basket> baskets = new ArrayList<>();
+		for(int i = 0; i < 1000; ++i) {
+			final Map<String, Integer> products = new HashMap<>();
+			for(final String productName : productNames) {
+				if(random.nextBoolean()) {
+					products.put(productName, 1 + random.nextInt(5));
+				}
+			}
+			baskets.add(new Basket(products));
+		}
+
+		final List<Costing> costings = costingService.getCostings(baskets);
+		forkJoinPool.shutdown();
+
+		assertEquals(
+				"There should be a costing for each basket",
+				baskets.size(),
+				costings.size());
+
+		for(int i = 0; i < baskets.size(); ++i) {
+			assertEquals(
+					"The batch costing should match costing the basket on its own",
+					costingService.getCosting(baskets.get(i)).toString(),
+					costings.get(i).toString());
+		}
+	}
+
+	/**
+	 * Check each stage is timed and traced only when switched on
+	 */
+	@Test
+	public void testStageTiming() {
+
+		final BasketService basketService = mock(BasketService.class);
+		final ProductCatalogService productCatalogService = new ProductCatalogServiceSimpleImpl();
+		final DiscountService discountService = mock(DiscountService.class);
+
+		final CostingServiceImpl costingService = new CostingServiceImpl(
+				basketService,
+				productCatalogService,
+				discountService);
+
+		when(basketService.getCurrentBasket()).thenReturn(new Basket(ImmutableMap.of("Shirt", 2, "Tie", 1)));
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY)), DICTIONARY));
+
+		assertNull(
+				"Costings should not be traced by default",
+				costingService.getCosting().getTrace());
+
+		costingService.setTracingEnabled(true);
+		final Costing costing = costingService.getCosting();
+
+		assertNotNull(
+				"The costing should be traced",
+				costing.getTrace());
+
+		for(final CostingStage stage : CostingStage.values()) {
+			assertEquals(
+					"Each stage should have been timed once, except checking stock which is not counted",
+					stage == CostingStage.StockCheck ? 0 : 1,
+					costingService.getLatencyHistogram(stage).getCount());
+
+			assertTrue(
+					"The trace should agree with the histogram",
+					costing.getTrace().getNanos(stage) <= costingService.getLatencyHistogram(stage).getTotalNanos());
+		}
+
+		costingService.setTracingEnabled(false);
+		costingService.getCosting();
+
+		assertEquals(
+				"Nothing should be timed once switched off",
+				1,
+				costingService.getLatencyHistogram(CostingStage.Pricing).getCount());
+	}
+
+	/**
+	 * Check only the units in stock are costed and discounted, and the units short reported as unavailable
+	 */
+	@Test
+	public void testPartlyOutOfStock() {
+
+		final BasketService basketService = mock(BasketService.class);
+		final ProductCatalogService productCatalogService = mockProductCatalogService();
+		final DiscountService discountService = mock(DiscountService.class);
+		final StockServiceImpl stockService = new StockServiceImpl();
+
+		final CostingServiceImpl costingService = new CostingServiceImpl(
+				basketService,
+				productCatalogService,
+				discountService,
+				ForkJoinPool.commonPool(),
+				stockService);
+
+		final Basket basket = new Basket(ImmutableMap.of("Shirt", 4, "Tie", 2, "Jacket", 1));
+
+		when(basketService.getCurrentBasket()).thenReturn(basket);
+		when(productCatalogService.getProductByName("Shirt")).thenReturn(new Product("Shirt", 1250, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Tie")).thenReturn(new Product("Tie", 900, ProductStatus.Available));
+		when(productCatalogService.getProductByName("Jacket")).thenReturn(Product.unavailable("Jacket"));
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY)), DICTIONARY));
+
+		stockService.setOnHand("Shirt", 3);
+		stockService.setOnHand("Tie", 2);
+
+		costingService.setTimingEnabled(true);
+		final Costing costing = costingService.getCosting();
+
+		assertEquals(
+				"Checking stock should be timed as a stage of its own",
+				1,
+				costingService.getLatencyHistogram(CostingStage.StockCheck).getCount());
+
+		assertEquals(
+				"Only the shirts in stock should be costed",
+				(1250 * 3) + (900 * 2),
+				costing.getSubtotal());
+
+		assertEquals(
+				"The shirts in stock should earn one discounted tie",
+				(1250 * 3) + (900 * 2) - 450,
+				costing.getTotal());
+
+		assertEquals(
+				"The units out of stock should be reported with the products not for sale",
+				ImmutableMap.of("Shirt", 1, "Jacket", 1),
+				costing.getUnavilableItems());
+
+		final StockAllocation reservation = stockService.reserve(basket);
+
+		assertEquals(
+				"Costing the reservation should agree with costing the basket",
+				costing.toString(),
+				costingService.getCosting(reservation).toString());
+
+		assertEquals(
+				"Once reserved nothing more should be in stock",
+				ImmutableMap.of("Shirt", 4, "Tie", 2, "Jacket", 1),
+				costingService.getCosting().getUnavilableItems());
+	}
+
+	/**
+	 * Check the discounts giving the largest total discount are applied when optimising
+	 */
+	@Test
+	public void testOptimisedDiscounts() {
+
+		final BasketService basketService = mock(BasketService.class);
+		final ProductCatalogService productCatalogService = new ProductCatalogServiceSimpleImpl();
+		final DiscountService discountService = mock(DiscountService.class);
+
+		final CostingServiceImpl costingService = new CostingServiceImpl(
+				basketService,
+				productCatalogService,
+				discountService);
+
+		// Both discounts want the only tie, and the first is worth less
+		when(basketService.getCurrentBasket()).thenReturn(new Basket(ImmutableMap.of("Shirt", 1, "Trousers", 1, "Tie", 1)));
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 1), "Tie", 10.0, DICTIONARY),
+				new PercentageDiscount(ImmutableMap.of("Trousers", 1), "Tie", 50.0, DICTIONARY)), DICTIONARY));
+
+		final Costing inOrder = costingService.getCosting();
+
+		costingService.setOptimisationBudget(100, TimeUnit.MILLISECONDS);
+		final Costing optimised = costingService.getCosting();
+
+		assertEquals(
+				"The more valuable discount should be applied",
+				1250 + 3550 + 950 - 475,
+				optimised.getTotal());
+
+		assertTrue(
+				"The customer should pay less than with discounts applied in list order",
+				optimised.getTotal() < inOrder.getTotal());
+
+		assertEquals(
+				"The search should not have run out of time",
+				0,
+				costingService.getOptimisationTimeoutCount());
+	}
 }
@@ -0,0 +1,121 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * Reports the time taken to apply many discounts to a large basket, one after another on
+ * one thread and with independent components applied in parallel.
+ *
+ * Each discount involves a few products from one of a number of product families, so the
+ * discounts form one component per family.
+ *
+ * Not run as part of the tests. Run with the numbers of discounts, e.g.
+ *
+ * java -cp ... DiscountEvaluationBenchmark 200 1000 10000 100000
+ */
+public class DiscountEvaluationBenchmark {
+
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	/**
+	 * The number of products in a family
+	 */
+	private static final int FAMILY_SIZE = 8;
+
+	/**
+	 * The number of discounts for each family
+	 */
+	private static final int DISCOUNTS_PER_FAMILY = 4;
+
+	/**
+	 * Something to stop the work being optimised away
+	 */
+	private static long _sink;
+
+	public static void main(final String[] args) {
+		final String[] sizes = args.length == 0 ? new String[] {"200", "1000", "10000", "100000"} : args;
+		// At least two threads, so components are applied in parallel even on a single processor
+		final ForkJoinPool forkJoinPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		System.out.println("Parallelism " + forkJoinPool.getParallelism());
+		for(final String size : sizes) {
+			final int discountCount = Integer.parseInt(size);
+			final Random random = new Random(discountCount);
+			final int familyCount = Math.max(1, discountCount / DISCOUNTS_PER_FAMILY);
+
+			final List<PercentageDiscount> discounts = new ArrayList<>();
+			for(int d = 0; d < discountCount; ++d) {
+				final int family = random.nextInt(familyCount);
+				final Map<String, Integer> conditionalProducts = new HashMap<>();
+				for(int c = 0; c < 2; ++c) {
+					conditionalProducts.put(productName(family, random.nextInt(FAMILY_SIZE)), 1 + random.nextInt(3));
+				}
+				discounts.add(new PercentageDiscount(conditionalProducts, productName(family, random.nextInt(FAMILY_SIZE)), 10.0, DICTIONARY));
+			}
+
+			final Map<String, Integer> products = new HashMap<>();
+			for(int family = 0; family < familyCount; ++family) {
+				for(int p = 0; p < FAMILY_SIZE; ++p) {
+					products.put(productName(family, p), 1 + random.nextInt(20));
+				}
+			}
+			final Basket basket = new Basket(products);
+
+			final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(discounts, DICTIONARY);
+			final int[] discountIndexes = IntStream.range(0, discountCount).toArray();
+
+			System.out.println(discountCount + " discounts in " + compiledDiscounts.getComponentCount() + " components");
+			measure("  sequential", () -> compiledDiscounts.applyDiscountsExhaustively(basket, discountIndexes));
+			measure("  parallel  ", () -> compiledDiscounts.applyDiscountsInParallel(basket, discountIndexes, forkJoinPool, 0));
+			measure("  automatic ", () -> compiledDiscounts.applyDiscountsInParallel(basket, discountIndexes, forkJoinPool));
+		}
+		forkJoinPool.shutdown();
+	}
+
+	/**
+	 * Get the name of a product in a family
+	 *
+	 * @param family the family
+	 * @param product the product within the family
+	 * @return the name of the product
+	 */
+	private static String productName(final int family, final int product) {
+		return "Family-" + family + "-" + product;
+	}
+
+	/**
+	 * Time a way of applying discounts, reporting the mean time per basket
+	 *
+	 * @param name the name of the way of applying discounts
+	 * @param apply applies the discounts once
+	 */
+	private static void measure(final String name, final Supplier<int[]> apply) {
+		// Warm up so the timing is of compiled code
+		final long warmUpEnd = System.nanoTime() + 2000000000L;
+		while(System.nanoTime() < warmUpEnd) {
+			_sink += apply.get()[0];
+		}
+
+		int iterations = 0;
+		final long start = System.nanoTime();
+		final long end = start + 2000000000L;
+		long now;
+		do {
+			_sink += apply.get()[0];
+			++iterations;
+			now = System.nanoTime();
+		}
+		while(now < end);
+		System.out.println(name + ": " + (now - start) / iterations / 1000.0 + "us per basket");
+	}
+}
@@ -0,0 +1,179 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * Tests for the optimiser finding the discounts that give the largest total discount
+ */
+public class DiscountOptimiserTest {
+
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	private static final String[] PRODUCT_NAMES = {"Jacket", "Trousers", "Shirt", "Tie", "Socks"};
+
+	/**
+	 * Check a more valuable discount is preferred to an earlier one competing for the same product
+	 */
+	@Test
+	public void testBetterThanListOrder() {
+		final Basket basket = new Basket(ImmutableMap.of("Shirt", 1, "Tie", 1, "Jacket", 1));
+
+		final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(Lists.newArrayList(
+				new PercentageDiscount(ImmutableMap.of("Shirt", 1), "Tie", 10.0, DICTIONARY),
+				new PercentageDiscount(ImmutableMap.of("Jacket", 1), "Tie", 50.0, DICTIONARY)), DICTIONARY);
+		final long[] applicationValues = {100, 500};
+
+		assertArrayEquals(
+				"In list order the first discount takes the tie",
+				new int[] {1, 0},
+				compiledDiscounts.applyDiscountsExhaustively(basket, new int[] {0, 1}));
+
+		final DiscountOptimiser optimiser = new DiscountOptimiser(compiledDiscounts, applicationValues, System.nanoTime() + 1000000000L);
+
+		assertArrayEquals(
+				"The optimiser should apply the more valuable discount",
+				new int[] {0, 1},
+				optimiser.allocate(basket, new int[] {0, 1}));
+
+		assertFalse(
+				"The search should have finished in time",
+				optimiser.isTimedOut());
+	}
+
+	/**
+	 * Check the answer in list order is kept once the deadline has passed
+	 */
+	@Test
+	public void testFallsBackAtDeadline() {
+		final Random random = new Random(55);
+		final List<PercentageDiscount> discounts = randomDiscounts(random, DiscountOptimiser.MAX_COMPONENT_DISCOUNTS);
+		final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(discounts, DICTIONARY);
+		final long[] applicationValues = random.longs(discounts.size(), 1, 1000).toArray();
+		final int[] discountIndexes = IntStream.range(0, discounts.size()).toArray();
+
+		final Map<String, Integer> products = new HashMap<>();
+		for(final String productName : PRODUCT_NAMES) {
+			products.put(productName, 1000);
+		}
+		final Basket basket = new Basket(products);
+
+		final int[] inOrder = compiledDiscounts.applyDiscountsExhaustively(basket, discountIndexes).clone();
+		final DiscountOptimiser optimiser = new DiscountOptimiser(compiledDiscounts, applicationValues, System.nanoTime());
+		final int[] applicationCounts = optimiser.allocate(basket, discountIndexes);
+
+		assertTrue(
+				"The search should have run out of time",
+				optimiser.isTimedOut());
+
+		assertTrue(
+				"The answer should be no worse than in list order",
+				getValue(applicationCounts, applicationValues) >= getValue(inOrder, applicationValues));
+	}
+
+	/**
+	 * Check the optimiser finds the best allocation for many small random baskets, by trying every allocation
+	 */
+	@Test
+	public void testMatchesExhaustiveSearch() {
+		final Random random = new Random(77);
+
+		for(int trial = 0; trial < 300; ++trial) {
+			final List<PercentageDiscount> discounts = randomDiscounts(random, 1 + random.nextInt(4));
+			final CompiledDiscounts compiledDiscounts = new CompiledDiscounts(discounts, DICTIONARY);
+			final long[] applicationValues = random.longs(discounts.size(), 0, 1000).toArray();
+			final int[] discountIndexes = IntStream.range(0, discounts.size()).toArray();
+
+			final Map<String, Integer> products = new HashMap<>();
+			for(final String productName : PRODUCT_NAMES) {
+				products.put(productName, random.nextInt(6));
+			}
+			final Basket basket = new Basket(products);
+
+			final int[] productCounts = new int[compiledDiscounts.getProductCount()];
+			compiledDiscounts.loadProductCounts(basket, productCounts);
+			final long best = searchExhaustively(compiledDiscounts, applicationValues, productCounts, 0);
+
+			final int[] applicationCounts = new DiscountOptimiser(compiledDiscounts, applicationValues, System.nanoTime() + 1000000000L)
+					.allocate(basket, discountIndexes);
+
+			assertEquals(
+					"The optimiser should find the largest total discount",
+					best,
+					getValue(applicationCounts, applicationValues));
+
+			// The allocation must fit in the basket
+			for(int discountIndex = 0; discountIndex < discounts.size(); ++discountIndex) {
+				compiledDiscounts.removeDiscountProducts(discountIndex, applicationCounts[discountIndex], productCounts);
+			}
+			for(final int productCount : productCounts) {
+				assertTrue(
+						"The discounts should not use more products than are in the basket",
+						productCount >= 0);
+			}
+		}
+	}
+
+	/**
+	 * Find the largest total discount by trying every allocation
+	 */
+	private static long searchExhaustively(
+			final CompiledDiscounts compiledDiscounts,
+			final long[] applicationValues,
+			final int[] productCounts,
+			final int discountIndex) {
+
+		if(discountIndex == compiledDiscounts.getDiscountCount()) {
+			return 0;
+		}
+		long best = 0;
+		final int maximum = compiledDiscounts.countApplications(discountIndex, productCounts);
+		for(int count = 0; count <= maximum; ++count) {
+			compiledDiscounts.removeDiscountProducts(discountIndex, count, productCounts);
+			best = Math.max(best, count * applicationValues[discountIndex] + searchExhaustively(compiledDiscounts, applicationValues, productCounts, discountIndex + 1));
+			compiledDiscounts.removeDiscountProducts(discountIndex, -count, productCounts);
+		}
+		return best;
+	}
+
+	private static List<PercentageDiscount> randomDiscounts(final Random random, final int discountCount) {
+		final List<PercentageDiscount> discounts = new ArrayList<>();
+		for(int d = 0; d < discountCount; ++d) {
+			final Map<String, Integer> conditionalProducts = new HashMap<>();
+			final int conditionCount = random.nextInt(3);
+			for(int c = 0; c < conditionCount; ++c) {
+				conditionalProducts.put(PRODUCT_NAMES[random.nextInt(PRODUCT_NAMES.length)], 1 + random.nextInt(3));
+			}
+			discounts.add(new PercentageDiscount(
+					conditionalProducts,
+					PRODUCT_NAMES[random.nextInt(PRODUCT_NAMES.length)],
+					5.0 * (1 + random.nextInt(10)), DICTIONARY));
+		}
+		return discounts;
+	}
+
+	private static long getValue(final int[] applicationCounts, final long[] applicationValues) {
+		long value = 0;
+		for(int i = 0; i < applicationValues.length; ++i) {
+			value += applicationCounts[i] * applicationValues[i];
+		}
+		return value;
+	}
+}
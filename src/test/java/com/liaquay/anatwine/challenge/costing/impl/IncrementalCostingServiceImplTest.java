@@ -0,0 +1,158 @@
+package com.liaquay.anatwine.challenge.costing.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.liaquay.anatwine.challenge.basket.impl.BasketServiceImpl;
+import com.liaquay.anatwine.challenge.costing.Costing;
+import com.liaquay.anatwine.challenge.costing.CostingService;
+import com.liaquay.anatwine.challenge.discount.DiscountService;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+import com.liaquay.anatwine.challenge.productcatalog.impl.ProductCatalogServiceSimpleImpl;
+
+/**
+ * Tests for the costing service that is updated as products are added to the basket
+ */
+public class IncrementalCostingServiceImplTest {
+
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	private static final String[] PRODUCT_NAMES = {"Jacket", "Trousers", "Shirt", "Tie", "Socks"};
+
+	private final List<PercentageDiscount> _discounts = Lists.newArrayList(
+			new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY),
+			new PercentageDiscount(ImmutableMap.of(), "Trousers", 10.0, DICTIONARY),
+			new PercentageDiscount(ImmutableMap.of("Tie", 1), "Jacket", 20.0, DICTIONARY),
+			new PercentageDiscount(ImmutableMap.of("Trousers", 2), "Shirt", 5.0, DICTIONARY),
+			new PercentageDiscount(ImmutableMap.of(), "Tie", 15.0, DICTIONARY));
+
+	/**
+	 * Check the costing matches a full costing after every product is added
+	 */
+	@Test
+	public void testMatchesFullCosting() {
+
+		final ProductCatalogService productCatalogService = new ProductCatalogServiceSimpleImpl();
+		final DiscountService discountService = mock(DiscountService.class);
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(_discounts, DICTIONARY));
+
+		final IncrementalCostingServiceImpl incrementalCostingService = new IncrementalCostingServiceImpl(
+				new BasketServiceImpl(),
+				productCatalogService,
+				discountService);
+
+		final CostingService costingService = new CostingServiceImpl(
+				incrementalCostingService,
+				productCatalogService,
+				discountService);
+
+		final Random random = new Random(4321);
+		for(int trial = 0; trial < 20; ++trial) {
+			incrementalCostingService.clear();
+			for(int i = 0; i < 30; ++i) {
+				incrementalCostingService.add(PRODUCT_NAMES[random.nextInt(PRODUCT_NAMES.length)]);
+
+				final Costing expected = costingService.getCosting();
+				final Costing actual = incrementalCostingService.getCosting();
+
+				assertEquals(
+						"The same discounts should have been applied",
+						expected.getAppliedDiscounts().toString(),
+						actual.getAppliedDiscounts().toString());
+
+				assertEquals(
+						"The subtotal should match the full costing",
+						expected.getSubtotal(),
+						actual.getSubtotal());
+
+				assertEquals(
+						"The total should match the full costing",
+						expected.getTotal(),
+						actual.getTotal());
+			}
+		}
+	}
+
+	/**
+	 * Check the costing is rebuilt when the catalog changes
+	 */
+	@Test
+	public void testRebuildsWhenCatalogChanges() {
+
+		final ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+		final DiscountService discountService = mock(DiscountService.class);
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(_discounts, DICTIONARY));
+
+		final IncrementalCostingServiceImpl incrementalCostingService = new IncrementalCostingServiceImpl(
+				new BasketServiceImpl(),
+				productCatalogService,
+				discountService);
+
+		when(productCatalogService.getVersion()).thenReturn(1L);
+		when(productCatalogService.getProductByName("Shirt")).thenReturn(new Product("Shirt", 1250, ProductStatus.Available));
+
+		incrementalCostingService.add("Shirt");
+		assertEquals(
+				"The subtotal should use the original price",
+				1250,
+				incrementalCostingService.getCosting().getSubtotal());
+
+		when(productCatalogService.getVersion()).thenReturn(2L);
+		when(productCatalogService.getProductByName("Shirt")).thenReturn(new Product("Shirt", 1000, ProductStatus.Available));
+
+		incrementalCostingService.add("Shirt");
+		assertEquals(
+				"The subtotal should use the new price for both shirts",
+				2000,
+				incrementalCostingService.getCosting().getSubtotal());
+	}
+
+	/**
+	 * Check the costing matches a full costing when products are added in bulk
+	 */
+	@Test
+	public void testBulkAdd() {
+
+		final ProductCatalogService productCatalogService = new ProductCatalogServiceSimpleImpl();
+		final DiscountService discountService = mock(DiscountService.class);
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(_discounts, DICTIONARY));
+
+		final IncrementalCostingServiceImpl incrementalCostingService = new IncrementalCostingServiceImpl(
+				new BasketServiceImpl(),
+				productCatalogService,
+				discountService);
+
+		final CostingService costingService = new CostingServiceImpl(
+				incrementalCostingService,
+				productCatalogService,
+				discountService);
+
+		incrementalCostingService.clear();
+		incrementalCostingService.add("Shirt", 5);
+		incrementalCostingService.addAll(ImmutableMap.of("Tie", 3, "Trousers", 2));
+		incrementalCostingService.addAll(Lists.newArrayList("Jacket", "Tie", "Jacket"));
+
+		assertEquals(
+				"The bulk additions should all be in the basket",
+				4,
+				incrementalCostingService.getCurrentBasket().getQuantity("Tie"));
+
+		assertEquals(
+				"The costing should match the full costing",
+				costingService.getCosting().toString(),
+				incrementalCostingService.getCosting().toString());
+	}
+}
@@ -13,6 +13,7 @@ import com.google.common.collect.Lists;
 import com.liaquay.anatwine.challenge.basket.Basket;
 import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
 import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
 import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
 import com.liaquay.anatwine.challenge.util.CurrencyFormatter;
 
@@ -21,6 +22,8 @@ import com.liaquay.anatwine.challenge.util.CurrencyFormatter;
  */
 public class MutableBasketTest {
 
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
 	private MutableBasket makeMutableBasket(final Map<String, Integer> productsMap) {
 		final Basket basket = new Basket(productsMap);
 		return new MutableBasket(basket);
@@ -69,7 +72,8 @@ public class MutableBasketTest {
 				.put("Tie", 3)
 				.build(),
 				"Tie",
-				10.0);
+				10.0,
+				DICTIONARY);
 
 		assertTrue(
 				"Should be able to apply this discount",
@@ -97,7 +101,8 @@ public class MutableBasketTest {
 				.put("Tie", 3)
 				.build(),
 				"Tie",
-				10.0);
+				10.0,
+				DICTIONARY);
 
 		assertFalse(
 				"Should not have been able to apply this discount",
@@ -125,7 +130,8 @@ public class MutableBasketTest {
 				.put("Tie", 3)
 				.build(),
 				"Tie",
-				10.0);
+				10.0,
+				DICTIONARY);
 
 		assertFalse(
 				"Should not have been able to apply this discount",
@@ -151,7 +157,8 @@ public class MutableBasketTest {
 				.put("Tie", 1)
 				.build(),
 				"Tie",
-				10.0);
+				10.0,
+				DICTIONARY);
 
 		assertTrue(
 				"The discount should have applied",
@@ -185,7 +192,8 @@ public class MutableBasketTest {
 				.put("Shirt", 2)
 				.build(),
 				"Tie",
-				10.0);
+				10.0,
+				DICTIONARY);
 
 		assertEquals(
 				"The discount should have applied 2 times",
@@ -203,6 +211,38 @@ public class MutableBasketTest {
 				mutableBasket.getProductCounts());
 	}
 
+	/**
+	 * Check that a discount is applied in one step to a basket holding a bulk quantity
+	 */
+	@Test
+	public void testDiscountsAreAppliedToBulkQuantities() {
+		final MutableBasket mutableBasket = makeMutableBasket(ImmutableMap.<String, Integer>builder()
+				.put("Shirt", 50000)
+				.put("Tie", 20001)
+				.build());
+
+		final PercentageDiscount discount = new PercentageDiscount(
+				ImmutableMap.<String, Integer>builder()
+				.put("Shirt", 2)
+				.build(),
+				"Tie",
+				10.0,
+				DICTIONARY);
+
+		assertEquals(
+				"The discount should have applied once for every 2 shirts and a tie",
+				20001,
+				mutableBasket.applyDiscountExhaustively(discount));
+
+		assertEquals(
+				"Discount items should have been removed from the basket",
+				ImmutableMap.<String, Integer>builder()
+				.put("Shirt", 50000 - 2 * 20001)
+				.put("Tie", 0)
+				.build(),
+				mutableBasket.getProductCounts());
+	}
+
 	/**
 	 * Check that multiple offers are applied to the basket.
 	 */
@@ -220,13 +260,15 @@ public class MutableBasketTest {
 				.put("Shirt", 2)
 				.build(),
 				"Tie",
-				50.0);
+				50.0,
+				DICTIONARY);
 
 		final PercentageDiscount discount2 =  new PercentageDiscount(
 				ImmutableMap.<String, Integer>builder()
 				.build(),
 				"Trousers",
-				10.0);
+				10.0,
+				DICTIONARY);
 
 		final List<PercentageDiscount> discounts = Lists.newArrayList(discount1, discount2);
 
@@ -252,14 +294,14 @@ public class MutableBasketTest {
 				.build());
 
 		final Map<String, Product> pricedBasketProducts = ImmutableMap.<String, Product>builder()
-				.put("Jacket", new Product("Jacket", 7.0, ProductStatus.Available))
-				.put("Trousers", new Product("Trousers", 13.0, ProductStatus.Available))
-				.put("Shirt", new Product("Shirt", 27.0, ProductStatus.Available))
+				.put("Jacket", new Product("Jacket", 700, ProductStatus.Available))
+				.put("Trousers", new Product("Trousers", 1300, ProductStatus.Available))
+				.put("Shirt", new Product("Shirt", 2700, ProductStatus.Available))
 				.build();
 
-		final double expectedSubtotal = (1 * 7.0) + (3 * 13.0) + (5 * 27.0);
+		final long expectedSubtotal = (1 * 700) + (3 * 1300) + (5 * 2700);
 
-		final double actualSubtotal = mutableBasket.calculateSubtotal(pricedBasketProducts);
+		final long actualSubtotal = mutableBasket.calculateSubtotal(pricedBasketProducts);
 
 		assertEquals(
 				"The subtotal should be caluculated correctly",
@@ -0,0 +1,51 @@
+package com.liaquay.anatwine.challenge.customer.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests for the customer service backed by thread local storage
+ */
+public class ThreadLocalCustomerServiceImplTest {
+
+	/**
+	 * Check each thread sees only its own customer
+	 */
+	@Test
+	public void testCustomerIsPerThread() throws InterruptedException {
+		final ThreadLocalCustomerServiceImpl customerService = new ThreadLocalCustomerServiceImpl();
+		customerService.setCurrentCustomerId("alice");
+
+		final AtomicReference<String> otherCustomerId = new AtomicReference<>();
+		final Thread thread = new Thread(() -> {
+			customerService.setCurrentCustomerId("bob");
+			otherCustomerId.set(customerService.getCurrentCustomerId());
+		});
+		thread.start();
+		thread.join();
+
+		assertEquals(
+				"The other thread should have seen its own customer",
+				"bob",
+				otherCustomerId.get());
+
+		assertEquals(
+				"This thread should still see its own customer",
+				"alice",
+				customerService.getCurrentCustomerId());
+	}
+
+	/**
+	 * Check a request without a customer is refused
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testNoCustomer() {
+		final ThreadLocalCustomerServiceImpl customerService = new ThreadLocalCustomerServiceImpl();
+		customerService.setCurrentCustomerId("alice");
+		customerService.clearCurrentCustomerId();
+		customerService.getCurrentCustomerId();
+	}
+}
@@ -0,0 +1,72 @@
+package com.liaquay.anatwine.challenge.discount;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+
+/**
+ * Tests for the index of percentage discounts by product
+ */
+public class PercentageDiscountIndexTest {
+
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	private final PercentageDiscount _tieWithShirts = new PercentageDiscount(ImmutableMap.of("Shirt", 2), "Tie", 50.0, DICTIONARY);
+	private final PercentageDiscount _trousers = new PercentageDiscount(ImmutableMap.of(), "Trousers", 10.0, DICTIONARY);
+	private final PercentageDiscount _jacketWithTie = new PercentageDiscount(ImmutableMap.of("Tie", 1), "Jacket", 20.0, DICTIONARY);
+
+	private final List<PercentageDiscount> _discounts = Lists.newArrayList(_tieWithShirts, _trousers, _jacketWithTie);
+
+	private final PercentageDiscountIndex _index = new PercentageDiscountIndex(_discounts, DICTIONARY);
+
+	/**
+	 * Check the discounts involving each product are found
+	 */
+	@Test
+	public void testDiscountsInvolvingProduct() {
+		assertArrayEquals(
+				"Both discounts involving ties should be found",
+				new int[] {0, 2},
+				_index.getDiscountPositionsInvolving("Tie"));
+
+		assertArrayEquals(
+				"The discount with shirts as a condition should be found",
+				new int[] {0},
+				_index.getDiscountPositionsInvolving("Shirt"));
+
+		assertArrayEquals(
+				"No discounts involve socks",
+				new int[] {},
+				_index.getDiscountPositionsInvolving("Socks"));
+	}
+
+	/**
+	 * Check only discounts whose products are all present are found, in list order
+	 */
+	@Test
+	public void testApplicableDiscounts() {
+		assertEquals(
+				"Only the discounts with all of their products present should be found",
+				Lists.newArrayList(_tieWithShirts, _jacketWithTie),
+				_index.getApplicableDiscounts(Sets.newHashSet("Jacket", "Tie", "Shirt", "Socks")));
+
+		assertEquals(
+				"The discount on ties needs shirts",
+				Lists.newArrayList(_trousers, _jacketWithTie),
+				_index.getApplicableDiscounts(Sets.newHashSet("Jacket", "Tie", "Trousers")));
+
+		assertEquals(
+				"No discounts apply to socks",
+				Lists.newArrayList(),
+				_index.getApplicableDiscounts(Sets.newHashSet("Socks")));
+	}
+}
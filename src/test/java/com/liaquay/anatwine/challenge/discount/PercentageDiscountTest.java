@@ -5,12 +5,15 @@ import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
 
 /**
  * Tests for the discount service's model of a percentage discount.
  */
 public class PercentageDiscountTest {
 
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
 	/**
 	 * Test constructor and access methods
 	 */
@@ -22,7 +25,8 @@ public class PercentageDiscountTest {
 				.put("Shirt", 2)
 				.build(),
 				"Tie",
-				10.0);
+				10.0,
+				DICTIONARY);
 
 		assertEquals(
 				"The map of conditional and target product should have constructed correctly",
@@ -1,27 +1,40 @@
 package com.liaquay.anatwine.challenge.discount.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.google.common.collect.ImmutableMap;
 import com.liaquay.anatwine.challenge.clock.ClockService;
 import com.liaquay.anatwine.challenge.discount.PercentageDiscount;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
 
 public class DiscountServiceImplTest {
 
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
 	final String json = "[{\"validFrom\":\"2017-06-24\",\"validTo\":\"2017-07-2\",\"conditionalProducts\":{\"Shirt\":2},\"targetProduct\": \"Tie\",\"percentage\": 50.0}]";
 
-	private Date _testTime = null;
+	private Date _testTime = new Date(0);
 	private final SimpleDateFormat _persitentDateFormat =  new SimpleDateFormat("yyyy-MM-dd");
 
 	final ClockService clock = new ClockService() {
@@ -32,7 +45,10 @@ public class DiscountServiceImplTest {
 		}
 	};
 
-	private final DiscountServiceImpl _discountServiceImpl = new DiscountServiceImpl(clock);
+	private final DiscountServiceImpl _discountServiceImpl = new DiscountServiceImpl(clock, DICTIONARY);
+
+	@Rule
+	public final TemporaryFolder _folder = new TemporaryFolder();
 
 	@Before
 	public void loadDiscounts() {
@@ -113,4 +129,158 @@ public class DiscountServiceImplTest {
 				"Tie",
 				discount.getTargetProduct());
 	}
+
+	@Test
+	public void testIndexIsReusedUntilDiscountsChange() throws ParseException {
+
+		// Set the clock to when we know the discount applies
+		_testTime = _persitentDateFormat.parse("2017-06-25");
+
+		final PercentageDiscountIndex index = _discountServiceImpl.getPercentageDiscountIndex();
+
+		assertSame(
+				"The index should be reused while the discounts are unchanged",
+				index,
+				_discountServiceImpl.getPercentageDiscountIndex());
+
+		// Set the clock to when we know the discount does not apply
+		_testTime = _persitentDateFormat.parse("2017-07-3");
+
+		assertNotSame(
+				"The index should be rebuilt when the discounts change",
+				index,
+				_discountServiceImpl.getPercentageDiscountIndex());
+
+		assertEquals(
+				"The rebuilt index should not contain the expired discount",
+				0,
+				_discountServiceImpl.getPercentageDiscountIndex().getDiscounts().size());
+	}
+
+	@Test
+	public void testActiveDiscountsChangeOnlyAtBoundaries() throws ParseException {
+
+		final long validFrom = _persitentDateFormat.parse("2017-06-24").getTime();
+		final long validTo = _persitentDateFormat.parse("2017-07-2").getTime();
+
+		_testTime = new Date(validFrom + 1);
+		final List<PercentageDiscount> discounts = _discountServiceImpl.getPercentageDiscounts();
+
+		_testTime = new Date(validTo - 1);
+		assertSame(
+				"The same discounts should be returned until the clock crosses a boundary",
+				discounts,
+				_discountServiceImpl.getPercentageDiscounts());
+
+		_testTime = new Date(validFrom);
+		assertEquals(
+				"The discount should not apply at the moment it starts",
+				0,
+				_discountServiceImpl.getPercentageDiscounts().size());
+
+		_testTime = new Date(validTo);
+		assertEquals(
+				"The discount should not apply at the moment it ends",
+				0,
+				_discountServiceImpl.getPercentageDiscounts().size());
+
+		_testTime = new Date(validFrom + 1000);
+		assertEquals(
+				"The discount should apply again once back between its boundaries",
+				discounts,
+				_discountServiceImpl.getPercentageDiscounts());
+	}
+
+	@Test
+	public void testInvalidDiscountsAreRejected() throws Exception {
+
+		_testTime = _persitentDateFormat.parse("2017-06-25");
+		final PercentageDiscountIndex index = _discountServiceImpl.getPercentageDiscountIndex();
+
+		final String[] invalid = {
+				"[{\"validFrom\":\"2017-06-24\",\"validTo\":\"2017-07-2\",\"targetProduct\": \"Tie\",\"percentage\": 150.0}]",
+				"[{\"validFrom\":\"2017-07-2\",\"validTo\":\"2017-06-24\",\"targetProduct\": \"Tie\",\"percentage\": 50.0}]",
+				"[{\"validFrom\":\"2017-06-24\",\"targetProduct\": \"Tie\",\"percentage\": 50.0}]",
+				"[{\"validFrom\":\"2017-06-24\",\"validTo\":\"2017-07-2\",\"conditionalProducts\":{\"Shirt\":0},\"targetProduct\": \"Tie\",\"percentage\": 50.0}]",
+				"[{\"validFrom\":\"2017-06-24\",\"validTo\":\"2017-07-2\",\"percentage\": 50.0}]"};
+
+		for(final String discounts : invalid) {
+			try {
+				_discountServiceImpl.load(new ByteArrayInputStream(discounts.getBytes(StandardCharsets.UTF_8)));
+				fail("The discounts should have been rejected: " + discounts);
+			}
+			catch (final IllegalArgumentException e) {
+				// Expected
+			}
+		}
+
+		assertSame(
+				"The current discounts should be kept",
+				index,
+				_discountServiceImpl.getPercentageDiscountIndex());
+	}
+
+	@Test
+	public void testHotReload() throws Exception {
+
+		_testTime = _persitentDateFormat.parse("2017-06-25");
+
+		final Path path = _folder.getRoot().toPath().resolve("discounts.json");
+		writeDiscounts(path, json);
+
+		try (final DiscountServiceImpl discountService = new DiscountServiceImpl(clock, DICTIONARY)) {
+			discountService.watch(path);
+			assertEquals(
+					"The discounts should be read from the file",
+					50.0,
+					discountService.getPercentageDiscounts().get(0).getPercentage(),
+					0.001);
+
+			writeDiscounts(path, json.replace("50.0", "25.0"));
+			awaitPercentage(discountService, 25.0);
+
+			// An invalid file is ignored and the current discounts kept
+			writeDiscounts(path, json.replace("50.0", "-5.0"));
+			// Time for the watcher to see the invalid file, as it reports nothing when it rejects one
+			Thread.sleep(1000);
+			assertEquals(
+					"The discounts should be kept when the file is invalid",
+					25.0,
+					discountService.getPercentageDiscounts().get(0).getPercentage(),
+					0.001);
+
+			writeDiscounts(path, json.replace("50.0", "20.0"));
+			awaitPercentage(discountService, 20.0);
+		}
+	}
+
+	/**
+	 * Replace a discounts file by moving a new file over it
+	 *
+	 * @param path the discounts file
+	 * @param content the new discounts
+	 */
+	private void writeDiscounts(final Path path, final String content) throws IOException {
+		final Path temporary = _folder.newFile().toPath();
+		Files.write(temporary, content.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Wait for the discounts to be reloaded with a new percentage
+	 *
+	 * @param discountService the discount service
+	 * @param percentage the new percentage of the only discount
+	 */
+	private static void awaitPercentage(final DiscountServiceImpl discountService, final double percentage) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 20000;
+		while(discountService.getPercentageDiscounts().get(0).getPercentage() != percentage && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(
+				"The discounts should have been reloaded with the new percentage",
+				percentage,
+				discountService.getPercentageDiscounts().get(0).getPercentage(),
+				0.001);
+	}
 }
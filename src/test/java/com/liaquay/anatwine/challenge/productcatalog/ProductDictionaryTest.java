@@ -0,0 +1,38 @@
+package com.liaquay.anatwine.challenge.productcatalog;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the dictionary of product ids
+ */
+public class ProductDictionaryTest {
+
+	/**
+	 * Check ids are dense, stable and map back to their names
+	 */
+	@Test
+	public void testIds() {
+		final ProductDictionary dictionary = new ProductDictionary();
+
+		assertEquals("An unseen product should have no id", -1, dictionary.findId("Tie"));
+
+		final int tie = dictionary.getId("Tie");
+		final int shirt = dictionary.getId("Shirt");
+
+		assertEquals("Ids should be assigned densely from 0", 0, tie);
+		assertEquals("Ids should be assigned densely from 0", 1, shirt);
+		assertEquals("A product should keep its id", tie, dictionary.getId("Tie"));
+		assertEquals("A seen product should be found", shirt, dictionary.findId("Shirt"));
+		assertEquals("An id should map back to its name", "Shirt", dictionary.getName(shirt));
+
+		for(int i = 0; i < 100; ++i) {
+			dictionary.getId("Product" + i);
+		}
+
+		assertEquals("Every product should have an id", 102, dictionary.size());
+		assertEquals("Names should survive the dictionary growing", "Tie", dictionary.getName(tie));
+		assertEquals("Names should survive the dictionary growing", "Product99", dictionary.getName(101));
+	}
+}
@@ -0,0 +1,63 @@
+package com.liaquay.anatwine.challenge.productcatalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Test the compact table of products used by large catalogs
+ */
+public class ProductTableTest {
+
+	/**
+	 * Check products are found by name
+	 */
+	@Test
+	public void testLookup() {
+		final ProductTable table = new ProductTable(
+				new String[] {"Jacket", "Tie", "Shirt", "Tie", null},
+				new long[] {4990, 900, 1250, 950, 0},
+				4);
+
+		assertEquals("Products listed twice should only be kept once", 3, table.size());
+		assertEquals(
+				"The last price of a product listed twice should be kept",
+				new Product("Tie", 950, ProductStatus.Available),
+				table.getProduct("Tie"));
+		assertEquals(
+				"Products should be found by name",
+				new Product("Jacket", 4990, ProductStatus.Available),
+				table.getProduct("Jacket"));
+		assertSame(
+				"The same product should be returned for each lookup",
+				table.getProduct("Shirt"),
+				table.getProduct("Shirt"));
+		assertNull("Missing products should not be found", table.getProduct("Trousers"));
+		assertEquals("Missing products should have no position", -1, table.indexOf("Trousers"));
+	}
+
+	/**
+	 * Check many products with colliding hashes are all found
+	 */
+	@Test
+	public void testManyProducts() {
+		final int size = 100000;
+		final String[] names = new String[size];
+		final long[] prices = new long[size];
+		for(int i = 0; i < size; ++i) {
+			names[i] = "SKU-" + i;
+			prices[i] = i;
+		}
+		final ProductTable table = new ProductTable(names, prices, size);
+
+		assertEquals("Every product should be kept", size, table.size());
+		for(int i = 0; i < size; ++i) {
+			final int index = table.indexOf("SKU-" + i);
+			assertEquals("Every product should be found", "SKU-" + i, table.getName(index));
+			assertEquals("Every product should keep its price", i, table.getPrice(index));
+		}
+		assertEquals("Missing products should not be found", -1, table.indexOf("SKU-" + size));
+	}
+}
@@ -15,16 +15,15 @@ public class ProductTest {
 	@Test
 	public void testConstructAndInspect() {
 
-		final Product product = new Product("Tie", 12.45, ProductStatus.Available);
+		final Product product = new Product("Tie", 1245, ProductStatus.Available);
 		assertEquals(
 				"The name of the product should be correct",
 				"Tie",
 				product.getName());
 		assertEquals(
 				"The price of the product should be correct",
-				12.45,
-				product.getPrice(),
-				0.001);
+				1245,
+				product.getPrice());
 		assertEquals(
 				"The formatted price should be correct",
 				"£12.45",
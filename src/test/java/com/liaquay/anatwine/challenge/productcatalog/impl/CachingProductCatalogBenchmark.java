@@ -0,0 +1,53 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.liaquay.anatwine.challenge.clock.impl.ClockServiceImpl;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+
+/**
+ * Shows the effect of caching a slow product catalog, looking up products, a few of
+ * which are far more popular than the rest, directly and through the cache.
+ *
+ * Not run as part of the tests.
+ */
+public class CachingProductCatalogBenchmark {
+
+	private static final int PRODUCTS = 200;
+	private static final int LOOKUPS = 5000;
+	private static final long LATENCY_MILLIS = 1;
+
+	public static void main(final String[] args) {
+		final LatentProductCatalogService backend = new LatentProductCatalogService(LATENCY_MILLIS);
+		for(int i = 0; i < PRODUCTS; ++i) {
+			backend.setPrice("SKU-" + i, 100 + i);
+		}
+
+		measure("direct", backend);
+		try (final CachingProductCatalogServiceImpl cache = new CachingProductCatalogServiceImpl(
+				backend, new ClockServiceImpl(), PRODUCTS, TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(1))) {
+			measure("cached", cache);
+			System.out.println("  hit rate " + cache.getStats().hitRate()
+					+ ", fetches " + cache.getFetchLatency().getCount()
+					+ ", 99th percentile fetch " + TimeUnit.NANOSECONDS.toMicros(cache.getFetchLatency().getPercentile(99.0)) + "us");
+		}
+	}
+
+	/**
+	 * Look up popular products, reporting the mean time per lookup
+	 *
+	 * @param name the name of the catalog
+	 * @param productCatalogService the catalog
+	 */
+	private static void measure(final String name, final ProductCatalogService productCatalogService) {
+		final Random random = new Random(1);
+		final long start = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; ++i) {
+			// Squaring a uniform number favours the first products
+			final double popularity = random.nextDouble();
+			productCatalogService.getProductByName("SKU-" + (int)(popularity * popularity * PRODUCTS));
+		}
+		System.out.println(name + ": " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / LOOKUPS + "us per lookup");
+	}
+}
@@ -0,0 +1,295 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.basket.BasketService;
+import com.liaquay.anatwine.challenge.clock.ClockService;
+import com.liaquay.anatwine.challenge.costing.impl.CachingCostingServiceImpl;
+import com.liaquay.anatwine.challenge.costing.impl.CostingServiceImpl;
+import com.liaquay.anatwine.challenge.discount.DiscountService;
+import com.liaquay.anatwine.challenge.discount.PercentageDiscountIndex;
+import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductDictionary;
+import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+
+/**
+ * Test the cache in front of slow product catalogs
+ */
+public class CachingProductCatalogServiceImplTest {
+
+	private static final ProductDictionary DICTIONARY = new ProductDictionary();
+
+	private static final long EXPIRE_AFTER = 60000;
+	private static final long REFRESH_AFTER = 30000;
+	private static final long UNKNOWN_EXPIRE_AFTER = 5000;
+
+	private volatile long _time = 0;
+
+	private final ClockService _clockService = new ClockService() {
+		@Override
+		public Date now() {
+			return new Date(_time);
+		}
+	};
+
+	private final LatentProductCatalogService _backend = new LatentProductCatalogService(20);
+
+	private final CachingProductCatalogServiceImpl _productCatalogService = new CachingProductCatalogServiceImpl(
+			_backend, _clockService, 1000, EXPIRE_AFTER, REFRESH_AFTER, UNKNOWN_EXPIRE_AFTER);
+
+	@After
+	public void close() {
+		_productCatalogService.close();
+	}
+
+	@Test
+	public void testHitsAndMisses() {
+		_backend.setPrice("Tie", 950);
+
+		assertEquals(
+				"The product should be fetched",
+				new Product("Tie", 950, ProductStatus.Available),
+				_productCatalogService.getProductByName("Tie"));
+		assertEquals(
+				"The product should be cached",
+				new Product("Tie", 950, ProductStatus.Available),
+				_productCatalogService.getProductByName("Tie"));
+
+		assertEquals("The catalog should only be asked once", 1, _backend.getRequestCount());
+		assertEquals("The second lookup should hit", 1, _productCatalogService.getStats().hitCount());
+		assertEquals("The first lookup should miss", 1, _productCatalogService.getStats().missCount());
+		assertEquals("The fetch should be timed", 1, _productCatalogService.getFetchLatency().getCount());
+
+		_backend.setPrice("Tie", 900);
+		_time = EXPIRE_AFTER;
+		assertEquals(
+				"An expired product should be fetched again",
+				900,
+				_productCatalogService.getProductByName("Tie").getPrice());
+		assertEquals("The catalog should be asked again", 2, _backend.getRequestCount());
+	}
+
+	@Test
+	public void testUnknownProducts() {
+		assertEquals(
+				"The missing product is correctly identified",
+				ProductStatus.Unavailable,
+				_productCatalogService.getProductByName("Tie").getStatus());
+		_productCatalogService.getProductByName("Tie");
+		assertEquals("The unknown name should be remembered", 1, _backend.getRequestCount());
+		assertEquals("The unknown name should not be cached as a product", 0, _productCatalogService.size());
+
+		_backend.setPrice("Tie", 950);
+		_time = UNKNOWN_EXPIRE_AFTER;
+		assertEquals(
+				"A new product should be found once the unknown name is forgotten",
+				950,
+				_productCatalogService.getProductByName("Tie").getPrice());
+	}
+
+	@Test
+	public void testConcurrentMisses() throws Exception {
+		_backend.setPrice("Tie", 950);
+
+		final int threads = 16;
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Product>> results = new ArrayList<>();
+			for(int i = 0; i < threads; ++i) {
+				results.add(executor.submit(() -> {
+					start.await();
+					return _productCatalogService.getProductByName("Tie");
+				}));
+			}
+			start.countDown();
+			for(final Future<Product> result : results) {
+				assertEquals("Every caller should get the product", 950, result.get().getPrice());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		assertEquals("Concurrent misses should share one fetch", 1, _backend.getRequestCount());
+	}
+
+	@Test
+	public void testRefreshAhead() throws InterruptedException {
+		_backend.setPrice("Tie", 950);
+		_productCatalogService.getProductByName("Tie");
+		final long version = _productCatalogService.getVersion();
+
+		_backend.setPrice("Tie", 900);
+		_time = REFRESH_AFTER + 1;
+		assertEquals(
+				"The old product should be served while it is refreshed",
+				950,
+				_productCatalogService.getProductByName("Tie").getPrice());
+
+		final long deadline = System.currentTimeMillis() + 10000;
+		// The refreshed product is published just before the version changes
+		while((_productCatalogService.getProductByName("Tie").getPrice() != 900 || _productCatalogService.getVersion() == version)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(
+				"The refreshed product should be served",
+				900,
+				_productCatalogService.getProductByName("Tie").getPrice());
+		assertNotEquals(
+				"The version should change when a product changes",
+				version,
+				_productCatalogService.getVersion());
+	}
+
+	@Test
+	public void testBulkLookup() {
+		_backend.setPrice("Tie", 950);
+		_backend.setPrice("Shirt", 1250);
+		_productCatalogService.getProductByName("Tie");
+
+		assertEquals(
+				"Products should be returned in the order they were asked for",
+				Lists.newArrayList(
+						new Product("Shirt", 1250, ProductStatus.Available),
+						new Product("Tie", 950, ProductStatus.Available),
+						new Product("Jacket", 0, ProductStatus.Unavailable)),
+				new ArrayList<>(_productCatalogService.getProductsByNames(Lists.newArrayList("Shirt", "Tie", "Jacket")).values()));
+		assertEquals("Products not cached should be fetched in one request", 2, _backend.getRequestCount());
+
+		_productCatalogService.getProductsByNames(Lists.newArrayList("Shirt", "Tie", "Jacket"));
+		assertEquals("Every product should now be cached", 2, _backend.getRequestCount());
+	}
+
+	@Test
+	public void testConcurrentBulkMisses() throws Exception {
+		_backend.setPrice("Tie", 950);
+		_backend.setPrice("Shirt", 1250);
+
+		final int threads = 16;
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Product>> results = new ArrayList<>();
+			for(int i = 0; i < threads; ++i) {
+				final boolean bulk = i % 2 == 0;
+				results.add(executor.submit(() -> {
+					start.await();
+					return bulk
+							? _productCatalogService.getProductsByNames(Lists.newArrayList("Tie", "Shirt")).get("Tie")
+							: _productCatalogService.getProductByName("Tie");
+				}));
+			}
+			start.countDown();
+			for(final Future<Product> result : results) {
+				assertEquals("Every caller should get the product", 950, result.get().getPrice());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		// One request for both products, or one for the tie alone and one for the shirt
+		assertTrue("Concurrent misses should share one fetch of each product", _backend.getRequestCount() <= 2);
+	}
+
+	@Test
+	public void testVersion() {
+		_backend.setPrice("Tie", 950);
+		_productCatalogService.getProductsByNames(Lists.newArrayList("Tie", "Shirt"));
+		final long firstVersion = _productCatalogService.getVersion();
+
+		_time = EXPIRE_AFTER;
+		final long version = _productCatalogService.getVersion();
+		assertNotEquals(
+				"The version should change when products may have expired",
+				firstVersion,
+				version);
+
+		_productCatalogService.getProductsByNames(Lists.newArrayList("Tie", "Shirt"));
+		assertEquals(
+				"Products fetched again unchanged should keep the version",
+				version,
+				_productCatalogService.getVersion());
+
+		_backend.setPrice("Shirt", 1250);
+		_time = EXPIRE_AFTER + UNKNOWN_EXPIRE_AFTER;
+		assertEquals(
+				"A name the catalog did not know should become a product",
+				1250,
+				_productCatalogService.getProductByName("Shirt").getPrice());
+		assertNotEquals(
+				"The version should change when an unknown name becomes a product",
+				version,
+				_productCatalogService.getVersion());
+	}
+
+	@Test
+	public void testVersionChangesWithoutLookup() throws InterruptedException {
+		_backend.setPrice("Tie", 950);
+		_productCatalogService.getProductByName("Tie");
+		final long version = _productCatalogService.getVersion();
+
+		// A refresh is started by a lookup, but the version changes when the changed product is fetched
+		_backend.setPrice("Tie", 900);
+		_time = REFRESH_AFTER + 1;
+		_productCatalogService.getProductByName("Tie");
+
+		final long deadline = System.currentTimeMillis() + 10000;
+		while(_productCatalogService.getVersion() == version && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertNotEquals(
+				"The version should change once the changed product is fetched",
+				version,
+				_productCatalogService.getVersion());
+		assertEquals(
+				"The changed product should be cached by the time the version changes",
+				900,
+				_productCatalogService.getProductByName("Tie").getPrice());
+	}
+
+	@Test
+	public void testCachedCostingsFollowCatalog() {
+		_backend.setPrice("Tie", 950);
+		final Basket basket = new Basket(ImmutableMap.of("Tie", 2));
+
+		final DiscountService discountService = mock(DiscountService.class);
+		when(discountService.getPercentageDiscountIndex()).thenReturn(new PercentageDiscountIndex(Collections.emptyList(), DICTIONARY));
+		final BasketService basketService = mock(BasketService.class);
+		final CachingCostingServiceImpl costingService = new CachingCostingServiceImpl(
+				new CostingServiceImpl(basketService, _productCatalogService, discountService),
+				basketService,
+				_productCatalogService,
+				discountService,
+				100);
+
+		assertEquals("The basket should be costed", 1900, costingService.getCosting(basket).getTotal());
+		assertEquals("The costing should be cached", 1900, costingService.getCosting(basket).getTotal());
+
+		_backend.setPrice("Tie", 900);
+		_time = EXPIRE_AFTER;
+		assertEquals(
+				"A cached costing should not outlive the products it was costed from",
+				1800,
+				costingService.getCosting(basket).getTotal());
+	}
+}
@@ -0,0 +1,93 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
+import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+
+/**
+ * A stand-in for a remote product catalog, taking a fixed time to answer each request
+ * and counting the requests made.
+ */
+public class LatentProductCatalogService implements ProductCatalogService {
+
+	private final long _latencyMillis;
+	private final Map<String, Long> _prices = new ConcurrentHashMap<>();
+	private final AtomicInteger _requestCount = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 *
+	 * @param latencyMillis the time taken to answer each request
+	 */
+	public LatentProductCatalogService(final long latencyMillis) {
+		_latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Add a product or change its price
+	 *
+	 * @param name the name of the product
+	 * @param price the price of the product in pence
+	 */
+	public void setPrice(final String name, final long price) {
+		_prices.put(name, price);
+	}
+
+	/**
+	 * Get the number of requests made
+	 *
+	 * @return the number of requests made
+	 */
+	public int getRequestCount() {
+		return _requestCount.get();
+	}
+
+	@Override
+	public Product getProductByName(final String name) {
+		request();
+		return lookup(name);
+	}
+
+	@Override
+	public Map<String, Product> getProductsByNames(final Collection<String> names) {
+		request();
+		final Map<String, Product> products = new LinkedHashMap<>();
+		names.forEach(name -> products.put(name, lookup(name)));
+		return products;
+	}
+
+	@Override
+	public long getVersion() {
+		return 0;
+	}
+
+	/**
+	 * Look up a product without delay
+	 *
+	 * @param name the name of the product
+	 * @return the product
+	 */
+	private Product lookup(final String name) {
+		final Long price = _prices.get(name);
+		return price == null ? new Product(name, 0, ProductStatus.Unavailable) : new Product(name, price, ProductStatus.Available);
+	}
+
+	/**
+	 * Count a request and wait as a remote catalog would
+	 */
+	private void request() {
+		_requestCount.incrementAndGet();
+		try {
+			Thread.sleep(_latencyMillis);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
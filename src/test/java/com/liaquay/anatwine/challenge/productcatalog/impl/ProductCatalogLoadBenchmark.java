@@ -0,0 +1,114 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.liaquay.anatwine.challenge.productcatalog.ProductTable;
+
+/**
+ * Reports the time taken to load large catalogs and the heap they use once loaded,
+ * reading them into a product table and, for comparison, into a map as Jackson
+ * databind would.
+ *
+ * Not run as part of the tests. Run with a large heap, e.g.
+ *
+ * java -Xmx8g -cp ... ProductCatalogLoadBenchmark 1000000 10000000
+ */
+public class ProductCatalogLoadBenchmark {
+
+	/**
+	 * Something to hold on to a loaded catalog while its heap is measured
+	 */
+	private static Object _retained;
+
+	public static void main(final String[] args) throws Exception {
+		final String[] sizes = args.length == 0 ? new String[] {"1000000", "10000000"} : args;
+		for(final String size : sizes) {
+			final Path file = Files.createTempFile("products", ".json");
+			try {
+				writeCatalog(file, Integer.parseInt(size));
+				System.out.println(size + " products, " + Files.size(file) / (1024 * 1024) + "MB of JSON");
+				measure("  product table", file, is -> ProductCatalogServiceJsonFileImpl.read(is));
+				measure("  databind map ", file, is -> new ObjectMapper().readValue(is, new TypeReference<HashMap<String, BigDecimal>>() {}));
+			}
+			finally {
+				Files.delete(file);
+			}
+		}
+	}
+
+	/**
+	 * Reads a catalog
+	 */
+	private interface Loader {
+		Object load(InputStream is) throws IOException;
+	}
+
+	/**
+	 * Load a catalog, reporting the time taken and heap used
+	 *
+	 * @param name the name of the way of loading
+	 * @param file the catalog file
+	 * @param loader reads the catalog
+	 */
+	private static void measure(final String name, final Path file, final Loader loader) throws IOException {
+		// Warm up on the same file so the timing is of compiled code
+		try (final InputStream is = Files.newInputStream(file)) {
+			loader.load(is);
+		}
+
+		final long heapBefore = usedHeap();
+		final long start = System.nanoTime();
+		try (final InputStream is = Files.newInputStream(file)) {
+			_retained = loader.load(is);
+		}
+		final long millis = (System.nanoTime() - start) / 1000000;
+		final long heapAfter = usedHeap();
+		System.out.println(name + ": loaded in " + millis + "ms, " + (heapAfter - heapBefore) / (1024 * 1024) + "MB of heap");
+		_retained = null;
+	}
+
+	/**
+	 * Get the heap in use after collecting garbage
+	 *
+	 * @return the bytes of heap in use
+	 */
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Write a catalog of products with made up names and prices
+	 *
+	 * @param file the file to write
+	 * @param size the number of products
+	 */
+	private static void writeCatalog(final Path file, final int size) throws IOException {
+		final Random random = new Random(size);
+		try (final BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write('{');
+			for(int i = 0; i < size; ++i) {
+				if(i > 0) writer.write(',');
+				writer.write("\"SKU-");
+				writer.write(Integer.toString(i));
+				writer.write("\":");
+				writer.write(BigDecimal.valueOf(random.nextInt(100000), 2).toPlainString());
+			}
+			writer.write('}');
+		}
+	}
+}
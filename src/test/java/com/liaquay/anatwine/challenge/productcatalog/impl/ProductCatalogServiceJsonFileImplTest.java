@@ -1,13 +1,31 @@
 package com.liaquay.anatwine.challenge.productcatalog.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.google.common.collect.Lists;
 import com.liaquay.anatwine.challenge.productcatalog.Product;
 import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
 
@@ -20,6 +38,9 @@ public class ProductCatalogServiceJsonFileImplTest {
 
 	private final String json = "{\"Jacket\": 49.90, \"Trousers\": 35.50, \"Shirt\": 12.50, \"Tie\": 9.50}";
 
+	@Rule
+	public final TemporaryFolder _folder = new TemporaryFolder();
+
 	private final ProductCatalogServiceJsonFileImpl _productCatalogService =
 			new ProductCatalogServiceJsonFileImpl();
 
@@ -36,19 +57,19 @@ public class ProductCatalogServiceJsonFileImplTest {
 	public void testInMemoryCatalog() {
 		assertEquals(
 				"Simple Catalog correct for Jacket",
-				new Product("Jacket", 49.90, ProductStatus.Available),
+				new Product("Jacket", 4990, ProductStatus.Available),
 				_productCatalogService.getProductByName("Jacket"));
 		assertEquals(
 				"Simple Catalog correct for Trousers",
-				new Product("Trousers", 35.50, ProductStatus.Available),
+				new Product("Trousers", 3550, ProductStatus.Available),
 				_productCatalogService.getProductByName("Trousers"));
 		assertEquals(
 				"Simple Catalog correct for Shirt",
-				new Product("Shirt", 12.50, ProductStatus.Available),
+				new Product("Shirt", 1250, ProductStatus.Available),
 				_productCatalogService.getProductByName("Shirt"));
 		assertEquals(
 				"Simple Catalog correct for Tie",
-				new Product("Tie", 9.50, ProductStatus.Available),
+				new Product("Tie", 950, ProductStatus.Available),
 				_productCatalogService.getProductByName("Tie"));
 	}
 
@@ -56,7 +77,164 @@ public class ProductCatalogServiceJsonFileImplTest {
 	public void testProductNotInCatalog() {
 		assertEquals(
 				"The missing product is correctly identified",
-				new Product("NotAProduct", 0.00, ProductStatus.Unavailable),
+				new Product("NotAProduct", 0, ProductStatus.Unavailable),
+				_productCatalogService.getProductByName("NotAProduct"));
+	}
+
+	@Test
+	public void testProductsAreShared() {
+		assertSame(
+				"The same product should be returned for each lookup",
+				_productCatalogService.getProductByName("Tie"),
+				_productCatalogService.getProductByName("Tie"));
+		assertSame(
+				"The same missing product should be returned for each lookup",
+				_productCatalogService.getProductByName("NotAProduct"),
 				_productCatalogService.getProductByName("NotAProduct"));
 	}
+
+	@Test
+	public void testProductsByNames() {
+		final Map<String, Product> products = _productCatalogService.getProductsByNames(Lists.newArrayList("Tie", "NotAProduct", "Jacket"));
+		assertEquals(
+				"Products should be returned in the order they were asked for",
+				Lists.newArrayList("Tie", "NotAProduct", "Jacket"),
+				Lists.newArrayList(products.keySet()));
+		assertSame(
+				"Bulk lookup should agree with single lookup",
+				_productCatalogService.getProductByName("Tie"),
+				products.get("Tie"));
+		assertEquals(
+				"The missing product is correctly identified",
+				new Product("NotAProduct", 0, ProductStatus.Unavailable),
+				products.get("NotAProduct"));
+		assertEquals(
+				"Bulk lookup should agree with single lookup",
+				_productCatalogService.getProductByName("Jacket"),
+				products.get("Jacket"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testPriceNotANumber() throws UnsupportedEncodingException {
+		_productCatalogService.load(new ByteArrayInputStream("{\"Tie\": \"cheap\"}".getBytes("UTF-8")));
+	}
+
+	@Test
+	public void testConcurrentFirstLoad() throws Exception {
+		final ProductCatalogServiceJsonFileImpl productCatalogService = new ProductCatalogServiceJsonFileImpl();
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Product>> results = new ArrayList<>();
+			for(int i = 0; i < 8; ++i) {
+				results.add(executor.submit(() -> productCatalogService.getProductByName("Tie")));
+			}
+			for(final Future<Product> result : results) {
+				assertSame(
+						"Every caller should see the same catalog",
+						results.get(0).get(),
+						result.get());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		assertEquals(
+				"The catalog should only have been loaded once",
+				1,
+				productCatalogService.getVersion());
+	}
+
+	@Test
+	public void testSlowLoadDoesNotReplaceLaterLoad() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final InputStream slow = new SequenceInputStream(
+				new InputStream() {
+					@Override
+					public int read() throws IOException {
+						started.countDown();
+						try {
+							release.await();
+						}
+						catch (final InterruptedException e) {
+							throw new IOException(e);
+						}
+						return -1;
+					}
+				},
+				new ByteArrayInputStream("{\"Tie\": 1.00}".getBytes(StandardCharsets.UTF_8)));
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<?> slowLoad = executor.submit(() -> _productCatalogService.load(slow));
+			started.await();
+			_productCatalogService.load(new ByteArrayInputStream("{\"Tie\": 2.00}".getBytes(StandardCharsets.UTF_8)));
+			release.countDown();
+			slowLoad.get();
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		assertEquals(
+				"The load started last should be kept",
+				200,
+				_productCatalogService.getProductByName("Tie").getPrice());
+	}
+
+	@Test
+	public void testHotReload() throws Exception {
+		final Path path = _folder.getRoot().toPath().resolve("products.json");
+		writeCatalog(path, json);
+
+		try (final ProductCatalogServiceJsonFileImpl productCatalogService = new ProductCatalogServiceJsonFileImpl()) {
+			productCatalogService.watch(path);
+			assertEquals(
+					"The catalog should be read from the file",
+					950,
+					productCatalogService.getProductByName("Tie").getPrice());
+
+			writeCatalog(path, "{\"Jacket\": 49.90, \"Tie\": 7.50}");
+			awaitPrice(productCatalogService, "Tie", 750);
+			assertEquals(
+					"Products removed from the file should be unavailable",
+					ProductStatus.Unavailable,
+					productCatalogService.getProductByName("Shirt").getStatus());
+
+			// A broken file is ignored and the current catalog kept
+			writeCatalog(path, "{\"Tie\": ");
+			writeCatalog(path, "{\"Tie\": 8.50}");
+			awaitPrice(productCatalogService, "Tie", 850);
+		}
+	}
+
+	/**
+	 * Replace a catalog file by moving a new file over it
+	 *
+	 * @param path the catalog file
+	 * @param content the new catalog
+	 */
+	private void writeCatalog(final Path path, final String content) throws IOException {
+		final Path temporary = _folder.newFile().toPath();
+		Files.write(temporary, content.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Wait for the catalog to be reloaded with a new price
+	 *
+	 * @param productCatalogService the catalog
+	 * @param name the name of the product
+	 * @param price the new price in pence
+	 */
+	private static void awaitPrice(final ProductCatalogServiceJsonFileImpl productCatalogService, final String name, final long price) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 20000;
+		while(productCatalogService.getProductByName(name).getPrice() != price && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(
+				"The catalog should have been reloaded with the new price",
+				price,
+				productCatalogService.getProductByName(name).getPrice());
+	}
 }
@@ -0,0 +1,110 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.liaquay.anatwine.challenge.productcatalog.Product;
+import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
+
+/**
+ * Test our product catalog memory-mapped from a compiled binary file
+ */
+public class ProductCatalogServiceMappedFileImplTest {
+
+	@Rule
+	public final TemporaryFolder _folder = new TemporaryFolder();
+
+	/**
+	 * Compile a JSON catalog and map the result
+	 *
+	 * @param json the JSON catalog
+	 * @return the mapped catalog
+	 */
+	private ProductCatalogServiceMappedFileImpl compile(final String json) throws IOException {
+		final Path path = _folder.getRoot().toPath().resolve("products.cat");
+		BinaryCatalogCompiler.compile(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), path);
+		return new ProductCatalogServiceMappedFileImpl(path);
+	}
+
+	@Test
+	public void testMappedCatalog() throws IOException {
+		final ProductCatalogServiceMappedFileImpl productCatalogService = compile(
+				"{\"Jacket\": 49.90, \"Trousers\": 35.50, \"Shirt\": 12.50, \"Tie\": 9.50, \"Crème ☃ 👔\": 1}");
+
+		assertEquals("Every product should be compiled", 5, productCatalogService.size());
+		assertEquals(
+				"Mapped Catalog correct for Jacket",
+				new Product("Jacket", 4990, ProductStatus.Available),
+				productCatalogService.getProductByName("Jacket"));
+		assertEquals(
+				"Mapped Catalog correct for Tie",
+				new Product("Tie", 950, ProductStatus.Available),
+				productCatalogService.getProductByName("Tie"));
+		assertEquals(
+				"Names outside ASCII should be found",
+				new Product("Crème ☃ 👔", 100, ProductStatus.Available),
+				productCatalogService.getProductByName("Crème ☃ 👔"));
+		assertSame(
+				"The same product should be returned for each lookup",
+				productCatalogService.getProductByName("Shirt"),
+				productCatalogService.getProductByName("Shirt"));
+	}
+
+	@Test
+	public void testProductNotInCatalog() throws IOException {
+		final ProductCatalogServiceMappedFileImpl productCatalogService = compile("{\"Tie\": 9.50, \"Shirt\": 12.50}");
+		for(final String name : new String[] {"NotAProduct", "Ti", "Tie ", "tie", ""}) {
+			assertEquals(
+					"The missing product is correctly identified",
+					new Product(name, 0, ProductStatus.Unavailable),
+					productCatalogService.getProductByName(name));
+		}
+
+		assertEquals(
+				"An empty catalog should have no products",
+				ProductStatus.Unavailable,
+				compile("{}").getProductByName("Tie").getStatus());
+	}
+
+	@Test
+	public void testManyProducts() throws IOException {
+		final int size = 50000;
+		final StringBuilder json = new StringBuilder("{");
+		for(int i = 0; i < size; ++i) {
+			json.append(i == 0 ? "" : ",").append("\"SKU-").append(i).append("\":").append(i).append(".01");
+		}
+		final ProductCatalogServiceMappedFileImpl productCatalogService = compile(json.append('}').toString());
+
+		for(int i = 0; i < size; ++i) {
+			assertEquals(
+					"Every product should be found with its price",
+					i * 100L + 1,
+					productCatalogService.getProductByName("SKU-" + i).getPrice());
+		}
+		assertEquals(
+				"Products not compiled should not be found",
+				ProductStatus.Unavailable,
+				productCatalogService.getProductByName("SKU-" + size).getStatus());
+		assertTrue(
+				"Only a bounded number of products should be kept on the heap",
+				productCatalogService.getCachedProductCount() <= ProductCatalogServiceMappedFileImpl.CACHED_PRODUCTS);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotACatalog() throws IOException {
+		final Path path = _folder.newFile("products.json").toPath();
+		Files.write(path, "{\"Tie\": 9.50}".getBytes(StandardCharsets.UTF_8));
+		new ProductCatalogServiceMappedFileImpl(path);
+	}
+}
@@ -1,9 +1,13 @@
 package com.liaquay.anatwine.challenge.productcatalog.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
 
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
 import com.liaquay.anatwine.challenge.productcatalog.Product;
 import com.liaquay.anatwine.challenge.productcatalog.ProductCatalogService;
 import com.liaquay.anatwine.challenge.productcatalog.ProductStatus;
@@ -22,19 +26,19 @@ public class ProductCatalogServiceSimpleImplTest {
 	public void testInMemoryCatalog() {
 		assertEquals(
 				"Simple Catalog correct for Jacket",
-				new Product("Jacket", 49.90, ProductStatus.Available),
+				new Product("Jacket", 4990, ProductStatus.Available),
 				_productCatalogService.getProductByName("Jacket"));
 		assertEquals(
 				"Simple Catalog correct for Trousers",
-				new Product("Trousers", 35.50, ProductStatus.Available),
+				new Product("Trousers", 3550, ProductStatus.Available),
 				_productCatalogService.getProductByName("Trousers"));
 		assertEquals(
 				"Simple Catalog correct for Shirt",
-				new Product("Shirt", 12.50, ProductStatus.Available),
+				new Product("Shirt", 1250, ProductStatus.Available),
 				_productCatalogService.getProductByName("Shirt"));
 		assertEquals(
 				"Simple Catalog correct for Tie",
-				new Product("Tie", 9.50, ProductStatus.Available),
+				new Product("Tie", 950, ProductStatus.Available),
 				_productCatalogService.getProductByName("Tie"));
 	}
 
@@ -42,7 +46,40 @@ public class ProductCatalogServiceSimpleImplTest {
 	public void testProductNotInCatalog() {
 		assertEquals(
 				"The missing product is correctly identified",
-				new Product("NotAProduct", 0.00, ProductStatus.Unavailable),
+				new Product("NotAProduct", 0, ProductStatus.Unavailable),
 				_productCatalogService.getProductByName("NotAProduct"));
 	}
+
+	@Test
+	public void testProductsAreShared() {
+		assertSame(
+				"The same product should be returned for each lookup",
+				_productCatalogService.getProductByName("Tie"),
+				_productCatalogService.getProductByName("Tie"));
+		assertSame(
+				"The same missing product should be returned for each lookup",
+				_productCatalogService.getProductByName("NotAProduct"),
+				_productCatalogService.getProductByName("NotAProduct"));
+	}
+
+	@Test
+	public void testProductsByNames() {
+		final Map<String, Product> products = _productCatalogService.getProductsByNames(Lists.newArrayList("Tie", "NotAProduct", "Jacket"));
+		assertEquals(
+				"Products should be returned in the order they were asked for",
+				Lists.newArrayList("Tie", "NotAProduct", "Jacket"),
+				Lists.newArrayList(products.keySet()));
+		assertSame(
+				"Bulk lookup should agree with single lookup",
+				_productCatalogService.getProductByName("Tie"),
+				products.get("Tie"));
+		assertEquals(
+				"The missing product is correctly identified",
+				new Product("NotAProduct", 0, ProductStatus.Unavailable),
+				products.get("NotAProduct"));
+		assertEquals(
+				"Bulk lookup should agree with single lookup",
+				_productCatalogService.getProductByName("Jacket"),
+				products.get("Jacket"));
+	}
 }
@@ -0,0 +1,235 @@
+package com.liaquay.anatwine.challenge.productcatalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.liaquay.anatwine.challenge.basket.Basket;
+import com.liaquay.anatwine.challenge.productcatalog.StockAllocation;
+
+/**
+ * Tests for the in-memory stock service
+ */
+public class StockServiceImplTest {
+
+	/**
+	 * Check a basket in stock is allocated in full, and products not tracked are always in stock
+	 */
+	@Test
+	public void testInStock() {
+		final StockServiceImpl stockService = new StockServiceImpl();
+		stockService.setOnHand("Shirt", 5);
+
+		final Basket basket = new Basket(ImmutableMap.of("Shirt", 3, "Tie", 100));
+		final StockAllocation allocation = stockService.getAvailability(basket);
+
+		assertTrue(
+				"Nothing should be short",
+				allocation.isComplete());
+
+		assertSame(
+				"The basket should be allocated as it is",
+				basket,
+				allocation.getAllocated());
+
+		assertEquals(
+				"Checking availability should not reserve anything",
+				0,
+				stockService.getReserved("Shirt"));
+	}
+
+	/**
+	 * Check the units short are reported when a product is partly out of stock
+	 */
+	@Test
+	public void testPartlyOutOfStock() {
+		final StockServiceImpl stockService = new StockServiceImpl();
+		stockService.setOnHand("Shirt", 2);
+		stockService.setOnHand("Tie", 0);
+
+		final StockAllocation reservation = stockService.reserve(new Basket(ImmutableMap.of("Jacket", 1, "Shirt", 3, "Tie", 2)));
+
+		assertEquals(
+				"The units in stock should be reserved",
+				new Basket(ImmutableMap.of("Jacket", 1, "Shirt", 2)),
+				reservation.getAllocated());
+
+		assertEquals(
+				"The units short should be reported",
+				ImmutableMap.of("Shirt", 1, "Tie", 2),
+				reservation.getShortfalls());
+
+		assertEquals(
+				"The reserved units should no longer be available",
+				0,
+				stockService.getAvailable("Shirt"));
+	}
+
+	/**
+	 * Check releasing a reservation returns its units to stock, once only
+	 */
+	@Test
+	public void testRelease() {
+		final StockServiceImpl stockService = new StockServiceImpl();
+		stockService.setOnHand("Shirt", 4);
+
+		final StockAllocation reservation = stockService.reserve(new Basket(ImmutableMap.of("Shirt", 3)));
+		final StockAllocation other = stockService.reserve(new Basket(ImmutableMap.of("Shirt", 1)));
+
+		stockService.release(reservation);
+		stockService.release(reservation);
+
+		assertEquals(
+				"Only the released units should be available again",
+				3,
+				stockService.getAvailable("Shirt"));
+
+		assertEquals(
+				"The other reservation should still hold its unit",
+				1,
+				stockService.getReserved("Shirt"));
+
+		assertTrue(
+				"The other reservation should not have been settled",
+				other.settle());
+	}
+
+	/**
+	 * Check units reserved before a product was tracked do not release other customers' units
+	 */
+	@Test
+	public void testReleaseReservedBeforeTracked() {
+		final StockServiceImpl stockService = new StockServiceImpl();
+
+		final StockAllocation untracked = stockService.reserve(new Basket(ImmutableMap.of("Shirt", 3)));
+		assertEquals(
+				"Nothing should be held for a product not tracked",
+				0,
+				untracked.getReserved().size());
+
+		stockService.setOnHand("Shirt", 5);
+		final StockAllocation tracked = stockService.reserve(new Basket(ImmutableMap.of("Shirt", 4)));
+		stockService.release(untracked);
+
+		assertEquals(
+				"The other customer's reservation should still hold its units",
+				4,
+				stockService.getReserved("Shirt"));
+
+		assertEquals(
+				"Only the units not reserved should be available",
+				1,
+				stockService.getAvailable("Shirt"));
+
+		stockService.commit(tracked);
+		assertEquals(
+				"Committing should take only the units held out of stock",
+				1,
+				stockService.getOnHand("Shirt"));
+	}
+
+	/**
+	 * Check committing a reservation takes its units out of stock
+	 */
+	@Test
+	public void testCommit() {
+		final StockServiceImpl stockService = new StockServiceImpl();
+		stockService.setOnHand("Shirt", 4);
+
+		final StockAllocation reservation = stockService.reserve(new Basket(ImmutableMap.of("Shirt", 3)));
+		stockService.commit(reservation);
+
+		assertEquals(
+				"The committed units should have left stock",
+				1,
+				stockService.getOnHand("Shirt"));
+
+		assertEquals(
+				"Nothing should remain reserved",
+				0,
+				stockService.getReserved("Shirt"));
+
+		stockService.release(reservation);
+
+		assertEquals(
+				"Releasing a committed reservation should do nothing",
+				1,
+				stockService.getAvailable("Shirt"));
+	}
+
+	/**
+	 * Check a reservation cannot be committed twice
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testCommitTwice() {
+		final StockServiceImpl stockService = new StockServiceImpl();
+		stockService.setOnHand("Shirt", 4);
+
+		final StockAllocation reservation = stockService.reserve(new Basket(ImmutableMap.of("Shirt", 3)));
+		stockService.commit(reservation);
+		stockService.commit(reservation);
+	}
+
+	/**
+	 * Check customers reserving the same products at once never reserve more than is on hand
+	 */
+	@Test
+	public void testConcurrentReservations() throws Exception {
+		final StockServiceImpl stockService = new StockServiceImpl();
+		stockService.setOnHand("Shirt", 1000);
+		stockService.setOnHand("Tie", 500);
+
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<int[]>> results = new ArrayList<>();
+		for(int t = 0; t < threads; ++t) {
+			results.add(executor.submit(() -> {
+				start.await();
+				final int[] reserved = new int[2];
+				for(int i = 0; i < 1000; ++i) {
+					final StockAllocation reservation = stockService.reserve(new Basket(ImmutableMap.of("Shirt", 1, "Tie", 1)));
+					reserved[0] += reservation.getAllocated().getQuantity("Shirt");
+					reserved[1] += reservation.getAllocated().getQuantity("Tie");
+				}
+				return reserved;
+			}));
+		}
+		start.countDown();
+
+		int shirts = 0;
+		int ties = 0;
+		for(final Future<int[]> result : results) {
+			shirts += result.get()[0];
+			ties += result.get()[1];
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		assertEquals(
+				"Every shirt should have been reserved exactly once",
+				1000,
+				shirts);
+
+		assertEquals(
+				"Every tie should have been reserved exactly once",
+				500,
+				ties);
+
+		assertEquals(
+				"The stock level should agree with the reservations",
+				1000,
+				stockService.getReserved("Shirt"));
+	}
+}
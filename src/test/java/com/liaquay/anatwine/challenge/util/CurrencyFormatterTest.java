@@ -1,6 +1,19 @@
 package com.liaquay.anatwine.challenge.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 
@@ -9,6 +22,8 @@ import org.junit.Test;
  */
 public class CurrencyFormatterTest {
 
+	private static final long[] AMOUNTS = {0, 1, 9, 10, 99, 100, 1259, 99999, 100000, 123456789, -1, -1259, -100000, Long.MAX_VALUE, Long.MIN_VALUE};
+
 	/**
 	 * Check currencies are formatted correctly
 	 */
@@ -17,6 +32,76 @@ public class CurrencyFormatterTest {
 		assertEquals(
 				"The currency should have been formatted correctly",
 				"£12.59",
-				CurrencyFormatter.format(12.59));
+				CurrencyFormatter.format(1259));
+	}
+
+	/**
+	 * Check amounts are formatted the same way as the platform's currency format
+	 */
+	@Test
+	public void testMatchesNumberFormat() {
+		for(final Locale locale : new Locale[] {Locale.UK, Locale.FRANCE, Locale.GERMANY}) {
+			final NumberFormat numberFormat = NumberFormat.getCurrencyInstance(locale);
+			numberFormat.setCurrency(Currency.getInstance("GBP"));
+			for(final long amount : AMOUNTS) {
+				assertEquals(
+						"The amount should be formatted as the platform would for " + locale,
+						numberFormat.format(Money.toMajorUnits(amount)),
+						CurrencyFormatter.forLocale(locale).toString(amount));
+			}
+		}
+	}
+
+	/**
+	 * Check amounts can be written straight into a buffer
+	 */
+	@Test
+	public void testAppendToBuffer() throws IOException {
+		final CharBuffer buffer = CharBuffer.allocate(32);
+		buffer.append("Total: ");
+		CurrencyFormatter.format(buffer, 123456);
+		buffer.flip();
+
+		assertEquals(
+				"The amount should have been written after the existing content",
+				"Total: £1,234.56",
+				buffer.toString());
+	}
+
+	/**
+	 * Check formatters are cached per locale
+	 */
+	@Test
+	public void testFormatterIsCached() {
+		assertSame(
+				"The same formatter should be returned for a locale",
+				CurrencyFormatter.forLocale(Locale.UK),
+				CurrencyFormatter.forLocale(Locale.UK));
+	}
+
+	/**
+	 * Check amounts are not corrupted when formatted concurrently
+	 */
+	@Test
+	public void testConcurrentFormatting() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Boolean>> results = IntStream.range(0, 4)
+					.mapToObj(thread -> executor.submit(() -> {
+						for(int i = 0; i < 100000; ++i) {
+							final long amount = i * 7919L;
+							final String expected = "£" + String.format(Locale.UK, "%,d.%02d", amount / 100, amount % 100);
+							if(!expected.equals(CurrencyFormatter.format(amount))) return false;
+						}
+						return true;
+					}))
+					.collect(Collectors.toList());
+			for(final Future<Boolean> result : results) {
+				assertEquals("Every amount should have been formatted correctly", true, result.get());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
 	}
 }
@@ -0,0 +1,54 @@
+package com.liaquay.anatwine.challenge.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the latency histogram
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Check latencies are counted in power of 2 buckets
+	 */
+	@Test
+	public void testBuckets() {
+		assertEquals("Zero should be in the first bucket", 0, LatencyHistogram.getBucket(0));
+		assertEquals("One should be in its own bucket", 1, LatencyHistogram.getBucket(1));
+		assertEquals("Three should share a bucket with two", 2, LatencyHistogram.getBucket(3));
+		assertEquals("Four should start a new bucket", 3, LatencyHistogram.getBucket(4));
+		assertEquals("The largest latency should be in the last bucket", LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+
+		for(long nanos = 0; nanos < 10000; ++nanos) {
+			assertEquals(
+					"A latency should be no larger than the upper bound of its bucket",
+					true,
+					nanos <= LatencyHistogram.getBucketUpperBound(LatencyHistogram.getBucket(nanos)));
+		}
+	}
+
+	/**
+	 * Check percentiles are reported as the upper bound of their bucket
+	 */
+	@Test
+	public void testPercentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		assertEquals("An empty histogram should report 0", 0, histogram.getPercentile(50.0));
+
+		for(int i = 0; i < 99; ++i) {
+			histogram.record(100);
+		}
+		histogram.record(5000);
+
+		assertEquals("All latencies should be counted", 100, histogram.getCount());
+		assertEquals("All latencies should be summed", 99 * 100 + 5000, histogram.getTotalNanos());
+		assertEquals("The median should be in the bucket holding 100", 127, histogram.getPercentile(50.0));
+		assertEquals("The 99th percentile should be in the bucket holding 100", 127, histogram.getPercentile(99.0));
+		assertEquals("The maximum should be in the bucket holding 5000", 8191, histogram.getPercentile(100.0));
+
+		histogram.reset();
+		assertEquals("A reset histogram should be empty", 0, histogram.getCount());
+	}
+}
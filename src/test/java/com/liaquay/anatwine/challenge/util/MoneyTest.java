@@ -0,0 +1,79 @@
+package com.liaquay.anatwine.challenge.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+/**
+ * Tests for the money utility
+ */
+public class MoneyTest {
+
+	/**
+	 * Check amounts in pounds convert to pence and back
+	 */
+	@Test
+	public void testConversion() {
+		assertEquals(
+				"Pounds should convert exactly to pence",
+				4990,
+				Money.fromMajorUnits(new BigDecimal("49.90")));
+
+		assertEquals(
+				"Fractions of a penny should round half up",
+				1246,
+				Money.fromMajorUnits(new BigDecimal("12.455")));
+
+		assertEquals(
+				"Pence should convert exactly to pounds",
+				new BigDecimal("49.90"),
+				Money.toMajorUnits(4990));
+	}
+
+	/**
+	 * Check percentages of amounts round half up to the nearest penny
+	 */
+	@Test
+	public void testPercentageOf() {
+		assertEquals(
+				"Exact percentages should not be rounded",
+				499,
+				Money.percentageOf(4990, 10.0));
+
+		assertEquals(
+				"Half a penny should round up",
+				63,
+				Money.percentageOf(125, 50.0));
+
+		assertEquals(
+				"Less than half a penny should round down",
+				62,
+				Money.percentageOf(1249, 5.0));
+
+		assertEquals(
+				"Fractional percentages should be used",
+				156,
+				Money.percentageOf(1250, 12.5));
+	}
+
+	/**
+	 * Check amounts in pounds written as text convert to pence as exactly as decimals do
+	 */
+	@Test
+	public void testParseMajorUnits() {
+		for(final String amount : new String[] {"49.90", "49.9", "49", "0.5", "12.455", "12.454", "12.4549", "-12.455", "1.5e1", "0.001"}) {
+			assertEquals(
+					"Text should convert as a decimal would for " + amount,
+					Money.fromMajorUnits(new BigDecimal(amount)),
+					Money.parseMajorUnits(amount.toCharArray(), 0, amount.length()));
+		}
+
+		final char[] chars = "[12.50,9.5]".toCharArray();
+		assertEquals(
+				"Only the given characters should be converted",
+				950,
+				Money.parseMajorUnits(chars, 7, 3));
+	}
+}